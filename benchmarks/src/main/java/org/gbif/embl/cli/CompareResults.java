@@ -0,0 +1,118 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.embl.cli;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares two JMH result files written with {@code -rf csv}, e.g. of the main branch and of a
+ * change:
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar org.gbif.embl.cli.CompareResults before.csv after.csv
+ * </pre>
+ *
+ * Prints the scores and the change of every benchmark found in both files. Changes smaller than
+ * the sum of the score errors are marked as not significant.
+ */
+public final class CompareResults {
+
+  private CompareResults() {}
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 2) {
+      System.err.println("Usage: CompareResults <before.csv> <after.csv>");
+      System.exit(1);
+    }
+
+    Map<String, double[]> before = read(args[0]);
+    Map<String, double[]> after = read(args[1]);
+
+    System.out.printf("%-60s %14s %14s %9s%n", "Benchmark", "Before", "After", "Change");
+    for (Map.Entry<String, double[]> entry : before.entrySet()) {
+      double[] a = entry.getValue();
+      double[] b = after.get(entry.getKey());
+      if (b == null) {
+        continue;
+      }
+      double change = (b[0] - a[0]) / a[0] * 100;
+      boolean significant = Math.abs(b[0] - a[0]) > a[1] + b[1];
+      System.out.printf(
+          "%-60s %14.3f %14.3f %+8.1f%%%s%n",
+          entry.getKey(), a[0], b[0], change, significant ? "" : " (not significant)");
+    }
+  }
+
+  /** Score and error by benchmark name and parameters. */
+  private static Map<String, double[]> read(String file) throws IOException {
+    List<String> lines = Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8);
+    List<String> header = parseLine(lines.get(0));
+    int score = header.indexOf("Score");
+    int error = header.indexOf("Score Error (99.9%)");
+    int unit = header.indexOf("Unit");
+
+    Map<String, double[]> results = new LinkedHashMap<>();
+    for (String line : lines.subList(1, lines.size())) {
+      if (line.isBlank()) {
+        continue;
+      }
+      List<String> values = parseLine(line);
+      // class and method, without the package
+      String name = values.get(0);
+      StringBuilder key =
+          new StringBuilder(name.substring(name.lastIndexOf('.', name.lastIndexOf('.') - 1) + 1));
+      for (int i = unit + 1; i < values.size(); i++) {
+        if (!values.get(i).isEmpty()) {
+          key.append(' ').append(header.get(i).replace("Param: ", "")).append('=');
+          key.append(values.get(i));
+        }
+      }
+      key.append(" (").append(values.get(unit)).append(')');
+      results.put(
+          key.toString(), new double[] {number(values.get(score)), number(values.get(error))});
+    }
+    return results;
+  }
+
+  private static double number(String value) {
+    return value.isEmpty() || value.equals("NaN") ? 0 : Double.parseDouble(value);
+  }
+
+  /** Splits a CSV line, values may be quoted. */
+  private static List<String> parseLine(String line) {
+    List<String> values = new ArrayList<>();
+    StringBuilder value = new StringBuilder();
+    boolean quoted = false;
+    for (int i = 0; i < line.length(); i++) {
+      char c = line.charAt(i);
+      if (c == '"') {
+        quoted = !quoted;
+      } else if (c == ',' && !quoted) {
+        values.add(value.toString());
+        value.setLength(0);
+      } else {
+        value.append(c);
+      }
+    }
+    values.add(value.toString());
+    return values;
+  }
+}
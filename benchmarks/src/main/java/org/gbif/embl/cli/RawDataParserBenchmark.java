@@ -0,0 +1,84 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.embl.cli;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * STORE_DATA parsing: TSV line splitting and mapping of the columns by the header line.
+ * Time per line.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class RawDataParserBenchmark {
+
+  private List<String> lines;
+
+  @Setup
+  public void setup() {
+    lines = SampleData.lines();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(1000)
+  public void parse(Blackhole blackhole) throws SQLException {
+    RawDataParser parser = new RawDataParser(false, null);
+    BlackholeWriter writer = new BlackholeWriter(blackhole);
+    for (String line : lines) {
+      blackhole.consume(parser.parse(line, writer));
+    }
+  }
+
+  /** Consumes the values instead of writing them to the database. */
+  private static final class BlackholeWriter implements RawDataWriter {
+    private final Blackhole blackhole;
+
+    BlackholeWriter(Blackhole blackhole) {
+      this.blackhole = blackhole;
+    }
+
+    @Override
+    public void setString(int index, String value) {
+      blackhole.consume(value);
+    }
+
+    @Override
+    public void addRecord() {}
+
+    @Override
+    public void flush() {}
+
+    @Override
+    public void close() {}
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.embl.cli;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * PROCESS_DATA conversions of the sample records: coordinates, country and locality, and the
+ * conversion of whole records. Time per record.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class RecordConverterBenchmark {
+
+  private List<RawRecord> records;
+  private RecordConverter converter;
+  private ProcessedRecord processed;
+
+  @Setup
+  public void setup() {
+    records = SampleData.records();
+    converter = new RecordConverter(null);
+    processed = new ProcessedRecord();
+  }
+
+  /** decimalLatitude and decimalLongitude from location. */
+  @Benchmark
+  @OperationsPerInvocation(1000)
+  public void coordinates(Blackhole blackhole) {
+    for (RawRecord record : records) {
+      converter.setCoordinates(processed, record.location);
+      blackhole.consume(processed);
+    }
+  }
+
+  /** country and locality from country. */
+  @Benchmark
+  @OperationsPerInvocation(1000)
+  public void countryAndLocality(Blackhole blackhole) {
+    for (RawRecord record : records) {
+      converter.setCountryAndLocality(processed, record.country);
+      blackhole.consume(processed);
+    }
+  }
+
+  /** All the terms of a processed record. */
+  @Benchmark
+  @OperationsPerInvocation(1000)
+  public void convert(Blackhole blackhole) {
+    for (RawRecord record : records) {
+      converter.convert(record, processed);
+      blackhole.consume(processed);
+    }
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.embl.cli;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Deduplication of 1 million records, sample records repeated with distinct sample accessions
+ * (one third of them duplicates). Time per record, includes growing the set.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class RecordDeduplicatorBenchmark {
+
+  private static final int RECORDS = 1_000_000;
+
+  @Param({"EXACT", "FINGERPRINT"})
+  public DedupMode mode;
+
+  @Param({"BITS_64", "BITS_128"})
+  public DedupFingerprint fingerprint;
+
+  @Param({"false", "true"})
+  public boolean offHeap;
+
+  private String[] sampleAccessions;
+  private String[] scientificNames;
+
+  @Setup
+  public void setup() {
+    List<RawRecord> records = SampleData.records();
+    sampleAccessions = new String[RECORDS];
+    scientificNames = new String[RECORDS];
+    for (int i = 0; i < RECORDS; i++) {
+      RawRecord record = records.get(i % records.size());
+      // every third record repeats an earlier key
+      int key = i % 3 == 2 ? i - 1 : i;
+      sampleAccessions[i] = record.sampleAccession + '-' + key;
+      scientificNames[i] = records.get(key % records.size()).scientificName;
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(RECORDS)
+  public void deduplicate(Blackhole blackhole) throws IOException {
+    DedupConfiguration config = new DedupConfiguration();
+    config.mode = mode;
+    config.fingerprint = fingerprint;
+    config.offHeap = offHeap;
+    try (RecordDeduplicator deduplicator = RecordDeduplicator.create(config)) {
+      for (int i = 0; i < RECORDS; i++) {
+        blackhole.consume(deduplicator.isDuplicate(sampleAccessions[i], scientificNames[i]));
+      }
+    }
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.embl.cli;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.gbif.embl.util.EmblAdapterConstants.*;
+
+/**
+ * Synthetic sample (synthetic-sample.tsv) shared by the benchmarks: 1000 generated sequence records
+ * in the format of an ENA search response, with the fields requested by the adapter in a different
+ * order than the raw data table. The values mimic the shapes found in ENA (coordinates, countries
+ * with localities, vouchers, dates, missing fields) but the records are not an extract of ENA.
+ */
+final class SampleData {
+
+  private static final String RESOURCE = "/synthetic-sample.tsv";
+
+  private SampleData() {}
+
+  /** Lines of the sample, the first one is the header. */
+  static List<String> lines() {
+    try (BufferedReader reader =
+        new BufferedReader(
+            new InputStreamReader(
+                SampleData.class.getResourceAsStream(RESOURCE), StandardCharsets.UTF_8))) {
+      return reader.lines().collect(Collectors.toList());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /** Records of the sample, parsed like the STORE_DATA step does. */
+  static List<RawRecord> records() {
+    RawDataParser parser = new RawDataParser(false, null);
+    List<RawRecord> records = new ArrayList<>();
+    try {
+      for (String line : lines()) {
+        RawRecordWriter writer = new RawRecordWriter();
+        if (parser.parse(line, writer)) {
+          records.add(writer.record);
+        }
+      }
+    } catch (SQLException e) {
+      throw new IllegalStateException(e);
+    }
+    return records;
+  }
+
+  /** Fills a raw record instead of writing to the database. */
+  static final class RawRecordWriter implements RawDataWriter {
+    final RawRecord record = new RawRecord();
+
+    @Override
+    public void setString(int index, String value) {
+      switch (index) {
+        case RAW_INDEX_ACCESSION -> record.accession = value;
+        case RAW_INDEX_SAMPLE_ACCESSION -> record.sampleAccession = value;
+        case RAW_INDEX_LOCATION -> record.location = value;
+        case RAW_INDEX_COUNTRY -> record.country = value;
+        case RAW_INDEX_IDENTIFIED_BY -> record.identifiedBy = value;
+        case RAW_INDEX_COLLECTED_BY -> record.collectedBy = value;
+        case RAW_INDEX_COLLECTION_DATE -> record.collectionDate = value;
+        case RAW_INDEX_SPECIMEN_VOUCHER -> record.specimenVoucher = value;
+        case RAW_INDEX_SEQUENCE_MD5 -> record.sequenceMd5 = value;
+        case RAW_INDEX_SCIENTIFIC_NAME -> record.scientificName = value;
+        case RAW_INDEX_TAX_ID -> record.taxId = value;
+        case RAW_INDEX_ALTITUDE -> record.altitude = value;
+        case RAW_INDEX_SEX -> record.sex = value;
+        case RAW_INDEX_DESCRIPTION -> record.description = value;
+        case RAW_INDEX_HOST -> record.host = value;
+        default -> throw new IllegalArgumentException("Unknown column " + index);
+      }
+    }
+
+    @Override
+    public void addRecord() {}
+
+    @Override
+    public void flush() {}
+
+    @Override
+    public void close() {}
+  }
+}
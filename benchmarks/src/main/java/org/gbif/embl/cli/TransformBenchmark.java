@@ -0,0 +1,76 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.embl.cli;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * End to end transformation of the sample lines without the database: parsing of the TSV line,
+ * filtering and deduplication with the {@link RecordFilter} of the processing step and conversion
+ * into a processed record. Time per line.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class TransformBenchmark {
+
+  private List<String> lines;
+
+  @Setup
+  public void setup() {
+    lines = SampleData.lines();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(1000)
+  public void transform(Blackhole blackhole) throws SQLException, IOException {
+    RawDataParser parser = new RawDataParser(false, null);
+    RecordConverter converter = new RecordConverter(null);
+    SampleData.RawRecordWriter writer = new SampleData.RawRecordWriter();
+    RawRecord raw = writer.record;
+    ProcessedRecord processed = new ProcessedRecord();
+    try (RecordDeduplicator deduplicator = RecordDeduplicator.create(new DedupConfiguration())) {
+      RecordFilter filter = new RecordFilter(deduplicator, null);
+      for (String line : lines) {
+        if (!parser.parse(line, writer)) {
+          continue;
+        }
+        if (!filter.accept(raw)) {
+          continue;
+        }
+        converter.convert(raw, processed);
+        blackhole.consume(processed);
+      }
+    }
+  }
+}
@@ -0,0 +1,57 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.embl.cli;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import static org.gbif.embl.util.EmblAdapterConstants.WRITE_BATCH_SIZE;
+
+/**
+ * {@link ProcessedDataWriter} which inserts records into the processed data table using JDBC
+ * batches.
+ */
+class BatchProcessedDataWriter implements ProcessedDataWriter {
+
+  private final PreparedStatement ps;
+  private int records = 0;
+
+  /**
+   * @param sqlInsert insert (or upsert) of the processed data table
+   */
+  BatchProcessedDataWriter(Connection connection, String sqlInsert) throws SQLException {
+    this.ps = connection.prepareStatement(sqlInsert);
+  }
+
+  @Override
+  public void addRecord(ProcessedRecord record) throws SQLException {
+    record.addBatch(ps);
+    records++;
+
+    if (records % WRITE_BATCH_SIZE == 0) {
+      ps.executeBatch();
+    }
+  }
+
+  @Override
+  public void flush() throws SQLException {
+    ps.executeBatch();
+  }
+
+  @Override
+  public void close() throws SQLException {
+    ps.close();
+  }
+}
@@ -0,0 +1,66 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.embl.cli;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import static org.gbif.embl.util.EmblAdapterConstants.SQL_INSERT_RAW_DATA;
+import static org.gbif.embl.util.EmblAdapterConstants.SQL_UPSERT_RAW_DATA;
+import static org.gbif.embl.util.EmblAdapterConstants.WRITE_BATCH_SIZE;
+
+/**
+ * {@link RawDataWriter} which inserts records using JDBC batches.
+ */
+public class BatchRawDataWriter implements RawDataWriter {
+
+  private final PreparedStatement ps;
+  private int records = 0;
+
+  /**
+   * @param upsert update existing records (not stored by the running harvest yet) and remember
+   *     the stored accessions in the delta table, otherwise existing records are skipped
+   */
+  public BatchRawDataWriter(Connection connection, String tableName, boolean upsert)
+      throws SQLException {
+    String sql = upsert ? SQL_UPSERT_RAW_DATA : SQL_INSERT_RAW_DATA;
+    this.ps = connection.prepareStatement(sql.replace("embl_data", tableName));
+  }
+
+  @Override
+  public void setString(int index, String value) throws SQLException {
+    ps.setString(index, value);
+  }
+
+  @Override
+  public void addRecord() throws SQLException {
+    ps.addBatch();
+    records++;
+
+    if (records % WRITE_BATCH_SIZE == 0) {
+      ps.executeBatch();
+    }
+  }
+
+  @Override
+  public void flush() throws SQLException {
+    ps.executeBatch();
+  }
+
+  @Override
+  public void close() throws SQLException {
+    ps.close();
+  }
+}
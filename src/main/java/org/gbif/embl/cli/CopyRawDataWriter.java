@@ -0,0 +1,169 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.embl.cli;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+
+import static org.gbif.embl.util.EmblAdapterConstants.RAW_MAX_INDEX;
+import static org.gbif.embl.util.EmblAdapterConstants.SQL_CLEAN;
+import static org.gbif.embl.util.EmblAdapterConstants.SQL_COPY_RAW_DATA;
+import static org.gbif.embl.util.EmblAdapterConstants.SQL_CREATE_COPY_TABLE;
+import static org.gbif.embl.util.EmblAdapterConstants.SQL_MERGE_COPY_TABLE;
+import static org.gbif.embl.util.EmblAdapterConstants.SQL_UPSERT_COPY_TABLE;
+
+/**
+ * {@link RawDataWriter} which loads records using PostgreSQL {@code COPY ... FROM STDIN} (text
+ * format).
+ * <p>
+ * COPY can't skip conflicting rows, so records are copied into a temporary table first and merged
+ * into the raw data table on {@link #flush()} in the order they were copied with {@code ON CONFLICT
+ * DO NOTHING}, the same semantics as {@link BatchRawDataWriter} (or upserted). Must be used inside
+ * a transaction.
+ */
+public class CopyRawDataWriter implements RawDataWriter {
+
+  // send data to the server in chunks of this size
+  static final int COPY_BUFFER_SIZE = 1 << 16;
+
+  private final CopyManager copyManager;
+  private final Connection connection;
+  private final String tableName;
+  private final String copyTableName;
+  private final boolean upsert;
+  private final String[] values = new String[RAW_MAX_INDEX];
+  private final StringBuilder buffer = new StringBuilder(COPY_BUFFER_SIZE + 1024);
+  private CopyIn copyIn;
+
+  /**
+   * @param upsert update existing records (not stored by the running harvest yet) and remember
+   *     the stored accessions in the delta table, otherwise existing records are skipped
+   */
+  public CopyRawDataWriter(Connection connection, String tableName, boolean upsert)
+      throws SQLException {
+    this.connection = connection;
+    this.tableName = tableName;
+    this.upsert = upsert;
+    this.copyTableName = tableName + "_copy";
+    this.copyManager = connection.unwrap(PGConnection.class).getCopyAPI();
+
+    try (Statement st = connection.createStatement()) {
+      st.execute(SQL_CREATE_COPY_TABLE.replace("embl_data", tableName));
+    }
+  }
+
+  /**
+   * Whether COPY is supported by the connection.
+   */
+  public static boolean isSupported(Connection connection) throws SQLException {
+    return connection.isWrapperFor(PGConnection.class);
+  }
+
+  @Override
+  public void setString(int index, String value) {
+    values[index - 1] = value;
+  }
+
+  @Override
+  public void addRecord() throws SQLException {
+    for (int i = 0; i < values.length; i++) {
+      if (i > 0) {
+        buffer.append('\t');
+      }
+      appendEscaped(buffer, values[i]);
+    }
+    buffer.append('\n');
+    Arrays.fill(values, null);
+
+    if (buffer.length() >= COPY_BUFFER_SIZE) {
+      writeBuffer();
+    }
+  }
+
+  @Override
+  public void flush() throws SQLException {
+    writeBuffer();
+    if (copyIn == null) {
+      return;
+    }
+
+    copyIn.endCopy();
+    copyIn = null;
+
+    try (Statement st = connection.createStatement()) {
+      if (upsert) {
+        st.executeUpdate(SQL_UPSERT_COPY_TABLE.replace("embl_data", tableName));
+      } else {
+        st.executeUpdate(SQL_MERGE_COPY_TABLE.replace("embl_data", tableName));
+      }
+      st.executeUpdate(SQL_CLEAN.replace("embl_data", copyTableName));
+    }
+  }
+
+  @Override
+  public void close() throws SQLException {
+    if (copyIn != null && copyIn.isActive()) {
+      copyIn.cancelCopy();
+    }
+  }
+
+  private void writeBuffer() throws SQLException {
+    if (buffer.length() == 0) {
+      return;
+    }
+
+    if (copyIn == null) {
+      copyIn = copyManager.copyIn(SQL_COPY_RAW_DATA.replace("embl_data", copyTableName));
+    }
+
+    byte[] bytes = buffer.toString().getBytes(StandardCharsets.UTF_8);
+    copyIn.writeToCopy(bytes, 0, bytes.length);
+    buffer.setLength(0);
+  }
+
+  /** Escapes a value for the COPY text format, nulls are written as \N. */
+  static void appendEscaped(StringBuilder buffer, String value) {
+    if (value == null) {
+      buffer.append("\\N");
+      return;
+    }
+
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '\\':
+          buffer.append("\\\\");
+          break;
+        case '\t':
+          buffer.append("\\t");
+          break;
+        case '\n':
+          buffer.append("\\n");
+          break;
+        case '\r':
+          buffer.append("\\r");
+          break;
+        default:
+          buffer.append(c);
+      }
+    }
+  }
+}
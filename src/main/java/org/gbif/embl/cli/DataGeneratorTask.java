@@ -14,30 +14,36 @@
 package org.gbif.embl.cli;
 
 import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.URL;
-import java.net.URLEncoder;
+import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
 import java.sql.Connection;
+import java.sql.Date;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.util.HashMap;
+import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.Map;
+import java.util.List;
 import java.util.Set;
-import java.util.regex.Matcher;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntSupplier;
 import java.util.stream.Stream;
 
 import javax.sql.DataSource;
 
+import org.apache.commons.io.input.TeeInputStream;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -51,14 +57,59 @@ public class DataGeneratorTask implements Runnable {
 
   private static final Logger LOG = LoggerFactory.getLogger(DataGeneratorTask.class);
 
+  private static final long PIPELINE_LOG_INTERVAL_MS = 60_000;
+
   private final DataSource dataSource;
   private final TaskConfiguration taskConfiguration;
   private final Marker marker;
+  private final EnaRequestDownloader downloader;
+  private final ResourceScheduler scheduler;
+  // raw data files stored, the ones of the shared harvest for a routed task
+  private final String rawDataFile1;
+  private final String rawDataFile2;
+
+  // DB connections granted to the running step
+  private int stepConnections = 1;
+
+  // start of the harvest, saved as the harvest state when complete
+  private LocalDate harvestStarted;
+
+  // records updated since this date are harvested, null means all records
+  private LocalDate updatedSince;
+
+  // the harvested records are processed, the harvest state can be saved
+  private boolean processed;
 
-  public DataGeneratorTask(TaskConfiguration taskConfiguration, DataSource dataSource) {
+  // ranks of the records by tax id while processing, null if they are read from the query
+  private TaxonomyLookup taxonomy;
+
+  public DataGeneratorTask(
+      TaskConfiguration taskConfiguration,
+      DataSource dataSource,
+      DownloadConfiguration downloadConfiguration,
+      ResourceScheduler scheduler,
+      SharedHarvestConfiguration sharedHarvest) {
     this.taskConfiguration = taskConfiguration;
     this.dataSource = dataSource;
+    this.scheduler = scheduler;
     this.marker = MarkerFactory.getMarker(taskConfiguration.name);
+    this.downloader = new EnaRequestDownloader(new HttpDownloader(downloadConfiguration), marker);
+    if (isRouted()) {
+      if (sharedHarvest == null) {
+        throw new IllegalArgumentException(
+            "Task " + taskConfiguration.name + " has a route, sharedHarvest is not configured");
+      }
+      this.rawDataFile1 = sharedHarvest.rawDataFile1;
+      this.rawDataFile2 = sharedHarvest.rawDataFile2;
+    } else {
+      this.rawDataFile1 = taskConfiguration.rawDataFile1;
+      this.rawDataFile2 = taskConfiguration.rawDataFile2;
+    }
+    if (taskConfiguration.storeWorkers > 1 && !taskConfiguration.shadowLoad) {
+      // store workers commit separately, only a shadow table keeps a failed load invisible
+      throw new IllegalArgumentException(
+          "Task " + taskConfiguration.name + " has storeWorkers > 1, shadowLoad is required");
+    }
   }
 
   @Override
@@ -69,17 +120,10 @@ public class DataGeneratorTask implements Runnable {
     LOG.info("Steps: {}", taskConfiguration.steps);
 
     try {
-      // download data from URL
-      downloadData();
-
-      // store raw data into database
-      storeData();
-
-      // process raw data and store processed into database
-      processData();
-
-      // delete temp files
-      deleteDataFiles();
+      download();
+      store();
+      process();
+      complete();
     } catch (IOException e) {
       LOG.error("IOException while producing data", e);
     } catch (SQLException e) {
@@ -89,13 +133,175 @@ public class DataGeneratorTask implements Runnable {
     }
   }
 
+  /**
+   * Adds the steps of the task to the graph instead of running them one after another: download,
+   * store, process and complete (delete data files, save the harvest state), each requires the
+   * previous one. The store step of a routed task also requires the shared harvest download, which
+   * must be added before.
+   *
+   * @param processAfter steps the process step runs after, whatever their outcome
+   */
+  void addSteps(StepGraph graph, String... processAfter) {
+    graph.add(stepName("download"), marker, this::download);
+    StepGraph.Node store =
+        graph.add(stepName("store"), marker, this::store).requires(stepName("download"));
+    if (isRouted()) {
+      store.requires(SharedHarvest.DOWNLOAD_STEP);
+    }
+    graph
+        .add(stepName("process"), marker, this::process)
+        .requires(stepName("store"))
+        .after(processAfter);
+    graph.add(stepName("complete"), marker, this::complete).requires(stepName("process"));
+  }
+
+  /** Name of a step of the task added to a graph. */
+  String stepName(String step) {
+    return taskConfiguration.name + "/" + step;
+  }
+
+  /** Stores the records of the shared harvest matching its route. */
+  boolean isRouted() {
+    return taskConfiguration.route != null;
+  }
+
+  /**
+   * Reads the harvest state and downloads the data, unless it is streamed or downloaded by the
+   * shared harvest.
+   */
+  private void download() throws IOException, SQLException {
+    harvestStarted = LocalDate.now();
+    updatedSince = null;
+    processed = false;
+    if (isRouted()) {
+      LOG.info(marker, "Records routed from the shared harvest: {}", taskConfiguration.route);
+      if (taskConfiguration.incremental) {
+        LOG.warn(marker, "Routed tasks are full harvests, incremental is ignored");
+      }
+      return;
+    }
+    if (taskConfiguration.incremental) {
+      scheduler.run(
+          marker,
+          "harvest state",
+          false,
+          1,
+          () -> {
+            updatedSince = readLastHarvest();
+            if (updatedSince != null) {
+              createDeltaTable(taskConfiguration.tableName);
+            }
+          });
+    }
+    if (updatedSince != null) {
+      LOG.info(marker, "Incremental harvest of records updated since {}", updatedSince);
+    }
+
+    if (!isStreaming()) {
+      // download data from URL
+      runStep(TaskStep.DOWNLOAD_DATA, true, () -> 0, this::downloadData);
+    }
+  }
+
+  private void store() throws IOException, SQLException {
+    if (isStreaming()) {
+      // download data from URL and store it into database on the fly
+      runStep(TaskStep.STORE_DATA, true, () -> 1, this::downloadAndStoreData);
+    } else {
+      // store raw data into database
+      runStep(TaskStep.STORE_DATA, false, this::storeConnections, this::storeData);
+    }
+  }
+
+  private void process() throws IOException, SQLException {
+    // process raw data and store processed into database
+    runStep(TaskStep.PROCESS_DATA, false, this::processConnections, this::processData);
+  }
+
+  /**
+   * Deletes the data files (unless shared) and saves the harvest state, if the harvested records
+   * were stored and processed.
+   */
+  private void complete() throws IOException, SQLException {
+    if (isRouted()) {
+      return;
+    }
+
+    // delete temp files
+    deleteDataFiles();
+
+    if (taskConfiguration.incremental
+        && isStepEnabled(TaskStep.DOWNLOAD_DATA)
+        && isStepEnabled(TaskStep.STORE_DATA)
+        && processed) {
+      scheduler.run(marker, "harvest state", false, 1, () -> saveLastHarvest(harvestStarted));
+    }
+  }
+
+  private boolean isStreaming() {
+    return taskConfiguration.streamData
+        && !isRouted()
+        && isStepEnabled(TaskStep.DOWNLOAD_DATA)
+        && isStepEnabled(TaskStep.STORE_DATA);
+  }
+
+  /**
+   * Runs an enabled step with its resources from the scheduler, a disabled one runs (and skips)
+   * without.
+   *
+   * @param download the step downloads
+   * @param connections DB connections the step uses at the same time, also the parallelism of the
+   *     index creation in the step
+   */
+  private void runStep(
+      TaskStep step, boolean download, IntSupplier connections, ResourceScheduler.Step body)
+      throws IOException, SQLException {
+    if (!isStepEnabled(step)) {
+      body.run();
+      return;
+    }
+    int requested = connections.getAsInt();
+    scheduler.run(
+        marker,
+        step.name(),
+        download,
+        requested,
+        () -> {
+          stepConnections = Math.max(scheduler.connections(requested), 1);
+          body.run();
+        });
+  }
+
+  /** DB connections of the store step, one per store worker. */
+  private int storeConnections() {
+    return taskConfiguration.storeWorkers > 1 && updatedSince == null
+        ? workers(taskConfiguration.storeWorkers, 1)
+        : 1;
+  }
+
+  /**
+   * DB connections of the process step, two per processing worker in the JVM, one in the
+   * database.
+   */
+  private int processConnections() {
+    if (taskConfiguration.processingMode == ProcessingMode.DATABASE
+        && taskConfiguration.processedDataSink == ProcessedDataSink.TABLE) {
+      return 1;
+    }
+    return workers(taskConfiguration.processingWorkers, 2) * 2;
+  }
+
   private void deleteDataFiles() throws IOException {
-    if (!taskConfiguration.steps.isEmpty()
-        && !taskConfiguration.steps.contains(TaskStep.DELETE_DATA_FILES)) {
+    if (!isStepEnabled(TaskStep.DELETE_DATA_FILES)) {
       LOG.info(marker, "Skipping store data step");
       return;
     }
 
+    if (taskConfiguration.keepRawDataFiles) {
+      LOG.info(marker, "Raw data files are configured to be kept");
+      return;
+    }
+
     Files.deleteIfExists(Paths.get(taskConfiguration.rawDataFile1));
     Files.deleteIfExists(Paths.get(taskConfiguration.rawDataFile2));
     LOG.info(marker, "Raw data file {} deleted", taskConfiguration.rawDataFile1);
@@ -103,84 +309,223 @@ public class DataGeneratorTask implements Runnable {
   }
 
   private void downloadData() throws IOException {
-    if (!taskConfiguration.steps.isEmpty()
-        && !taskConfiguration.steps.contains(TaskStep.DOWNLOAD_DATA)) {
+    if (!isStepEnabled(TaskStep.DOWNLOAD_DATA)) {
       LOG.info(marker, "Skipping download data step");
       return;
     }
 
     LOG.info(marker, "Start downloading data");
 
-    // download non-CON sequences
-    String requestUrl1 =
-        taskConfiguration.request1.url
-            + "?dataPortal="
-            + taskConfiguration.request1.dataPortal
-            + "&result="
-            + taskConfiguration.request1.result
-            + "&offset="
-            + taskConfiguration.request1.offset
-            + "&limit="
-            + taskConfiguration.request1.limit
-            + "&fields="
-            + taskConfiguration.request1.fields
-            + "&query="
-            + URLEncoder.encode(taskConfiguration.request1.query, StandardCharsets.UTF_8);
-
-    LOG.debug("Downloading {}", requestUrl1);
-    URL download = new URL(requestUrl1);
-    try (InputStream in = download.openStream()) {
-      Files.copy(
-          in, Paths.get(taskConfiguration.rawDataFile1), StandardCopyOption.REPLACE_EXISTING);
-    }
-
-    // download wgs_set
-    String requestUrl2 =
-        taskConfiguration.request2.url
-            + "?dataPortal="
-            + taskConfiguration.request2.dataPortal
-            + "&result="
-            + taskConfiguration.request2.result
-            + "&offset="
-            + taskConfiguration.request2.offset
-            + "&limit="
-            + taskConfiguration.request2.limit
-            + "&fields="
-            + taskConfiguration.request2.fields
-            + "&query="
-            + URLEncoder.encode(taskConfiguration.request2.query, StandardCharsets.UTF_8);
-
-    LOG.debug("Downloading {}", requestUrl2);
-    URL download2 = new URL(requestUrl2);
-    try (InputStream in = download2.openStream()) {
-      Files.copy(
-          in, Paths.get(taskConfiguration.rawDataFile2), StandardCopyOption.REPLACE_EXISTING);
+    // download non-CON sequences and wgs_set in parallel
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<?> download1 =
+          executor.submit(
+              () -> {
+                downloader.download(
+                    taskConfiguration.request1,
+                    updatedSince,
+                    Paths.get(taskConfiguration.rawDataFile1),
+                    taskConfiguration.rawDataCompression);
+                return null;
+              });
+      Future<?> download2 =
+          executor.submit(
+              () -> {
+                downloader.download(
+                    taskConfiguration.request2,
+                    updatedSince,
+                    Paths.get(taskConfiguration.rawDataFile2),
+                    taskConfiguration.rawDataCompression);
+                return null;
+              });
+
+      EnaRequestDownloader.await(download1);
+      EnaRequestDownloader.await(download2);
+    } finally {
+      executor.shutdownNow();
     }
 
     LOG.debug("Download complete.");
   }
 
+  /**
+   * Downloads data and stores it into the raw data table while the response is still arriving, no
+   * intermediate files are written unless {@link TaskConfiguration#keepRawDataFiles} is set.
+   */
+  private void downloadAndStoreData() throws IOException, SQLException {
+    LOG.info(marker, "Start downloading and storing data (streaming)");
+
+    // the second request is opened only after the first one is consumed
+    storeData(
+        () -> openStreamReader(taskConfiguration.request1, taskConfiguration.rawDataFile1),
+        () -> openStreamReader(taskConfiguration.request2, taskConfiguration.rawDataFile2));
+
+    LOG.debug("Download and store complete.");
+  }
+
+  private BufferedReader openStreamReader(RequestConfiguration request, String rawDataFile)
+      throws IOException {
+    InputStream in = downloader.open(request, updatedSince);
+    if (taskConfiguration.keepRawDataFiles) {
+      LOG.debug(marker, "Keeping a copy of the raw data in {}", rawDataFile);
+      // the copy is closed with the stream
+      in =
+          new TeeInputStream(
+              in,
+              taskConfiguration.rawDataCompression.newOutputStream(Paths.get(rawDataFile)),
+              true);
+    }
+    return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+  }
+
   protected void storeData() throws IOException, SQLException {
-    if (!taskConfiguration.steps.isEmpty()
-        && !taskConfiguration.steps.contains(TaskStep.STORE_DATA)) {
+    if (!isStepEnabled(TaskStep.STORE_DATA)) {
       LOG.info(marker, "Skipping store data step");
       return;
     }
 
+    if (taskConfiguration.storeWorkers > 1) {
+      if (updatedSince != null) {
+        // the first record of an accession wins, the files are stored in order
+        LOG.info(marker, "Incremental harvests are stored in one worker");
+      } else if (isCompressed(rawDataFile1) || isCompressed(rawDataFile2)) {
+        LOG.warn(marker, "Compressed raw data files can't be mapped, storing them in one worker");
+      } else {
+        storeDataParallel();
+        return;
+      }
+    }
+
+    storeData(() -> openFileReader(rawDataFile1), () -> openFileReader(rawDataFile2));
+  }
+
+  private BufferedReader openFileReader(String rawDataFile) throws IOException {
+    return new BufferedReader(
+        new InputStreamReader(
+            RawDataCompression.newInputStream(Paths.get(rawDataFile)), StandardCharsets.UTF_8));
+  }
+
+  private static boolean isCompressed(String rawDataFile) throws IOException {
+    return RawDataCompression.detect(Paths.get(rawDataFile)) != RawDataCompression.NONE;
+  }
+
+  /**
+   * Stores the raw data files by several workers in parallel. The files are memory mapped and
+   * split into ranges at line boundaries, each range is parsed by a worker with its own DB
+   * connection and writer. The header of a file is read once and shared by its ranges.
+   * <p>
+   * Every worker commits its own transaction, so the workers load a shadow table (shadowLoad is
+   * required) which replaces the table only when all of them succeeded. Incremental harvests are
+   * stored in one transaction.
+   * <p>
+   * The ranges are numbered in file order (file1 before file2) and the shadow table keeps the load
+   * order, its unique indexes are created after loading: the first record of an accession wins like
+   * in a serial load, whatever the order the workers ran in.
+   */
+  private void storeDataParallel() throws IOException, SQLException {
+    LOG.debug(marker, "Store raw data into DB in parallel");
+    try (ShadowTable shadow =
+        ShadowTable.create(
+            dataSource, taskConfiguration.tableName, true, stepConnections, marker)) {
+      shadow.keepLoadOrder();
+      checkRawDataTable(shadow.name());
+      storeDataParallel(shadow.name());
+      shadow.swap();
+    }
+  }
+
+  private void storeDataParallel(String targetTable) throws IOException, SQLException {
+    int workers = stepConnections;
+    ExecutorService executor =
+        Executors.newFixedThreadPool(
+            workers,
+            r -> {
+              Thread thread = new Thread(r);
+              thread.setName(taskConfiguration.name + "-store-" + thread.getId());
+              return thread;
+            });
+    try (MappedRawDataFile file1 = new MappedRawDataFile(Paths.get(rawDataFile1));
+        MappedRawDataFile file2 = new MappedRawDataFile(Paths.get(rawDataFile2))) {
+      List<Future<Long>> futures = new ArrayList<>();
+      submitRanges(executor, file1, false, workers, targetTable, futures);
+      submitRanges(executor, file2, true, workers, targetTable, futures);
+
+      long records = 0;
+      for (Future<Long> future : futures) {
+        records += awaitResult(future);
+      }
+      LOG.debug(marker, "Finish writing DB, {} records", records);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private void submitRanges(
+      ExecutorService executor,
+      MappedRawDataFile file,
+      boolean skipSequenceMd5,
+      int workers,
+      String targetTable,
+      List<Future<Long>> futures)
+      throws IOException, SQLException {
+    RawDataParser header = new RawDataParser(skipSequenceMd5, taskConfiguration.route, marker);
+    header.parse(file.header(), null);
+
+    List<MappedRawDataFile.Range> ranges = file.split(workers);
+    LOG.debug(marker, "Storing {} in {} ranges", file, ranges.size());
+    for (MappedRawDataFile.Range range : ranges) {
+      int loadRange = futures.size();
+      futures.add(
+          executor.submit(
+              () -> {
+                try (Connection connection = dataSource.getConnection()) {
+                  connection.setAutoCommit(false);
+                  ShadowTable.setLoadRange(connection, loadRange);
+                  long records;
+                  try (RawDataWriter writer = createRawDataWriter(connection, targetTable)) {
+                    records = file.parse(range, new RawDataParser(header), writer);
+                    writer.flush();
+                  }
+                  connection.commit();
+                  return records;
+                }
+              }));
+    }
+  }
+
+  private void storeData(RawDataSource source1, RawDataSource source2)
+      throws IOException, SQLException {
     LOG.debug(marker, "Store raw data into DB");
-    String sqlInsert = SQL_INSERT_RAW_DATA.replace("embl_data", taskConfiguration.tableName);
-    String sqlClean = SQL_CLEAN.replace("embl_data", taskConfiguration.tableName);
-    String sqlTestSelect = SQL_TEST_SELECT.replace("embl_data", taskConfiguration.tableName);
+    try (ShadowTable shadow =
+        createShadowTable(taskConfiguration.tableName, updatedSince == null)) {
+      String targetTable = shadow != null ? shadow.name() : taskConfiguration.tableName;
+      boolean clean = shadow == null && updatedSince == null;
+
+      try (TableIndexes indexes = dropIndexes(targetTable, clean)) {
+        storeData(source1, source2, targetTable, clean);
+
+        if (indexes != null) {
+          indexes.rebuild();
+        }
+      }
+
+      if (shadow != null) {
+        shadow.swap();
+      }
+    }
+  }
+
+  private void storeData(
+      RawDataSource source1, RawDataSource source2, String targetTable, boolean clean)
+      throws IOException, SQLException {
+    String sqlClean = SQL_CLEAN.replace("embl_data", targetTable);
+    String sqlTestSelect = SQL_TEST_SELECT.replace("embl_data", targetTable);
 
     // store data to DB
     try (Connection connection = dataSource.getConnection();
         Statement st = connection.createStatement();
-        PreparedStatement ps = connection.prepareStatement(sqlInsert);
-        Statement test = connection.createStatement();
-        BufferedReader fileReader1 =
-            new BufferedReader(new FileReader(taskConfiguration.rawDataFile1));
-        BufferedReader fileReader2 =
-            new BufferedReader(new FileReader(taskConfiguration.rawDataFile2))) {
+        Statement test = connection.createStatement()) {
 
       // test table is fine and all columns are present
       test.execute(sqlTestSelect);
@@ -188,14 +533,25 @@ public class DataGeneratorTask implements Runnable {
       // begin transaction
       connection.setAutoCommit(false);
 
-      // clean database table before
-      st.executeUpdate(sqlClean);
-      LOG.debug(marker, "DB cleaned");
+      // clean database table before, incremental harvest updates the existing data
+      if (clean) {
+        st.executeUpdate(sqlClean);
+        LOG.debug(marker, "DB cleaned");
+      } else if (updatedSince != null) {
+        // accessions left by a harvest which wasn't processed are kept
+        st.executeUpdate(SQL_RESET_DELTA.replace("embl_data", taskConfiguration.tableName));
+      }
 
       LOG.debug(marker, "Start writing DB");
 
-      executeBatch(ps, fileReader1, false);
-      executeBatch(ps, fileReader2, true);
+      try (RawDataWriter writer = createRawDataWriter(connection, targetTable)) {
+        try (BufferedReader reader1 = source1.open()) {
+          executeBatch(writer, reader1, false);
+        }
+        try (BufferedReader reader2 = source2.open()) {
+          executeBatch(writer, reader2, true);
+        }
+      }
 
       // complete transaction
       connection.commit();
@@ -203,10 +559,54 @@ public class DataGeneratorTask implements Runnable {
     }
   }
 
+  /** Checks the raw data table has all the columns. */
+  private void checkRawDataTable(String tableName) throws SQLException {
+    try (Connection connection = dataSource.getConnection();
+        Statement st = connection.createStatement()) {
+      st.execute(SQL_TEST_SELECT.replace("embl_data", tableName));
+    }
+  }
+
+  /**
+   * Shadow table replacing the table when loaded, if configured and the table is fully reloaded.
+   */
+  private ShadowTable createShadowTable(String tableName, boolean fullLoad) throws SQLException {
+    if (!taskConfiguration.shadowLoad || !fullLoad) {
+      return null;
+    }
+    return ShadowTable.create(
+        dataSource, tableName, taskConfiguration.rebuildIndexes, stepConnections, marker);
+  }
+
+  /**
+   * Drops the indexes of the table to load it faster, if configured and the table is fully
+   * reloaded in place. The indexes are created again by {@link TableIndexes#rebuild()}, or when
+   * closed if the load fails.
+   */
+  private TableIndexes dropIndexes(String tableName, boolean fullLoad) throws SQLException {
+    if (!taskConfiguration.rebuildIndexes || !fullLoad) {
+      return null;
+    }
+    return TableIndexes.drop(dataSource, tableName, stepConnections, marker);
+  }
+
+  private RawDataWriter createRawDataWriter(Connection connection, String tableName)
+      throws SQLException {
+    boolean upsert = updatedSince != null;
+    if (taskConfiguration.rawDataLoader == RawDataLoader.COPY) {
+      if (CopyRawDataWriter.isSupported(connection)) {
+        LOG.debug(marker, "Loading raw data with COPY");
+        return new CopyRawDataWriter(connection, tableName, upsert);
+      }
+      LOG.warn(marker, "COPY is not supported by the database, falling back to batch inserts");
+    }
+
+    return new BatchRawDataWriter(connection, tableName, upsert);
+  }
+
   private void executeBatch(
-      PreparedStatement ps, BufferedReader fileReader, boolean skipSequenceMd5)
+      RawDataWriter writer, BufferedReader fileReader, boolean skipSequenceMd5)
       throws SQLException {
-    int lineNumber = 0;
 
     int expectedAmountOfParameters = StringUtils.countMatches(SQL_INSERT_RAW_DATA, '?');
     int expectedAmountOfColumns = StringUtils.split(SQL_COLUMNS_RAW_DATA, ",").length;
@@ -217,53 +617,18 @@ public class DataGeneratorTask implements Runnable {
           "Numbers of parameters do not match! Check query and configuration");
     }
 
-    Map<String, Integer> columnMapping = new HashMap<>();
-    for (Iterator<String> it = fileReader.lines().iterator(); it.hasNext(); lineNumber++) {
-      String line = it.next();
-      String[] split = line.split(DEFAULT_DELIMITER, -1);
-      if (split.length < 14) {
-        LOG.error(marker, "Must be at least 14 columns! Found {}", split.length);
-        continue;
-      }
-
-      if (columnMapping.isEmpty()) {
-        // Determine the mapping from the header line. It may change!
-        for (int i = 0; i < split.length; i++) {
-          columnMapping.put(split[i], i);
-        }
-        continue;
-      }
-
-      ps.setString(RAW_INDEX_ACCESSION, split[columnMapping.get(ACCESSION_COLUMN)]);
-      ps.setString(RAW_INDEX_SAMPLE_ACCESSION, split[columnMapping.get(SAMPLE_ACCESSION_COLUMN)]);
-      ps.setString(RAW_INDEX_LOCATION, split[columnMapping.get(LOCATION_COLUMN)]);
-      ps.setString(RAW_INDEX_COUNTRY, split[columnMapping.get(COUNTRY_COLUMN)]);
-      ps.setString(RAW_INDEX_IDENTIFIED_BY, split[columnMapping.get(IDENTIFIED_BY_COLUMN)]);
-      ps.setString(RAW_INDEX_COLLECTED_BY, split[columnMapping.get(COLLECTED_BY_COLUMN)]);
-      ps.setString(RAW_INDEX_COLLECTION_DATE, split[columnMapping.get(COLLECTION_DATE_COLUMN)]);
-      ps.setString(RAW_INDEX_SPECIMEN_VOUCHER, split[columnMapping.get(SPECIMEN_VOUCHER_COLUMN)]);
-      ps.setString(
-          RAW_INDEX_SEQUENCE_MD5,
-          skipSequenceMd5 ? "" : split[columnMapping.get(SEQUENCE_MD5_COLUMN)]);
-      ps.setString(RAW_INDEX_SCIENTIFIC_NAME, split[columnMapping.get(SCIENTIFIC_NAME_COLUMN)]);
-      ps.setString(RAW_INDEX_TAX_ID, split[columnMapping.get(TAX_ID_COLUMN)]);
-      ps.setString(RAW_INDEX_ALTITUDE, split[columnMapping.get(ALTITUDE_COLUMN)]);
-      ps.setString(RAW_INDEX_SEX, split[columnMapping.get(SEX_COLUMN)]);
-      ps.setString(RAW_INDEX_DESCRIPTION, split[columnMapping.get(DESCRIPTION_COLUMN)]);
-      ps.setString(RAW_INDEX_HOST, split[columnMapping.get(HOST_COLUMN)]);
-      ps.addBatch();
-
-      if (lineNumber % WRITE_BATCH_SIZE == 0) {
-        ps.executeBatch();
+    RawDataParser parser = new RawDataParser(skipSequenceMd5, taskConfiguration.route, marker);
+    for (Iterator<String> it = fileReader.lines().iterator(); it.hasNext(); ) {
+      if (parser.parse(it.next(), writer)) {
+        writer.addRecord();
       }
     }
 
-    ps.executeBatch();
+    writer.flush();
   }
 
-  private void processData() throws SQLException {
-    if (!taskConfiguration.steps.isEmpty()
-        && !taskConfiguration.steps.contains(TaskStep.PROCESS_DATA)) {
+  private void processData() throws SQLException, IOException {
+    if (!isStepEnabled(TaskStep.PROCESS_DATA)) {
       LOG.info(marker, "Skipping store data step");
       return;
     }
@@ -272,436 +637,712 @@ public class DataGeneratorTask implements Runnable {
     String query = taskConfiguration.query;
     LOG.info(marker, "Start processing raw data {} ", tableName);
 
-    processRawDataInternal(tableName, query);
-  }
-
-  private void processRawDataInternal(String tableName, String query) throws SQLException {
+    boolean incremental = updatedSince != null;
+    if (incremental && taskConfiguration.processedDataSink != ProcessedDataSink.TABLE) {
+      // an archive contains all records
+      LOG.info(marker, "Processing all records for the archive, not only the updated ones");
+      cleanDelta(tableName);
+      incremental = false;
+    }
+    if (incremental) {
+      extendDelta(tableName);
+    }
+    processRawDataInternal(tableName, query, incremental);
+    processed = true;
+  }
+
+  /**
+   * Processes raw data.
+   *
+   * @param incremental only the accessions of the delta table (the updated records and the ones
+   *     sharing a scientific name with them) are written, or deleted if not valid anymore; otherwise
+   *     all records are written
+   */
+  private void processRawDataInternal(String tableName, String query, boolean incremental)
+      throws SQLException, IOException {
     LOG.debug(marker, "Processing raw data from database");
 
-    int lineNumber = 0;
-    int linesSkipped = 0;
-    Set<String> recordsSeenBefore = new HashSet<>();
-
     // SQL select for table
     String sqlSelectRawData = readSqlFile(query).replace("embl_data", tableName).trim();
+    if (sqlSelectRawData.endsWith(";")) {
+      sqlSelectRawData = sqlSelectRawData.substring(0, sqlSelectRawData.length() - 1);
+    }
     LOG.debug(marker, "SQL select (raw data): {}", sqlSelectRawData);
 
-    String sqlInsertProcessedData =
-        SQL_INSERT_PROCESSED_DATA.replace("embl_data", tableName + "_processed");
-    String sqlCleanProcessedData = SQL_CLEAN.replace("embl_data", tableName + "_processed");
-    LOG.debug(marker, "SQL insert (processed data): {}", sqlInsertProcessedData);
-
-    try (Connection connection1 = dataSource.getConnection();
-        Connection connection2 = dataSource.getConnection()) {
-      LOG.debug(marker, "DB connection established to retrieve raw data");
-      connection1.setAutoCommit(false);
-      connection2.setAutoCommit(false);
-
-      try (Statement s = connection1.createStatement();
-          PreparedStatement ps = connection2.prepareStatement(sqlInsertProcessedData)) {
-        // set batch size
-        ps.setFetchSize(WRITE_BATCH_SIZE);
-        s.setFetchSize(READ_BATCH_SIZE);
+    ProcessedDataSink sink = taskConfiguration.processedDataSink;
+    boolean writeTable = sink != ProcessedDataSink.ARCHIVE;
+    boolean inDatabase = taskConfiguration.processingMode == ProcessingMode.DATABASE;
+    if (inDatabase && sink != ProcessedDataSink.TABLE) {
+      LOG.warn(marker, "Processing in the database writes the table only, processing in the JVM");
+      inDatabase = false;
+    }
+    String processedTableName = tableName + "_processed";
+    boolean parallel = !inDatabase && jvmWorkers() > 1;
+    try (ShadowTable shadow =
+            writeTable
+                ? createProcessedShadowTable(processedTableName, !incremental, parallel)
+                : null;
+        DwcaArchive archive = sink != ProcessedDataSink.TABLE ? createArchive() : null) {
+      String targetTable = shadow != null ? shadow.name() : processedTableName;
+      String sqlInsertProcessedData =
+          (incremental ? SQL_UPSERT_PROCESSED_DATA : SQL_INSERT_PROCESSED_DATA)
+              .replace("embl_data", targetTable);
+      if (writeTable && !inDatabase) {
+        LOG.debug(marker, "SQL insert (processed data): {}", sqlInsertProcessedData);
+      }
 
-        // clean processed data before
-        s.executeUpdate(sqlCleanProcessedData);
-        connection1.commit();
+      // clean processed data before, incremental harvest updates the existing data
+      boolean clean = writeTable && !incremental && shadow == null;
+      if (clean) {
+        try (Connection connection = dataSource.getConnection();
+            Statement st = connection.createStatement()) {
+          st.executeUpdate(SQL_CLEAN.replace("embl_data", processedTableName));
+        }
         LOG.debug(marker, "Processed data DB cleaned");
+      }
 
-        try (ResultSet rs = s.executeQuery(sqlSelectRawData)) {
-          LOG.debug(marker, "Start writing processed data");
-
-          // processed data
-          while (rs.next()) {
-            // skip records with missing specimen_voucher and collection_date
-            if (StringUtils.isEmpty(getSpecimenVoucher(rs))
-                && StringUtils.isEmpty(getCollectionDate(rs))) {
-              linesSkipped++;
-              continue;
-            }
-
-            // check if the record was seen before
-            if (StringUtils.isNotEmpty(getSampleAccession(rs))
-                && StringUtils.isNotEmpty(getScientificName(rs))) {
-              String sampleAccessionPlusScientificName =
-                  getSampleAccession(rs) + getScientificName(rs);
-
-              // skip duplicate records (seen before) based on sample_accession and scientific_name
-              // otherwise remember and write it
-              if (recordsSeenBefore.contains(sampleAccessionPlusScientificName)) {
-                linesSkipped++;
-                continue;
-              } else {
-                recordsSeenBefore.add(sampleAccessionPlusScientificName);
-              }
-            }
-
-            // process raw data
-            lineNumber++;
-            prepareLine(rs, ps);
-
-            if (lineNumber % WRITE_BATCH_SIZE == 0) {
-              ps.executeBatch();
+      WriterFactory writers =
+          connection -> {
+            ProcessedDataWriter tableWriter =
+                writeTable
+                    ? new BatchProcessedDataWriter(connection, sqlInsertProcessedData)
+                    : null;
+            if (archive == null) {
+              return tableWriter;
             }
-          }
+            return tableWriter != null
+                ? ProcessedDataWriter.both(tableWriter, archive.writer())
+                : archive.writer();
+          };
+
+      try (TableIndexes indexes = dropIndexes(processedTableName, clean)) {
+        if (inDatabase) {
+          processInDatabase(tableName, sqlSelectRawData, targetTable, incremental);
+        } else {
+          processInJvm(tableName, sqlSelectRawData, writers, incremental);
+        }
+        LOG.debug(marker, "Raw data processing finished, processed data stored.");
 
-          // execute last records
-          ps.executeBatch();
+        if (indexes != null) {
+          indexes.rebuild();
         }
       }
 
-      connection2.commit();
-      LOG.debug(marker, "Raw data processing finished, processed data stored.");
-      LOG.debug(marker, "Lines processed: {}. Lines skipped: {}", lineNumber, linesSkipped);
-    }
-  }
-
-  private void prepareLine(ResultSet rs, PreparedStatement ps) throws SQLException {
-    // occurrenceID term
-    setOccurrenceId(ps, trimToEmpty(getAccession(rs)));
-    // associatedSequences term
-    setAssociatedSequences(ps, toAssociatedSequences(getAccession(rs)));
-    // references term
-    setReferences(ps, toReferences(getAccession(rs)));
-    // decimalLatitude term
-    setDecimalLatitude(ps, toLatitude(getLocation(rs)));
-    // decimalLongitude term
-    setDecimalLongitude(ps, toLongitude(getLocation(rs)));
-    // country term
-    setCountry(ps, toCountry(getCountry(rs)));
-    // locality term
-    setLocality(ps, toLocality(getCountry(rs)));
-    // identifiedBy term
-    setIdentifiedBy(ps, trimToEmpty(getIdentifiedBy(rs)));
-    // recordedBy term
-    setRecordedBy(ps, trimToEmpty(getCollectedBy(rs)));
-    // eventDate term
-    setEventDate(ps, trimToEmpty(getCollectionDate(rs)));
-    // catalogNumber term
-    setCatalogNumber(ps, trimToEmpty(getSpecimenVoucher(rs)));
-    // basisOfRecord term
-    setBasisOfRecord(ps, toBasisOfRecord(getSpecimenVoucher(rs)));
-    // taxonID term
-    setTaxonId(ps, toTaxonId(getSequenceMd5(rs)));
-    // scientificName term
-    setScientificName(ps, trimToEmpty(getScientificName(rs)));
-    // taxonConceptID term
-    setTaxonConceptId(ps, toTaxonConceptId(getTaxId(rs)));
-    // minimumElevationInMeters term
-    setMinimumElevation(ps, trimToEmpty(getAltitude(rs)));
-    // maximumElevationInMeters term
-    setMaximumElevation(ps, trimToEmpty(getAltitude(rs)));
-    // sex term
-    setSex(ps, trimToEmpty(getSex(rs)));
-    // occurrenceRemarks term
-    setOccurrenceRemarks(ps, trimToEmpty(getDescription(rs)));
-    // associatedTaxa term
-    setAssociatedTaxa(ps, trimToEmpty(getHost(rs)));
-    // kingdom term
-    setKingdom(ps, trimToEmpty(getKingdom(rs)));
-    // phylum term
-    setPhylum(ps, trimToEmpty(getPhylum(rs)));
-    // class term
-    setClass(ps, trimToEmpty(getClass(rs)));
-    // order term
-    setOrder(ps, trimToEmpty(getOrder(rs)));
-    // family term
-    setFamily(ps, trimToEmpty(getFamily(rs)));
-    // genus term
-    setGenus(ps, trimToEmpty(getGenus(rs)));
-
-    ps.addBatch();
-  }
-
-  private String readSqlFile(String filePath) {
-    LOG.debug(marker, "Start reading SQL file {}", filePath);
-    StringBuilder sb = new StringBuilder();
+      if (archive != null) {
+        archive.complete();
+        LOG.info(
+            marker,
+            "Archive {} written, {} records",
+            taskConfiguration.archiveFile,
+            archive.records());
+      }
 
-    try (Stream<String> stream = Files.lines(Paths.get(filePath), StandardCharsets.UTF_8)) {
-      stream.forEach(s -> sb.append(s).append("\n"));
-    } catch (IOException e) {
-      LOG.error(marker, "Exception while reading SQL file {}", filePath);
-      throw new RuntimeException(e);
+      if (shadow != null) {
+        if (taskConfiguration.shadowLoad) {
+          shadow.swap();
+        } else {
+          mergeShadowTable(shadow, processedTableName);
+        }
+      }
     }
-
-    LOG.debug(marker, "Finished reading SQL file {}", filePath);
-    return sb.toString();
-  }
-
-  @SuppressWarnings("SameParameterValue")
-  private String getOrEmpty(String[] arr, int index) {
-    return arr.length > index ? arr[index] : StringUtils.EMPTY;
-  }
-
-  private String toTaxonConceptId(String data) {
-    return StringUtils.isNotBlank(data) ? TAXON_CONCEPT_ID_URL + data : StringUtils.EMPTY;
   }
 
-  private String toReferences(String data) {
-    return StringUtils.isNotBlank(data) ? REFERENCES_URL + data : StringUtils.EMPTY;
-  }
-
-  private String toAssociatedSequences(String data) {
-    return StringUtils.isNotBlank(data) ? ASSOCIATED_SEQUENCES_URL + data : StringUtils.EMPTY;
-  }
-
-  private String toTaxonId(String data) {
-    return StringUtils.isNotBlank(data) ? TAXON_ID_PREFIX + data : StringUtils.EMPTY;
-  }
-
-  private String toBasisOfRecord(String data) {
-    return StringUtils.isNotBlank(data) ? PRESERVED_SPECIMEN : MATERIAL_SAMPLE;
+  /**
+   * Shadow table of the processed data table if it is fully reloaded: the configured one, or one
+   * merged into the table when parallel workers are done, so the table is not left partly loaded
+   * if one of them fails.
+   */
+  private ShadowTable createProcessedShadowTable(
+      String tableName, boolean fullLoad, boolean parallel) throws SQLException {
+    if (!fullLoad || taskConfiguration.shadowLoad || !parallel) {
+      return createShadowTable(tableName, fullLoad);
+    }
+    return ShadowTable.create(dataSource, tableName, false, stepConnections, marker);
   }
 
-  private String toCountry(String country) {
-    if (StringUtils.isNotBlank(country)) {
-      return country.contains(COUNTRY_DELIMITER) ? country.split(COUNTRY_DELIMITER)[0] : country;
+  /** Replaces the content of the table with the one of the shadow table, in one transaction. */
+  private void mergeShadowTable(ShadowTable shadow, String tableName) throws SQLException {
+    try (Connection connection = dataSource.getConnection();
+        Statement st = connection.createStatement()) {
+      connection.setAutoCommit(false);
+      st.executeUpdate(SQL_CLEAN.replace("embl_data", tableName));
+      int records =
+          st.executeUpdate(SQL_INSERT_SHADOW_PROCESSED_DATA.replace("embl_data", tableName));
+      connection.commit();
+      shadow.merged();
+      LOG.debug(marker, "Processed data of the workers published: {} records", records);
     }
-
-    return StringUtils.EMPTY;
   }
 
-  private String toLocality(String country) {
-    if (StringUtils.isNotBlank(country) && country.contains(COUNTRY_DELIMITER)) {
-      return getOrEmpty(country.split(COUNTRY_DELIMITER, -1), 1).trim();
+  /** Reads, converts and writes the raw data by one or several workers. */
+  private void processInJvm(
+      String tableName, String sqlSelectRawData, WriterFactory writers, boolean incremental)
+      throws SQLException, IOException {
+    // delta records which are not written, deleted from processed data at the end
+    Set<String> deltaNotWritten = null;
+    if (incremental) {
+      deltaNotWritten = ConcurrentHashMap.newKeySet();
+      deltaNotWritten.addAll(readDelta(tableName));
     }
 
-    return StringUtils.EMPTY;
-  }
-
-  private String toLatitude(String location) {
-    if (StringUtils.isNotBlank(location)) {
-      Matcher matcher = LOCATION_PATTERN.matcher(location);
-      if (matcher.find()) {
-        // south - negative
-        if (SOUTH.equals(matcher.group(2))) {
-          return "-" + matcher.group(1);
-        }
-        // north - positive
-        else if (NORTH.equals(matcher.group(2))) {
-          return matcher.group(1);
-        }
-        // wrong letter - log error, return empty value
-        else {
-          LOG.error(marker, "Wrong coordinate letter: {}", matcher.group(2));
-          return StringUtils.EMPTY;
-        }
+    if (taskConfiguration.taxonomyLookup) {
+      taxonomy = TaxonomyLookup.load(dataSource, marker);
+    }
+    int workers = jvmWorkers();
+    ProcessingResult result;
+    try {
+      if (workers == 1) {
+        result = processPartition(sqlSelectRawData, null, writers, deltaNotWritten);
       } else {
-        LOG.error(marker, "Coordinates {} do not match pattern", location);
+        result = processPartitions(tableName, sqlSelectRawData, writers, deltaNotWritten, workers);
       }
+    } finally {
+      taxonomy = null;
     }
-    return StringUtils.EMPTY;
-  }
 
-  private String toLongitude(String location) {
-    if (StringUtils.isNotBlank(location)) {
-      Matcher matcher = LOCATION_PATTERN.matcher(location);
-      if (matcher.find()) {
-        // west - negative
-        if (WEST.equals(matcher.group(4))) {
-          return "-" + matcher.group(3);
-        }
-        // east - positive
-        else if (EAST.equals(matcher.group(4))) {
-          return matcher.group(3);
-        }
-        // wrong letter - log error, return empty value
-        else {
-          LOG.error(marker, "Wrong coordinate letter: {}", matcher.group(4));
-          return StringUtils.EMPTY;
-        }
-      } else {
-        LOG.error(marker, "Coordinates {} do not match pattern", location);
+    if (incremental) {
+      try (Connection connection = dataSource.getConnection()) {
+        connection.setAutoCommit(false);
+        deleteProcessedData(connection, tableName, deltaNotWritten);
+        connection.commit();
       }
     }
-    return StringUtils.EMPTY;
-  }
-
-  private String getAccession(ResultSet rs) throws SQLException {
-    return rs.getString(ACCESSION_COLUMN);
-  }
-
-  private String getSampleAccession(ResultSet rs) throws SQLException {
-    return rs.getString(SAMPLE_ACCESSION_COLUMN);
-  }
-
-  private String getLocation(ResultSet rs) throws SQLException {
-    return rs.getString(LOCATION_COLUMN);
-  }
-
-  private String getCountry(ResultSet rs) throws SQLException {
-    return rs.getString(COUNTRY_COLUMN);
-  }
-
-  private String getIdentifiedBy(ResultSet rs) throws SQLException {
-    return rs.getString(IDENTIFIED_BY_COLUMN);
-  }
-
-  private String getCollectedBy(ResultSet rs) throws SQLException {
-    return rs.getString(COLLECTED_BY_COLUMN);
-  }
-
-  private String getCollectionDate(ResultSet rs) throws SQLException {
-    return rs.getString(COLLECTION_DATE_COLUMN);
-  }
-
-  private String getSpecimenVoucher(ResultSet rs) throws SQLException {
-    return rs.getString(SPECIMEN_VOUCHER_COLUMN);
-  }
-
-  private String getSequenceMd5(ResultSet rs) throws SQLException {
-    return rs.getString(SEQUENCE_MD5_COLUMN);
-  }
 
-  private String getScientificName(ResultSet rs) throws SQLException {
-    return rs.getString(SCIENTIFIC_NAME_COLUMN);
+    LOG.debug(
+        marker, "Lines processed: {}. Lines skipped: {}", result.processed(), result.skipped());
   }
 
-  private String getTaxId(ResultSet rs) throws SQLException {
-    return rs.getString(TAX_ID_COLUMN);
-  }
-
-  private String getAltitude(ResultSet rs) throws SQLException {
-    return rs.getString(ALTITUDE_COLUMN);
-  }
+  /**
+   * Converts and writes the raw data by one INSERT ... SELECT in the database, see {@link
+   * SqlRecordConverter}. An incremental harvest upserts the updated records and deletes the ones
+   * not valid anymore in the same statement.
+   */
+  private void processInDatabase(
+      String tableName, String sqlSelectRawData, String targetTable, boolean incremental)
+      throws SQLException {
+    String sql;
+    if (incremental) {
+      sql =
+          String.format(
+              SQL_UPSERT_SELECT_PROCESSED_DATA.replace("embl_data", tableName),
+              SqlRecordConverter.select(
+                  sqlSelectRawData, tableName + "_delta", taskConfiguration.taxonomyLookup),
+              SqlRecordConverter.trim("d.accession"));
+    } else {
+      sql =
+          String.format(
+              SQL_INSERT_SELECT_PROCESSED_DATA.replace("embl_data", targetTable),
+              SqlRecordConverter.select(sqlSelectRawData, null, taskConfiguration.taxonomyLookup));
+    }
+    LOG.debug(marker, "SQL insert select (processed data): {}", sql);
 
-  private String getSex(ResultSet rs) throws SQLException {
-    return rs.getString(SEX_COLUMN);
+    try (Connection connection = dataSource.getConnection();
+        Statement st = connection.createStatement()) {
+      connection.setAutoCommit(false);
+      if (incremental) {
+        try (ResultSet rs = st.executeQuery(sql)) {
+          rs.next();
+          LOG.debug(
+              marker, "Lines processed: {}. Records deleted: {}", rs.getLong(1), rs.getLong(2));
+        }
+        st.executeUpdate(SQL_CLEAN.replace("embl_data", tableName + "_delta"));
+      } else {
+        LOG.debug(marker, "Lines processed: {}", st.executeUpdate(sql));
+      }
+      connection.commit();
+    }
   }
 
-  private String getDescription(ResultSet rs) throws SQLException {
-    return rs.getString(DESCRIPTION_COLUMN);
-  }
+  /** Archive written by processing, see {@link TaskConfiguration#archiveFile}. */
+  private DwcaArchive createArchive() throws IOException {
+    if (taskConfiguration.archiveFile == null || taskConfiguration.emlFile == null) {
+      throw new IllegalStateException(
+          "archiveFile and emlFile are required to write processed data into an archive");
+    }
+    LOG.debug(marker, "Writing processed data into archive {}", taskConfiguration.archiveFile);
+    return new DwcaArchive(taskConfiguration.archiveFile, taskConfiguration.emlFile);
+  }
+
+  /**
+   * Processes raw data by several workers in parallel. The query result is staged once into an
+   * unlogged table, partitioned by a hash of sample_accession + scientific_name, so duplicates are
+   * always in the same partition and each worker deduplicates its partition on its own.
+   */
+  private ProcessingResult processPartitions(
+      String tableName,
+      String sqlSelectRawData,
+      WriterFactory writers,
+      Set<String> deltaNotWritten,
+      int workers)
+      throws SQLException, IOException {
+    String sqlDropStagedData = SQL_DROP_STAGED_DATA.replace("embl_data", tableName);
+    String sqlCreateStagedData =
+        String.format(
+            SQL_CREATE_STAGED_DATA.replace("embl_data", tableName), sqlSelectRawData, workers);
+    String sqlSelectStagedData = SQL_SELECT_STAGED_DATA.replace("embl_data", tableName);
 
-  private String getHost(ResultSet rs) throws SQLException {
-    return rs.getString(HOST_COLUMN);
-  }
+    try (Connection connection = dataSource.getConnection();
+        Statement st = connection.createStatement()) {
+      st.executeUpdate(sqlDropStagedData);
+      st.executeUpdate(sqlCreateStagedData);
+    }
+    LOG.debug(marker, "Raw data staged for {} workers", workers);
+
+    ExecutorService executor =
+        Executors.newFixedThreadPool(
+            workers,
+            r -> {
+              Thread thread = new Thread(r);
+              thread.setName(taskConfiguration.name + "-process-" + thread.getId());
+              return thread;
+            });
+    try {
+      List<Future<ProcessingResult>> futures = new ArrayList<>();
+      for (int i = 0; i < workers; i++) {
+        int partition = i;
+        futures.add(
+            executor.submit(
+                () -> processPartition(sqlSelectStagedData, partition, writers, deltaNotWritten)));
+      }
 
-  private String getKingdom(ResultSet rs) throws SQLException {
-    return rs.getString(KINGDOM_COLUMN);
+      int processed = 0;
+      int skipped = 0;
+      for (Future<ProcessingResult> future : futures) {
+        ProcessingResult partitionResult = awaitResult(future);
+        processed += partitionResult.processed();
+        skipped += partitionResult.skipped();
+      }
+      return new ProcessingResult(processed, skipped);
+    } finally {
+      executor.shutdownNow();
+      try (Connection connection = dataSource.getConnection();
+          Statement st = connection.createStatement()) {
+        st.executeUpdate(sqlDropStagedData);
+      }
+    }
   }
 
-  private String getPhylum(ResultSet rs) throws SQLException {
-    return rs.getString(PHYLUM_COLUMN);
-  }
+  /**
+   * Processes the records of one partition (all records if partition is null) with its own read
+   * and write connections.
+   */
+  private ProcessingResult processPartition(
+      String sqlSelect, Integer partition, WriterFactory writers, Set<String> deltaNotWritten)
+      throws SQLException, IOException {
+    ProcessingResult result;
 
-  private String getClass(ResultSet rs) throws SQLException {
-    return rs.getString(CLASS_COLUMN);
-  }
+    try (RecordDeduplicator recordsSeenBefore = RecordDeduplicator.create(taskConfiguration.dedup);
+        Connection connection1 = dataSource.getConnection();
+        Connection connection2 = dataSource.getConnection()) {
+      LOG.debug(marker, "DB connection established to retrieve raw data, partition {}", partition);
+      connection1.setAutoCommit(false);
+      connection2.setAutoCommit(false);
 
-  private String getOrder(ResultSet rs) throws SQLException {
-    return rs.getString(ORDER_COLUMN);
-  }
+      try (PreparedStatement s = connection1.prepareStatement(sqlSelect);
+          ProcessedDataWriter writer = writers.create(connection2)) {
+        // set batch size
+        s.setFetchSize(READ_BATCH_SIZE);
+        if (partition != null) {
+          s.setInt(1, partition);
+        }
 
-  private String getFamily(ResultSet rs) throws SQLException {
-    return rs.getString(FAMILY_COLUMN);
-  }
+        try (ResultSet rs = s.executeQuery()) {
+          LOG.debug(marker, "Start writing processed data");
+          RecordFilter filter = new RecordFilter(recordsSeenBefore, deltaNotWritten);
+          if (taskConfiguration.processingQueueSize > 0) {
+            processPipelined(rs, writer, filter, partition);
+          } else {
+            processSerial(rs, writer, filter);
+          }
+          writer.flush();
+          result = new ProcessingResult(filter.processed(), filter.skipped());
+        }
+      }
 
-  private String getGenus(ResultSet rs) throws SQLException {
-    return rs.getString(GENUS_COLUMN);
+      connection2.commit();
+      LOG.debug(
+          marker,
+          "Partition {} processed: {} lines, {} skipped, {} distinct records",
+          partition,
+          result.processed(),
+          result.skipped(),
+          recordsSeenBefore.size());
+    }
+    return result;
   }
 
-  private void setOccurrenceId(PreparedStatement ps, String data) throws SQLException {
-    ps.setString(PROCESSED_INDEX_OCCURRENCE_ID, data);
-  }
+  /** Reads, transforms and writes the records one by one. */
+  private void processSerial(ResultSet rs, ProcessedDataWriter writer, RecordFilter filter)
+      throws SQLException, IOException {
+    int[] columns = RawRecord.columnIndexes(rs, taxonomy == null);
+    RawRecord raw = new RawRecord();
+    ProcessedRecord processed = new ProcessedRecord();
+    RecordConverter converter = new RecordConverter(marker, taxonomy);
 
-  private void setAssociatedSequences(PreparedStatement ps, String data) throws SQLException {
-    ps.setString(PROCESSED_INDEX_ASSOCIATED_SEQUENCES, data);
-  }
+    // processed data
+    while (rs.next()) {
+      raw.read(rs, columns);
+      if (!filter.accept(raw)) {
+        continue;
+      }
 
-  private void setReferences(PreparedStatement ps, String data) throws SQLException {
-    ps.setString(PROCESSED_INDEX_REFERENCES, data);
+      // process raw data
+      converter.convert(raw, processed);
+      writer.addRecord(processed);
+    }
   }
 
-  private void setDecimalLatitude(PreparedStatement ps, String data) throws SQLException {
-    ps.setString(PROCESSED_INDEX_DECIMAL_LATITUDE, data);
-  }
+  /**
+   * Reads, transforms and writes the records in three stages connected by bounded queues, so the
+   * JDBC reads, the transformation and the JDBC writes overlap. The reader and the transformer run
+   * in their own threads, the writer in the current one.
+   */
+  private void processPipelined(
+      ResultSet rs, ProcessedDataWriter writer, RecordFilter filter, Integer partition)
+      throws SQLException, IOException {
+    int capacity = taskConfiguration.processingQueueSize;
+    PipelineQueue<RawRecord> rawQueue = new PipelineQueue<>("raw", capacity);
+    PipelineQueue<ProcessedRecord> processedQueue = new PipelineQueue<>("processed", capacity);
+
+    ExecutorService executor =
+        Executors.newFixedThreadPool(
+            2,
+            r -> {
+              Thread thread = new Thread(r);
+              thread.setName(Thread.currentThread().getName() + "-pipeline-" + thread.getId());
+              return thread;
+            });
+    try {
+      Future<?> reader =
+          executor.submit(
+              () -> {
+                runStage(
+                    null,
+                    rawQueue,
+                    () -> {
+                      int[] columns = RawRecord.columnIndexes(rs, taxonomy == null);
+                      List<RawRecord> batch = rawBatch(rawQueue);
+                      int size = 0;
+                      while (rs.next()) {
+                        batch.get(size++).read(rs, columns);
+                        if (size == WRITE_BATCH_SIZE) {
+                          rawQueue.put(batch);
+                          batch = rawBatch(rawQueue);
+                          size = 0;
+                        }
+                      }
+                      rawQueue.put(batch.subList(0, size));
+                    });
+                return null;
+              });
+
+      Future<?> transformer =
+          executor.submit(
+              () -> {
+                runStage(
+                    rawQueue,
+                    processedQueue,
+                    () -> {
+                      RecordConverter converter = new RecordConverter(marker, taxonomy);
+                      List<RawRecord> batch;
+                      while ((batch = rawQueue.take()) != null) {
+                        List<ProcessedRecord> processedBatch = new ArrayList<>(batch.size());
+                        for (RawRecord raw : batch) {
+                          if (filter.accept(raw)) {
+                            ProcessedRecord processed = new ProcessedRecord();
+                            converter.convert(raw, processed);
+                            processedBatch.add(processed);
+                          }
+                        }
+                        processedQueue.put(processedBatch);
+                        if (batch.size() == WRITE_BATCH_SIZE) {
+                          rawQueue.recycle(batch);
+                        }
+                      }
+                    });
+                return null;
+              });
+
+      // writer
+      long started = System.currentTimeMillis();
+      long lastLogged = started;
+      long written = 0;
+      try {
+        List<ProcessedRecord> batch;
+        while ((batch = processedQueue.take()) != null) {
+          for (ProcessedRecord processed : batch) {
+            writer.addRecord(processed);
+          }
+          written += batch.size();
 
-  private void setDecimalLongitude(PreparedStatement ps, String data) throws SQLException {
-    ps.setString(PROCESSED_INDEX_DECIMAL_LONGITUDE, data);
-  }
+          long now = System.currentTimeMillis();
+          if (now - lastLogged >= PIPELINE_LOG_INTERVAL_MS) {
+            logPipeline(partition, rawQueue, processedQueue, written, now - started);
+            lastLogged = now;
+          }
+        }
+      } catch (SQLException | IOException | RuntimeException e) {
+        processedQueue.abort();
+        rawQueue.abort();
+        if (e instanceof CancellationException) {
+          // another stage failed, rethrow its failure
+          awaitStage(reader);
+          awaitStage(transformer);
+        }
+        throw e;
+      }
 
-  private void setCountry(PreparedStatement ps, String data) throws SQLException {
-    ps.setString(PROCESSED_INDEX_COUNTRY, data);
+      // rethrows failures of the reader and transformer
+      awaitStage(reader);
+      awaitStage(transformer);
+      logPipeline(
+          partition, rawQueue, processedQueue, written, System.currentTimeMillis() - started);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Processing interrupted", e);
+    } finally {
+      executor.shutdownNow();
+    }
   }
 
-  private void setLocality(PreparedStatement ps, String data) throws SQLException {
-    ps.setString(PROCESSED_INDEX_LOCALITY, data);
+  /** Batch of raw records to read into, reused once the transformer is done with it. */
+  private static List<RawRecord> rawBatch(PipelineQueue<RawRecord> rawQueue) {
+    List<RawRecord> batch = rawQueue.reuse();
+    if (batch == null) {
+      batch = new ArrayList<>(WRITE_BATCH_SIZE);
+      for (int i = 0; i < WRITE_BATCH_SIZE; i++) {
+        batch.add(new RawRecord());
+      }
+    }
+    return batch;
   }
 
-  private void setIdentifiedBy(PreparedStatement ps, String data) throws SQLException {
-    ps.setString(PROCESSED_INDEX_IDENTIFIED_BY, data);
+  /** Runs a pipeline stage, ends its output queue when done and aborts both queues on failure. */
+  private static <I, O> void runStage(PipelineQueue<I> in, PipelineQueue<O> out, Stage stage)
+      throws Exception {
+    try {
+      stage.run();
+      out.end();
+    } catch (Exception e) {
+      if (in != null) {
+        in.abort();
+      }
+      out.abort();
+      throw e;
+    }
   }
 
-  private void setRecordedBy(PreparedStatement ps, String data) throws SQLException {
-    ps.setString(PROCESSED_INDEX_RECORDED_BY, data);
+  /** Waits for a pipeline stage, rethrows its failure unless it was aborted by another stage. */
+  private static void awaitStage(Future<?> future)
+      throws SQLException, IOException, InterruptedException {
+    try {
+      future.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof CancellationException) {
+        return;
+      }
+      if (e.getCause() instanceof SQLException sqlException) {
+        throw sqlException;
+      }
+      if (e.getCause() instanceof IOException ioException) {
+        throw ioException;
+      }
+      throw new IllegalStateException(e.getCause());
+    }
   }
 
-  private void setEventDate(PreparedStatement ps, String data) throws SQLException {
-    ps.setString(PROCESSED_INDEX_EVENT_DATE, data);
+  private void logPipeline(
+      Integer partition,
+      PipelineQueue<RawRecord> rawQueue,
+      PipelineQueue<ProcessedRecord> processedQueue,
+      long written,
+      long elapsedMs) {
+    long seconds = Math.max(elapsedMs / 1000, 1);
+    LOG.info(
+        marker,
+        "Pipeline {}: read {} ({}/s), raw queue {}/{}, transformed {} ({}/s), "
+            + "processed queue {}/{}, written {} ({}/s)",
+        partition != null ? partition : "",
+        rawQueue.records(),
+        rawQueue.records() / seconds,
+        rawQueue.depth(),
+        rawQueue.capacity(),
+        processedQueue.records(),
+        processedQueue.records() / seconds,
+        processedQueue.depth(),
+        processedQueue.capacity(),
+        written,
+        written / seconds);
+  }
+
+  /** Body of a pipeline stage. */
+  @FunctionalInterface
+  private interface Stage {
+    void run() throws Exception;
+  }
+
+  /** Number of workers processing in the JVM, two DB connections each. */
+  private int jvmWorkers() {
+    return Math.max(stepConnections / 2, 1);
+  }
+
+  /** Number of workers, limited by the DB connections available. */
+  private int workers(int requested, int connectionsPerWorker) {
+    int workers = Math.max(requested, 1);
+    if (workers > 1) {
+      int maxWorkers = Math.max(scheduler.maxConnections() / connectionsPerWorker, 1);
+      if (workers > maxWorkers) {
+        LOG.warn(
+            marker,
+            "{} workers need {} DB connections, pool size is {}, using {} workers",
+            workers,
+            workers * connectionsPerWorker,
+            scheduler.maxConnections(),
+            maxWorkers);
+        workers = maxWorkers;
+      }
+    }
+    return workers;
   }
 
-  private void setCatalogNumber(PreparedStatement ps, String data) throws SQLException {
-    ps.setString(PROCESSED_INDEX_CATALOG_NUMBER, data);
+  private static <T> T awaitResult(Future<T> future) throws SQLException, IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Processing interrupted", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof SQLException sqlException) {
+        throw sqlException;
+      }
+      if (e.getCause() instanceof IOException ioException) {
+        throw ioException;
+      }
+      throw new IllegalStateException(e.getCause());
+    }
   }
 
-  private void setBasisOfRecord(PreparedStatement ps, String data) throws SQLException {
-    ps.setString(PROCESSED_INDEX_BASIS_OF_RECORD, data);
-  }
+  /** Number of records written and skipped. */
+  private record ProcessingResult(int processed, int skipped) {}
 
-  private void setTaxonId(PreparedStatement ps, String data) throws SQLException {
-    ps.setString(PROCESSED_INDEX_TAXON_ID, data);
-  }
+  /**
+   * Deletes processed records of updated accessions which are not valid anymore and cleans the
+   * delta table.
+   */
+  private void deleteProcessedData(Connection connection, String tableName, Set<String> accessions)
+      throws SQLException {
+    String sqlDelete = SQL_DELETE_PROCESSED_DATA.replace("embl_data", tableName + "_processed");
+    try (PreparedStatement ps = connection.prepareStatement(sqlDelete);
+        Statement st = connection.createStatement()) {
+      int count = 0;
+      for (String accession : accessions) {
+        ps.setString(1, trimToEmpty(accession));
+        ps.addBatch();
+        if (++count % WRITE_BATCH_SIZE == 0) {
+          ps.executeBatch();
+        }
+      }
+      ps.executeBatch();
 
-  private void setScientificName(PreparedStatement ps, String data) throws SQLException {
-    ps.setString(PROCESSED_INDEX_SCIENTIFIC_NAME, data);
+      st.executeUpdate(SQL_CLEAN.replace("embl_data", tableName + "_delta"));
+    }
+    LOG.debug(marker, "Processed records deleted: {}", accessions.size());
   }
 
-  private void setTaxonConceptId(PreparedStatement ps, String data) throws SQLException {
-    ps.setString(PROCESSED_INDEX_TAXON_CONCEPT_ID, data);
+  /** Creates the delta table of an incremental harvest, if it doesn't exist. */
+  private void createDeltaTable(String tableName) throws SQLException {
+    try (Connection connection = dataSource.getConnection();
+        Statement st = connection.createStatement()) {
+      st.execute(SQL_CREATE_DELTA_TABLE.replace("embl_data", tableName));
+    }
   }
 
-  private void setMinimumElevation(PreparedStatement ps, String data) throws SQLException {
-    ps.setString(PROCESSED_INDEX_MINIMUM_ELEVATION_IN_METERS, data);
+  /**
+   * Adds the records whose deduplication may have changed to the delta table, the ones sharing a
+   * scientific name with an updated record.
+   */
+  private void extendDelta(String tableName) throws SQLException {
+    try (Connection connection = dataSource.getConnection();
+        Statement st = connection.createStatement()) {
+      int added = st.executeUpdate(SQL_EXTEND_DELTA.replace("embl_data", tableName));
+      LOG.debug(marker, "Records to deduplicate again: {}", added);
+    }
   }
 
-  private void setMaximumElevation(PreparedStatement ps, String data) throws SQLException {
-    ps.setString(PROCESSED_INDEX_MAXIMUM_ELEVATION_IN_METERS, data);
+  /** Cleans the delta table when the updated accessions are not needed. */
+  private void cleanDelta(String tableName) throws SQLException {
+    try (Connection connection = dataSource.getConnection();
+        Statement st = connection.createStatement()) {
+      st.executeUpdate(SQL_CLEAN.replace("embl_data", tableName + "_delta"));
+    }
   }
 
-  private void setSex(PreparedStatement ps, String data) throws SQLException {
-    ps.setString(PROCESSED_INDEX_SEX, data);
+  private Set<String> readDelta(String tableName) throws SQLException {
+    Set<String> delta = new HashSet<>();
+    try (Connection connection = dataSource.getConnection();
+        Statement st = connection.createStatement();
+        ResultSet rs = st.executeQuery(SQL_SELECT_DELTA.replace("embl_data", tableName))) {
+      while (rs.next()) {
+        delta.add(rs.getString(1));
+      }
+    }
+    LOG.debug(marker, "Records to process by the incremental harvest: {}", delta.size());
+    return delta;
   }
 
-  private void setOccurrenceRemarks(PreparedStatement ps, String data) throws SQLException {
-    ps.setString(PROCESSED_INDEX_OCCURRENCE_REMARK, data);
+  /** Date of the last successful harvest of the task, null if the task was never harvested. */
+  private LocalDate readLastHarvest() throws SQLException {
+    try (Connection connection = dataSource.getConnection();
+        PreparedStatement ps = connection.prepareStatement(SQL_SELECT_HARVEST_STATE)) {
+      ps.setString(1, taskConfiguration.name);
+      try (ResultSet rs = ps.executeQuery()) {
+        if (rs.next()) {
+          Date lastHarvest = rs.getDate(1);
+          return lastHarvest != null ? lastHarvest.toLocalDate() : null;
+        }
+      }
+    }
+    return null;
   }
 
-  private void setAssociatedTaxa(PreparedStatement ps, String data) throws SQLException {
-    ps.setString(PROCESSED_INDEX_ASSOCIATED_TAXA, data);
+  private void saveLastHarvest(LocalDate harvestStarted) throws SQLException {
+    try (Connection connection = dataSource.getConnection();
+        PreparedStatement ps = connection.prepareStatement(SQL_UPSERT_HARVEST_STATE)) {
+      ps.setString(1, taskConfiguration.name);
+      ps.setDate(2, Date.valueOf(harvestStarted));
+      ps.executeUpdate();
+    }
+    LOG.info(marker, "Harvest state saved: {}", harvestStarted);
   }
 
-  private void setKingdom(PreparedStatement ps, String data) throws SQLException {
-    ps.setString(PROCESSED_INDEX_KINGDOM, data);
+  /** Creates the processed data writer of a processing worker, using its write connection. */
+  @FunctionalInterface
+  private interface WriterFactory {
+    ProcessedDataWriter create(Connection connection) throws SQLException;
   }
 
-  private void setPhylum(PreparedStatement ps, String data) throws SQLException {
-    ps.setString(PROCESSED_INDEX_PHYLUM, data);
+  /** Opens raw data, either a downloaded file or a response being downloaded. */
+  @FunctionalInterface
+  private interface RawDataSource {
+    BufferedReader open() throws IOException;
   }
 
-  private void setClass(PreparedStatement ps, String data) throws SQLException {
-    ps.setString(PROCESSED_INDEX_CLASS, data);
+  private boolean isStepEnabled(TaskStep step) {
+    return taskConfiguration.steps.isEmpty() || taskConfiguration.steps.contains(step);
   }
 
-  private void setOrder(PreparedStatement ps, String data) throws SQLException {
-    ps.setString(PROCESSED_INDEX_ORDER, data);
-  }
+  private String readSqlFile(String filePath) {
+    LOG.debug(marker, "Start reading SQL file {}", filePath);
+    StringBuilder sb = new StringBuilder();
 
-  private void setFamily(PreparedStatement ps, String data) throws SQLException {
-    ps.setString(PROCESSED_INDEX_FAMILY, data);
-  }
+    try (Stream<String> stream = Files.lines(Paths.get(filePath), StandardCharsets.UTF_8)) {
+      stream.forEach(s -> sb.append(s).append("\n"));
+    } catch (IOException e) {
+      LOG.error(marker, "Exception while reading SQL file {}", filePath);
+      throw new RuntimeException(e);
+    }
 
-  private void setGenus(PreparedStatement ps, String data) throws SQLException {
-    ps.setString(PROCESSED_INDEX_GENUS, data);
+    LOG.debug(marker, "Finished reading SQL file {}", filePath);
+    return sb.toString();
   }
 }
@@ -0,0 +1,54 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.embl.cli;
+
+import java.util.StringJoiner;
+
+import jakarta.validation.constraints.NotNull;
+
+/**
+ * Configuration of the sample_accession + scientific_name deduplication of processed records.
+ */
+@SuppressWarnings("PublicField")
+public class DedupConfiguration {
+
+  /** Keep the seen keys as strings (EXACT) or as fingerprints (FINGERPRINT). */
+  @NotNull public DedupMode mode = DedupMode.EXACT;
+
+  /** Size of the fingerprints, FINGERPRINT mode only. */
+  @NotNull public DedupFingerprint fingerprint = DedupFingerprint.BITS_128;
+
+  /** Store fingerprints off-heap (direct memory), FINGERPRINT mode only. */
+  @NotNull public Boolean offHeap = false;
+
+  /**
+   * Maximum number of fingerprints kept in memory, more are spilled to disk. 0 means unbounded.
+   * FINGERPRINT mode only.
+   */
+  @NotNull public Long maxEntriesInMemory = 0L;
+
+  /** Directory for spilled fingerprints, the system temp directory by default. */
+  public String spillDirectory;
+
+  @Override
+  public String toString() {
+    return new StringJoiner(", ", DedupConfiguration.class.getSimpleName() + "[", "]")
+        .add("mode=" + mode)
+        .add("fingerprint=" + fingerprint)
+        .add("offHeap=" + offHeap)
+        .add("maxEntriesInMemory=" + maxEntriesInMemory)
+        .add("spillDirectory='" + spillDirectory + "'")
+        .toString();
+  }
+}
@@ -0,0 +1,35 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.embl.cli;
+
+/**
+ * Size of the murmur3 fingerprints kept by {@link RecordDeduplicator} in FINGERPRINT mode.
+ * <p>
+ * Keys are not kept, records with the same fingerprint are duplicates: a collision skips a record
+ * which is not a duplicate.
+ */
+public enum DedupFingerprint {
+
+  /**
+   * 64 bit fingerprints.
+   * The chance of a collision is about n^2 / 2^65 for n records.
+   */
+  BITS_64,
+
+  /**
+   * 128 bit fingerprints, doubles the memory needed.
+   * The chance of a collision is about n^2 / 2^129 for n records.
+   */
+  BITS_128
+}
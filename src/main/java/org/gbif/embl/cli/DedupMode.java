@@ -0,0 +1,33 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.embl.cli;
+
+/**
+ * How {@link RecordDeduplicator} remembers records seen before.
+ */
+public enum DedupMode {
+
+  /**
+   * Keep the keys as strings.
+   * Exact, but needs a lot of memory for big datasets.
+   */
+  EXACT,
+
+  /**
+   * Keep 64 or 128 bit fingerprints of the keys in a primitive hash set.
+   * Needs much less memory, but a fingerprint collision skips a record, see
+   * {@link DedupFingerprint}.
+   */
+  FINGERPRINT
+}
@@ -0,0 +1,48 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.embl.cli;
+
+import java.util.StringJoiner;
+
+import jakarta.validation.constraints.NotNull;
+
+@SuppressWarnings("PublicField")
+public class DownloadConfiguration {
+
+  /** Connect timeout in milliseconds. */
+  @NotNull public Integer connectTimeout = 60_000;
+
+  /** Read timeout in milliseconds, maximum time without receiving any data. */
+  @NotNull public Integer readTimeout = 600_000;
+
+  /** Maximum number of retries of a failed download. */
+  @NotNull public Integer maxRetries = 5;
+
+  /** Delay before the first retry in milliseconds, doubled with each next retry. */
+  @NotNull public Long retryDelay = 10_000L;
+
+  /** Request gzip compressed responses. */
+  @NotNull public Boolean gzip = true;
+
+  @Override
+  public String toString() {
+    return new StringJoiner(", ", DownloadConfiguration.class.getSimpleName() + "[", "]")
+        .add("connectTimeout=" + connectTimeout)
+        .add("readTimeout=" + readTimeout)
+        .add("maxRetries=" + maxRetries)
+        .add("retryDelay=" + retryDelay)
+        .add("gzip=" + gzip)
+        .toString();
+  }
+}
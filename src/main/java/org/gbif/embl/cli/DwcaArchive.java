@@ -0,0 +1,245 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.embl.cli;
+
+import org.gbif.dwc.terms.DcTerm;
+import org.gbif.dwc.terms.DwcTerm;
+import org.gbif.dwc.terms.Term;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.lang3.StringUtils;
+
+import static org.gbif.embl.util.EmblAdapterConstants.PROCESSED_INDEX_GENUS;
+
+/**
+ * Darwin Core Archive with an occurrence core, written while records are processed.
+ * <p>
+ * The archive is a zip file with {@code occurrence.txt} (tab separated, one column per processed
+ * data table column), {@code meta.xml} and {@code eml.xml}. Processing threads write through their
+ * own {@link #writer()}, which appends whole batches of lines to the core file. The archive is
+ * written to a temporary file and moved to the archive file by {@link #complete()}, an incomplete
+ * archive is deleted when closed.
+ */
+class DwcaArchive implements AutoCloseable {
+
+  private static final String CORE_FILE = "occurrence.txt";
+  private static final String META_FILE = "meta.xml";
+  private static final String EML_FILE = "eml.xml";
+
+  // append the lines of a writer to the core file in chunks of about this size
+  private static final int WRITER_BUFFER_SIZE = 1 << 20;
+
+  // terms of the core columns, in the order of the processed data table columns
+  private static final Term[] TERMS = {
+    DwcTerm.occurrenceID,
+    DwcTerm.associatedSequences,
+    DcTerm.references,
+    DwcTerm.decimalLatitude,
+    DwcTerm.decimalLongitude,
+    DwcTerm.country,
+    DwcTerm.locality,
+    DwcTerm.identifiedBy,
+    DwcTerm.recordedBy,
+    DwcTerm.eventDate,
+    DwcTerm.catalogNumber,
+    DwcTerm.basisOfRecord,
+    DwcTerm.taxonID,
+    DwcTerm.scientificName,
+    DwcTerm.taxonConceptID,
+    DwcTerm.minimumElevationInMeters,
+    DwcTerm.maximumElevationInMeters,
+    DwcTerm.sex,
+    DwcTerm.occurrenceRemarks,
+    DwcTerm.associatedTaxa,
+    DwcTerm.kingdom,
+    DwcTerm.phylum,
+    DwcTerm.class_,
+    DwcTerm.order,
+    DwcTerm.family,
+    DwcTerm.genus
+  };
+
+  private final Path archiveFile;
+  private final Path tempFile;
+  private final Path emlFile;
+  private final ZipOutputStream zip;
+  private final Writer out;
+  private long records = 0;
+  private boolean completed = false;
+
+  /**
+   * Creates the archive and starts its core file.
+   *
+   * @param emlFile metadata document of the dataset, {@code ${pubDate}} is replaced by today
+   */
+  DwcaArchive(String archiveFile, String emlFile) throws IOException {
+    if (TERMS.length != PROCESSED_INDEX_GENUS) {
+      throw new IllegalStateException("Terms do not match the processed data columns");
+    }
+    this.archiveFile = Paths.get(archiveFile);
+    this.tempFile = Paths.get(archiveFile + ".tmp");
+    this.emlFile = Paths.get(emlFile);
+    if (!Files.isReadable(this.emlFile)) {
+      throw new IOException("EML file " + emlFile + " can't be read");
+    }
+
+    this.zip = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)));
+    this.out = new OutputStreamWriter(zip, StandardCharsets.UTF_8);
+    zip.putNextEntry(new ZipEntry(CORE_FILE));
+
+    StringBuilder header = new StringBuilder();
+    for (int i = 0; i < TERMS.length; i++) {
+      header.append(i > 0 ? "\t" : "").append(TERMS[i].simpleName());
+    }
+    out.write(header.append('\n').toString());
+  }
+
+  /**
+   * Writer of a processing thread, not thread safe.
+   */
+  ProcessedDataWriter writer() {
+    return new ProcessedDataWriter() {
+      private final StringBuilder lines = new StringBuilder(WRITER_BUFFER_SIZE + 4096);
+      private int pending = 0;
+
+      @Override
+      public void addRecord(ProcessedRecord record) throws IOException {
+        for (int i = 1; i <= TERMS.length; i++) {
+          if (i > 1) {
+            lines.append('\t');
+          }
+          appendValue(lines, record.get(i));
+        }
+        lines.append('\n');
+        pending++;
+
+        if (lines.length() >= WRITER_BUFFER_SIZE) {
+          flush();
+        }
+      }
+
+      @Override
+      public void flush() throws IOException {
+        if (pending > 0) {
+          append(lines, pending);
+          lines.setLength(0);
+          pending = 0;
+        }
+      }
+
+      @Override
+      public void close() {
+        // pending lines are discarded unless flushed, like an uncommitted batch
+      }
+    };
+  }
+
+  /**
+   * Completes the archive: finishes the core file, adds the descriptor and the metadata and moves
+   * the archive to the archive file.
+   */
+  synchronized void complete() throws IOException {
+    out.flush();
+    zip.closeEntry();
+
+    zip.putNextEntry(new ZipEntry(META_FILE));
+    out.write(metaXml());
+    out.flush();
+    zip.closeEntry();
+
+    zip.putNextEntry(new ZipEntry(EML_FILE));
+    out.write(
+        Files.readString(emlFile, StandardCharsets.UTF_8)
+            .replace("${pubDate}", LocalDate.now().toString()));
+    out.flush();
+    zip.closeEntry();
+
+    out.close();
+    Files.move(
+        tempFile, archiveFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    completed = true;
+  }
+
+  /** Number of records written. */
+  synchronized long records() {
+    return records;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (completed) {
+      return;
+    }
+    try {
+      out.close();
+    } finally {
+      Files.deleteIfExists(tempFile);
+    }
+  }
+
+  private synchronized void append(CharSequence lines, int count) throws IOException {
+    out.append(lines);
+    records += count;
+  }
+
+  /** Values can't contain the separators, they are replaced by spaces. */
+  private static void appendValue(StringBuilder lines, String value) {
+    if (value == null) {
+      return;
+    }
+    if (StringUtils.containsAny(value, '\t', '\n', '\r')) {
+      lines.append(StringUtils.replaceChars(value, "\t\n\r", "   "));
+    } else {
+      lines.append(value);
+    }
+  }
+
+  private static String metaXml() {
+    StringBuilder meta = new StringBuilder();
+    meta.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+        .append("<archive xmlns=\"http://rs.tdwg.org/dwc/text/\" metadata=\"")
+        .append(EML_FILE)
+        .append("\">\n")
+        .append("  <core encoding=\"UTF-8\" fieldsTerminatedBy=\"\\t\" linesTerminatedBy=\"\\n\"")
+        .append(" fieldsEnclosedBy=\"\" ignoreHeaderLines=\"1\" rowType=\"")
+        .append(DwcTerm.Occurrence.qualifiedName())
+        .append("\">\n")
+        .append("    <files>\n")
+        .append("      <location>")
+        .append(CORE_FILE)
+        .append("</location>\n")
+        .append("    </files>\n")
+        .append("    <id index=\"0\"/>\n");
+    for (int i = 0; i < TERMS.length; i++) {
+      meta.append("    <field index=\"")
+          .append(i)
+          .append("\" term=\"")
+          .append(TERMS[i].qualifiedName())
+          .append("\"/>\n");
+    }
+    return meta.append("  </core>\n").append("</archive>\n").toString();
+  }
+}
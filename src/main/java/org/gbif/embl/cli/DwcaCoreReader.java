@@ -0,0 +1,286 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.embl.cli;
+
+import org.gbif.dwc.terms.Term;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+/**
+ * Reads the core data file of a Darwin Core Archive from a zip stream, without extracting the
+ * archive, so it can be read while it is downloaded.
+ * <p>
+ * Zip entries are read in their order: {@code meta.xml} is parsed when it is reached and the core
+ * file is then read directly from the zip stream. Entries before {@code meta.xml} are written to
+ * temporary files (the core file is read from its copy if it was among them), which are deleted
+ * when the reader is closed. Closing the reader doesn't close the archive stream. Quoted fields
+ * can't contain line breaks.
+ */
+class DwcaCoreReader implements Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(DwcaCoreReader.class);
+
+  private static final String META_FILE = "meta.xml";
+  private static final char NO_QUOTE = 0;
+
+  private final Core core;
+  private final BufferedReader reader;
+  private final List<Path> spilled;
+  // the core file is read from its temporary copy, not from the archive stream
+  private final boolean fromCopy;
+
+  private DwcaCoreReader(Core core, InputStream in, List<Path> spilled, boolean fromCopy)
+      throws IOException {
+    this.core = core;
+    this.reader = new BufferedReader(new InputStreamReader(in, core.encoding));
+    this.spilled = spilled;
+    this.fromCopy = fromCopy;
+    for (int i = 0; i < core.ignoreHeaderLines; i++) {
+      reader.readLine();
+    }
+  }
+
+  /**
+   * Reads the archive up to the core file.
+   *
+   * @param spillDir directory of the temporary copies of entries before {@code meta.xml}
+   */
+  static DwcaCoreReader open(InputStream archive, Path spillDir) throws IOException {
+    ZipInputStream zip = new ZipInputStream(archive);
+    Map<String, Path> spilled = new LinkedHashMap<>();
+    try {
+      Core core = null;
+      String coreName = null;
+      ZipEntry entry;
+      while ((entry = zip.getNextEntry()) != null) {
+        if (entry.isDirectory()) {
+          continue;
+        }
+        String name = entry.getName();
+        if (core == null) {
+          if (name.equals(META_FILE) || name.endsWith("/" + META_FILE)) {
+            // the parser closes its input
+            core = Core.parse(new ByteArrayInputStream(zip.readAllBytes()));
+            coreName = name.substring(0, name.length() - META_FILE.length()) + core.location;
+            LOG.debug("Core file of the archive: {}", coreName);
+            Path copy = spilled.get(coreName);
+            if (copy != null) {
+              return new DwcaCoreReader(
+                  core, Files.newInputStream(copy), new ArrayList<>(spilled.values()), true);
+            }
+          } else {
+            Path copy = Files.createTempFile(spillDir, "dwca", ".tmp");
+            spilled.put(name, copy);
+            Files.copy(zip, copy, StandardCopyOption.REPLACE_EXISTING);
+            LOG.debug("Entry {} before {} copied to {}", name, META_FILE, copy);
+          }
+        } else if (name.equals(coreName)) {
+          return new DwcaCoreReader(core, zip, new ArrayList<>(spilled.values()), false);
+        }
+      }
+      throw new IOException(
+          core == null ? "No " + META_FILE + " in the archive" : "No core file " + coreName);
+    } catch (IOException | RuntimeException e) {
+      deleteAll(spilled.values());
+      throw e;
+    }
+  }
+
+  /**
+   * Fields of the next row of the core file, null at the end of the file. Blank lines are skipped.
+   */
+  String[] next() throws IOException {
+    String line;
+    do {
+      line = reader.readLine();
+    } while (line != null && line.isBlank());
+    return line != null ? split(line) : null;
+  }
+
+  /**
+   * Value of the term in the row, the default value of the term if it is empty or not mapped.
+   */
+  String value(String[] row, Term term) {
+    Integer index = core.indexes.get(term.qualifiedName());
+    String value = index != null && index < row.length ? row[index] : null;
+    return StringUtils.isEmpty(value) ? core.defaults.get(term.qualifiedName()) : value;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (fromCopy) {
+      reader.close();
+    }
+    deleteAll(spilled);
+  }
+
+  private String[] split(String line) {
+    List<String> fields = new ArrayList<>(core.columns);
+    char delimiter = core.fieldsTerminatedBy;
+    char quote = core.fieldsEnclosedBy;
+    int n = line.length();
+    int start = 0;
+    while (true) {
+      int end;
+      if (quote != NO_QUOTE && start < n && line.charAt(start) == quote) {
+        StringBuilder value = new StringBuilder();
+        int i = start + 1;
+        while (i < n) {
+          char c = line.charAt(i++);
+          if (c == quote) {
+            if (i < n && line.charAt(i) == quote) {
+              i++;
+            } else {
+              break;
+            }
+          }
+          value.append(c);
+        }
+        // anything between the closing quote and the delimiter is kept
+        end = line.indexOf(delimiter, i);
+        value.append(line, i, end < 0 ? n : end);
+        fields.add(value.toString());
+      } else {
+        end = line.indexOf(delimiter, start);
+        fields.add(line.substring(start, end < 0 ? n : end));
+      }
+      if (end < 0) {
+        return fields.toArray(new String[0]);
+      }
+      start = end + 1;
+    }
+  }
+
+  private static void deleteAll(Iterable<Path> files) throws IOException {
+    for (Path file : files) {
+      Files.deleteIfExists(file);
+    }
+  }
+
+  /** Core file description from {@code meta.xml}. */
+  private static class Core {
+
+    private String location;
+    private Charset encoding;
+    private char fieldsTerminatedBy;
+    private char fieldsEnclosedBy;
+    private int ignoreHeaderLines;
+    private int columns;
+    private final Map<String, Integer> indexes = new HashMap<>();
+    private final Map<String, String> defaults = new HashMap<>();
+
+    private static Core parse(InputStream metaXml) throws IOException {
+      Document document;
+      try {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+        factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+        document = factory.newDocumentBuilder().parse(metaXml);
+      } catch (ParserConfigurationException | SAXException e) {
+        throw new IOException("Invalid " + META_FILE, e);
+      }
+
+      Element element = firstElement(document.getDocumentElement(), "core");
+      if (element == null) {
+        throw new IOException("No core in " + META_FILE);
+      }
+      Element files = firstElement(element, "files");
+      Element location = files != null ? firstElement(files, "location") : null;
+      if (location == null || location.getTextContent().isBlank()) {
+        throw new IOException("No core file location in " + META_FILE);
+      }
+
+      Core core = new Core();
+      core.location = location.getTextContent().trim();
+      core.encoding = Charset.forName(attribute(element, "encoding", "UTF-8"));
+      core.fieldsTerminatedBy = character(attribute(element, "fieldsTerminatedBy", ","), ',');
+      core.fieldsEnclosedBy = character(attribute(element, "fieldsEnclosedBy", "\""), NO_QUOTE);
+      core.ignoreHeaderLines = Integer.parseInt(attribute(element, "ignoreHeaderLines", "0"));
+
+      NodeList fields = element.getElementsByTagNameNS("*", "field");
+      for (int i = 0; i < fields.getLength(); i++) {
+        Element field = (Element) fields.item(i);
+        String term = field.getAttribute("term");
+        if (!field.getAttribute("index").isEmpty()) {
+          int index = Integer.parseInt(field.getAttribute("index"));
+          core.indexes.put(term, index);
+          core.columns = Math.max(core.columns, index + 1);
+        }
+        if (field.hasAttribute("default")) {
+          core.defaults.put(term, field.getAttribute("default"));
+        }
+      }
+      return core;
+    }
+
+    private static Element firstElement(Element parent, String localName) {
+      NodeList elements = parent.getElementsByTagNameNS("*", localName);
+      return elements.getLength() > 0 ? (Element) elements.item(0) : null;
+    }
+
+    private static String attribute(Element element, String name, String defaultValue) {
+      return element.hasAttribute(name) ? element.getAttribute(name) : defaultValue;
+    }
+
+    /**
+     * Single character of an attribute, escapes like {@code \t} are resolved.
+     *
+     * @param empty character of an empty attribute
+     */
+    private static char character(String value, char empty) throws IOException {
+      String unescaped =
+          value
+              .replace("\\t", "\t")
+              .replace("\\n", "\n")
+              .replace("\\r", "\r")
+              .replace("\\\"", "\"");
+      if (unescaped.isEmpty()) {
+        return empty;
+      }
+      if (unescaped.length() > 1) {
+        throw new IOException("Unsupported separator in " + META_FILE + ": " + value);
+      }
+      return unescaped.charAt(0);
+    }
+  }
+}
@@ -27,6 +27,8 @@ public class EmblAdapterConfiguration {
 
   @ParametersDelegate @Valid @NotNull public DbConfiguration db = new DbConfiguration();
 
+  @Valid @NotNull public DownloadConfiguration download = new DownloadConfiguration();
+
   @Valid
   @Parameter(names = "--tasks")
   public List<TaskConfiguration> tasks = new ArrayList<>();
@@ -47,15 +49,38 @@ public class EmblAdapterConfiguration {
   @Parameter(names = "--working-directory")
   public String workingDirectory;
 
+  /**
+   * Number of tasks downloading at the same time. Store and process steps share the DB connections
+   * of the pool instead, each step waits until its connections are free.
+   */
+  @NotNull
+  @Parameter(names = "--max-concurrent-downloads")
+  public Integer maxConcurrentDownloads = 2;
+
+  /**
+   * Configuration of the ENA taxonomy (as for ena-taxonomy, its schedule is not used). If set, the
+   * taxonomy is refreshed in every run of the tasks and the processing steps of the tasks wait for
+   * it, the other steps don't. The refresh uses its own pool of taxonomy.db.maximumPoolSize
+   * connections, in addition to db.maximumPoolSize.
+   */
+  @Valid public TaxonomyConfiguration taxonomy;
+
+  /** Requests downloaded once for the tasks with a route, see {@link TaskConfiguration#route}. */
+  @Valid public SharedHarvestConfiguration sharedHarvest;
+
   @Override
   public String toString() {
     return new StringJoiner(", ", EmblAdapterConfiguration.class.getSimpleName() + "[", "]")
         .add("db=" + db)
+        .add("download=" + download)
         .add("emblEbiApi='" + emblEbiApi + "'")
         .add("startTime='" + startTime + "'")
         .add("frequencyInDays=" + frequencyInDays)
         .add("workingDirectory=" + workingDirectory)
+        .add("maxConcurrentDownloads=" + maxConcurrentDownloads)
         .add("tasks=" + tasks)
+        .add("taxonomy=" + taxonomy)
+        .add("sharedHarvest=" + sharedHarvest)
         .toString();
   }
 }
@@ -15,6 +15,8 @@ package org.gbif.embl.cli;
 
 import java.time.LocalTime;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -40,26 +42,28 @@ public class EmblAdapterService extends AbstractIdleService {
 
   private static final Logger LOG = LoggerFactory.getLogger(EmblAdapterService.class);
 
+  private static final String TAXONOMY_STEP = "taxonomy";
+
   private final ScheduledExecutorService scheduler;
 
   private final Integer frequencyInDays;
   private final Long initialDelay;
   private final EmblAdapterConfiguration config;
   private final DataSource dataSource;
+  private final ResourceScheduler resourceScheduler;
+  // own pool of taxonomy.db.maximumPoolSize connections, not counted by the resource scheduler
+  private final DataSource taxonomyDataSource;
 
   public EmblAdapterService(EmblAdapterConfiguration config) {
     this.config = config;
-    this.scheduler = Executors.newScheduledThreadPool(4);
+    // a thread per task, tasks wait for the resources of their steps in the resource scheduler
+    this.scheduler = Executors.newScheduledThreadPool(Math.max(config.tasks.size(), 1));
     this.frequencyInDays = ObjectUtils.getIfNull(config.frequencyInDays, DEFAULT_FREQUENCY);
 
-    HikariConfig hikariConfig = new HikariConfig();
-    hikariConfig.setJdbcUrl(config.db.url);
-    hikariConfig.setUsername(config.db.user);
-    hikariConfig.setPassword(config.db.password);
-    hikariConfig.setMaximumPoolSize(config.db.maximumPoolSize);
-    hikariConfig.setConnectionTimeout(config.db.connectionTimeout);
-
-    this.dataSource = new HikariDataSource(hikariConfig);
+    this.dataSource = createDataSource(config.db);
+    this.taxonomyDataSource = config.taxonomy != null ? createDataSource(config.taxonomy.db) : null;
+    this.resourceScheduler =
+        new ResourceScheduler(config.maxConcurrentDownloads, config.db.maximumPoolSize);
 
     Integer startHour;
     Integer startMinute;
@@ -89,9 +93,56 @@ public class EmblAdapterService extends AbstractIdleService {
   @Override
   protected void startUp() {
     LOG.info("EmblAdapterService started");
+    List<DataGeneratorTask> tasks = new ArrayList<>();
+    List<String> routedStoreSteps = new ArrayList<>();
     for (TaskConfiguration task : config.tasks) {
-      scheduleTask(new DataGeneratorTask(task, dataSource));
+      DataGeneratorTask dataGeneratorTask =
+          new DataGeneratorTask(
+              task, dataSource, config.download, resourceScheduler, config.sharedHarvest);
+      tasks.add(dataGeneratorTask);
+      if (dataGeneratorTask.isRouted()) {
+        routedStoreSteps.add(dataGeneratorTask.stepName("store"));
+      } else if (task.request1 == null || task.request2 == null) {
+        throw new IllegalStateException("Task " + task.name + " has no route and no requests");
+      }
+    }
+
+    if (config.taxonomy == null && routedStoreSteps.isEmpty()) {
+      tasks.forEach(this::scheduleTask);
+      return;
     }
+
+    // taxonomy, shared harvest and tasks run together, as one graph of steps
+    EnaTaxonomyTask taxonomyTask =
+        config.taxonomy != null ? new EnaTaxonomyTask(config.taxonomy, taxonomyDataSource) : null;
+    SharedHarvest sharedHarvest =
+        !routedStoreSteps.isEmpty()
+            ? new SharedHarvest(config.sharedHarvest, config.download, resourceScheduler)
+            : null;
+    scheduleTask(
+        () -> {
+          // an exception thrown by a run would cancel the next runs
+          try {
+            StepGraph graph = new StepGraph("embl-adapter");
+            String[] processAfter = {};
+            if (taxonomyTask != null) {
+              graph.add(TAXONOMY_STEP, null, taxonomyTask::run);
+              processAfter = new String[] {TAXONOMY_STEP};
+            }
+            if (sharedHarvest != null) {
+              sharedHarvest.addDownloadStep(graph);
+            }
+            for (DataGeneratorTask task : tasks) {
+              task.addSteps(graph, processAfter);
+            }
+            if (sharedHarvest != null) {
+              sharedHarvest.addCompleteStep(graph, routedStoreSteps.toArray(new String[0]));
+            }
+            graph.run();
+          } catch (Throwable e) {
+            LOG.error("Run of the steps failed", e);
+          }
+        });
   }
 
   @Override
@@ -99,6 +150,17 @@ public class EmblAdapterService extends AbstractIdleService {
     scheduler.shutdown();
   }
 
+  private static DataSource createDataSource(DbConfiguration db) {
+    HikariConfig hikariConfig = new HikariConfig();
+    hikariConfig.setJdbcUrl(db.url);
+    hikariConfig.setUsername(db.user);
+    hikariConfig.setPassword(db.password);
+    hikariConfig.setMaximumPoolSize(db.maximumPoolSize);
+    hikariConfig.setConnectionTimeout(db.connectionTimeout);
+
+    return new HikariDataSource(hikariConfig);
+  }
+
   private void scheduleTask(Runnable runnable) {
     scheduler.scheduleAtFixedRate(
         runnable,
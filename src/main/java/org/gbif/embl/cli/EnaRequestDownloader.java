@@ -0,0 +1,319 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.embl.cli;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.net.URLEncoder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.Marker;
+
+/**
+ * Downloads ENA portal API search results.
+ * <p>
+ * If a request is configured with several {@link RequestConfiguration#pages}, the result range is
+ * split into page ranges (using the count endpoint) which are fetched concurrently and reassembled
+ * in order with a single header line.
+ */
+public class EnaRequestDownloader {
+
+  private static final Logger LOG = LoggerFactory.getLogger(EnaRequestDownloader.class);
+
+  private final HttpDownloader httpDownloader;
+  private final Marker marker;
+
+  public EnaRequestDownloader(HttpDownloader httpDownloader, Marker marker) {
+    this.httpDownloader = httpDownloader;
+    this.marker = marker;
+  }
+
+  /**
+   * Downloads the request results into the target file, compressed while they are written.
+   */
+  public void download(
+      RequestConfiguration request,
+      LocalDate updatedSince,
+      Path target,
+      RawDataCompression compression)
+      throws IOException {
+    String query = query(request, updatedSince);
+    List<Page> pages = pages(request, query);
+
+    if (pages.size() == 1) {
+      String requestUrl = buildRequestUrl(request, query, pages.get(0));
+      LOG.debug(marker, "Downloading {}", requestUrl);
+      if (compression == RawDataCompression.NONE) {
+        // a part left by a failed download is resumed
+        httpDownloader.download(requestUrl, target);
+        return;
+      }
+      try (InputStream in = openStream(requestUrl);
+          OutputStream out = compression.newOutputStream(target)) {
+        in.transferTo(out);
+      }
+      return;
+    }
+
+    LOG.debug(marker, "Downloading {} pages into {}", pages.size(), target);
+    List<Path> pageFiles = new ArrayList<>();
+    ExecutorService executor = Executors.newFixedThreadPool(pages.size());
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int i = 0; i < pages.size(); i++) {
+        Page page = pages.get(i);
+        boolean firstPage = i == 0;
+        Path pageFile = Paths.get(target + ".page" + i);
+        pageFiles.add(pageFile);
+        futures.add(
+            executor.submit(
+                () -> {
+                  String requestUrl = buildRequestUrl(request, query, page);
+                  LOG.debug(marker, "Downloading page {}", requestUrl);
+                  try (InputStream in = new BufferedInputStream(openStream(requestUrl));
+                      OutputStream out = compression.newOutputStream(pageFile)) {
+                    // only the first page keeps the header line
+                    if (!firstPage) {
+                      skipLine(in);
+                    }
+                    in.transferTo(out);
+                  }
+                  return null;
+                }));
+      }
+
+      for (Future<?> future : futures) {
+        await(future);
+      }
+
+      concatenatePages(pageFiles, target);
+    } finally {
+      executor.shutdownNow();
+      for (Path pageFile : pageFiles) {
+        Files.deleteIfExists(pageFile);
+      }
+    }
+  }
+
+  /**
+   * Opens the request results as a stream, pages are requested one after another while the stream
+   * is read.
+   */
+  public InputStream open(RequestConfiguration request, LocalDate updatedSince) throws IOException {
+    String query = query(request, updatedSince);
+    List<Page> pages = pages(request, query);
+
+    if (pages.size() == 1) {
+      String requestUrl = buildRequestUrl(request, query, pages.get(0));
+      LOG.debug(marker, "Streaming {}", requestUrl);
+      return openStream(requestUrl);
+    }
+
+    LOG.debug(marker, "Streaming {} pages", pages.size());
+    Enumeration<InputStream> streams =
+        new Enumeration<>() {
+          private int next = 0;
+
+          @Override
+          public boolean hasMoreElements() {
+            return next < pages.size();
+          }
+
+          @Override
+          public InputStream nextElement() {
+            int i = next++;
+            String requestUrl = buildRequestUrl(request, query, pages.get(i));
+            LOG.debug(marker, "Streaming page {}", requestUrl);
+            try {
+              InputStream in = new BufferedInputStream(openStream(requestUrl));
+              // only the first page keeps the header line
+              if (i > 0) {
+                skipLine(in);
+              }
+              return in;
+            } catch (IOException e) {
+              throw new UncheckedIOException(e);
+            }
+          }
+        };
+    return new SequenceInputStream(streams);
+  }
+
+  /**
+   * Query of the request, restricted to records updated since the date if present.
+   */
+  private String query(RequestConfiguration request, LocalDate updatedSince) {
+    if (updatedSince == null) {
+      return request.query;
+    }
+    return "(" + request.query + ") AND last_updated>=" + updatedSince;
+  }
+
+  private String buildRequestUrl(RequestConfiguration request, String query, Page page) {
+    // page ranges are only consistent with each other in a stable order
+    String sort = isPaginated(request) ? "&sortFields=" + request.sortField : "";
+    return request.url
+        + "?dataPortal="
+        + request.dataPortal
+        + "&result="
+        + request.result
+        + "&offset="
+        + page.offset
+        + "&limit="
+        + page.limit
+        + "&fields="
+        + request.fields
+        + sort
+        + "&query="
+        + URLEncoder.encode(query, StandardCharsets.UTF_8);
+  }
+
+  private String buildCountUrl(RequestConfiguration request, String query) {
+    return request.countUrl
+        + "?dataPortal="
+        + request.dataPortal
+        + "&result="
+        + request.result
+        + "&query="
+        + URLEncoder.encode(query, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Splits the request into page ranges, limit 0 means all records.
+   */
+  private List<Page> pages(RequestConfiguration request, String query) throws IOException {
+    List<Page> pages = new ArrayList<>();
+    if (!isPaginated(request)) {
+      pages.add(new Page(request.offset, request.limit));
+      return pages;
+    }
+
+    long count = count(request, query);
+    long total = Math.max(count - request.offset, 0);
+    if (request.limit > 0) {
+      total = Math.min(total, request.limit);
+    }
+    LOG.debug(marker, "Request {} has {} records to download", request.result, total);
+
+    if (total == 0) {
+      pages.add(new Page(request.offset, request.limit));
+      return pages;
+    }
+
+    int pageSize = (int) ((total + request.pages - 1) / request.pages);
+    for (long start = 0; start < total; start += pageSize) {
+      pages.add(new Page((int) (request.offset + start), (int) Math.min(pageSize, total - start)));
+    }
+    return pages;
+  }
+
+  private static boolean isPaginated(RequestConfiguration request) {
+    return request.pages != null && request.pages > 1;
+  }
+
+  private long count(RequestConfiguration request, String query) throws IOException {
+    String countUrl = buildCountUrl(request, query);
+    LOG.debug(marker, "Counting {}", countUrl);
+    try (InputStream in = openStream(countUrl)) {
+      String response = new String(in.readAllBytes(), StandardCharsets.UTF_8).trim();
+      // the count is the last line (the first one may be a header)
+      String count = StringUtils.substringAfterLast("\n" + response, "\n").trim();
+      if (!StringUtils.isNumeric(count)) {
+        throw new IOException("Unexpected count response: " + response);
+      }
+      return Long.parseLong(count);
+    }
+  }
+
+  private InputStream openStream(String url) throws IOException {
+    return httpDownloader.open(url);
+  }
+
+  /**
+   * Appends the page files to the target file. Pages are compressed separately, concatenated gzip
+   * members and zstd frames are a valid stream.
+   */
+  private static void concatenatePages(List<Path> pageFiles, Path target) throws IOException {
+    try (FileChannel out =
+        FileChannel.open(
+            target,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+      for (Path pageFile : pageFiles) {
+        try (FileChannel in = FileChannel.open(pageFile, StandardOpenOption.READ)) {
+          long position = 0;
+          long size = in.size();
+          while (position < size) {
+            position += in.transferTo(position, size - position, out);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Skips bytes up to and including the next line break, returns the number of bytes skipped.
+   */
+  private static long skipLine(InputStream in) throws IOException {
+    long skipped = 0;
+    int b;
+    while ((b = in.read()) != -1) {
+      skipped++;
+      if (b == '\n') {
+        break;
+      }
+    }
+    return skipped;
+  }
+
+  /**
+   * Waits for a download to finish, rethrows its failure.
+   */
+  static void await(Future<?> future) throws IOException {
+    try {
+      future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Download interrupted", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException("Download failed", e.getCause());
+    }
+  }
+
+  private record Page(int offset, int limit) {}
+}
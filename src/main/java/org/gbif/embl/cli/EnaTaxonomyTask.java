@@ -13,51 +13,59 @@
  */
 package org.gbif.embl.cli;
 
-import org.gbif.dwc.Archive;
-import org.gbif.dwc.DwcFiles;
-import org.gbif.dwc.record.Record;
 import org.gbif.dwc.terms.DwcTerm;
 import org.gbif.utils.file.FileUtils;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.URL;
-import java.net.URLConnection;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 
 import javax.sql.DataSource;
 
 import org.apache.commons.lang3.StringUtils;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
+import com.google.common.io.MoreFiles;
+
 import static org.apache.commons.lang3.StringUtils.trimToEmpty;
+import static org.gbif.embl.cli.CopyRawDataWriter.COPY_BUFFER_SIZE;
 import static org.gbif.embl.util.EmblAdapterConstants.*;
 
 public class EnaTaxonomyTask implements Runnable {
 
   private static final Logger LOG = LoggerFactory.getLogger(EnaTaxonomyTask.class);
 
+  private static final int PROGRESS_LOG_ROWS = 1_000_000;
+
   private final TaxonomyConfiguration taxonomyConfig;
   private final DataSource dataSource;
+  private final HttpDownloader downloader;
 
   public EnaTaxonomyTask(TaxonomyConfiguration taxonomyConfig, DataSource dataSource) {
     this.taxonomyConfig = taxonomyConfig;
     this.dataSource = dataSource;
+    this.downloader = new HttpDownloader(taxonomyConfig.download);
   }
 
   @Override
   public void run() {
-    try (Connection connection = dataSource.getConnection();
-        Statement st = connection.createStatement();
-        PreparedStatement ps = connection.prepareStatement(SQL_INSERT_TAXONOMY)) {
+    try {
       LOG.debug("{}", taxonomyConfig);
 
       // create tempDir if not exists
@@ -68,67 +76,258 @@ public class EnaTaxonomyTask implements Runnable {
         LOG.debug("Directory {} created: {}", taxonomyConfig.tempDir, result);
       }
 
-      // download archive
-      downloadTaxonomyArchive();
-
-      Path archiveFile = Paths.get(taxonomyConfig.tempDir, taxonomyConfig.archiveName);
-      Path extractToFolder = Paths.get(taxonomyConfig.extractedDir);
-      Archive dwcArchive = DwcFiles.fromCompressed(archiveFile, extractToFolder);
-
-      // clean database table before
-      st.executeUpdate(SQL_CLEAN_TAXONOMY);
-      LOG.debug("Taxonomy DB cleaned");
+      boolean conditional = taxonomyConfig.conditionalRefresh;
+      TaxonomyState state = conditional ? readState() : null;
+      HttpDownloader.Validators previous = state != null ? state.validators() : null;
 
-      // store data to DB
-      LOG.debug("Start writing taxonomy to DB table {}", TAXONOMY_TABLE);
+      if (taxonomyConfig.streamArchive) {
+        // read while it is downloaded, the archive is hashed on the way
+        HttpDownloader.Response response = downloader.open(taxonomyConfig.archiveUrl, previous);
+        if (response == null) {
+          LOG.info("Taxonomy archive not modified since the last load, taxonomy not refreshed");
+          return;
+        }
+        try (HashingInputStream in =
+            new HashingInputStream(Hashing.sha256(), new BufferedInputStream(response.body()))) {
+          storeTaxonomy(in, conditional);
+          // the rest of the archive (entries after the core file)
+          in.transferTo(OutputStream.nullOutputStream());
+          if (conditional) {
+            saveState(response.validators(), in.hash().toString());
+          }
+        }
+        return;
+      }
 
-      int lineNumber = 0;
+      // download archive
+      Path archiveFile = Paths.get(taxonomyConfig.tempDir, taxonomyConfig.archiveName);
+      HttpDownloader.Validators validators = downloadTaxonomyArchive(archiveFile, previous);
+      if (validators == null) {
+        LOG.info("Taxonomy archive not modified since the last load, taxonomy not refreshed");
+        return;
+      }
 
-      for (Record rec : dwcArchive.getCore()) {
-        lineNumber++;
-        if (StringUtils.isEmpty(rec.value(DwcTerm.taxonID))) {
-          LOG.warn("Missing taxonID line {}!", lineNumber);
-          continue;
-        }
-        ps.setString(TAXONOMY_INDEX_TAXON_ID, rec.value(DwcTerm.taxonID));
-        ps.setString(TAXONOMY_INDEX_KINGDOM, trimToEmpty(rec.value(DwcTerm.kingdom)));
-        ps.setString(TAXONOMY_INDEX_PHYLUM, trimToEmpty(rec.value(DwcTerm.phylum)));
-        ps.setString(TAXONOMY_INDEX_CLASS, trimToEmpty(rec.value(DwcTerm.class_)));
-        ps.setString(TAXONOMY_INDEX_ORDER, trimToEmpty(rec.value(DwcTerm.order)));
-        ps.setString(TAXONOMY_INDEX_FAMILY, trimToEmpty(rec.value(DwcTerm.family)));
-        ps.setString(TAXONOMY_INDEX_GENUS, trimToEmpty(rec.value(DwcTerm.genus)));
-        ps.addBatch();
-
-        if (lineNumber % WRITE_BATCH_SIZE == 0) {
-          ps.executeBatch();
+      String contentHash = null;
+      if (conditional) {
+        contentHash = MoreFiles.asByteSource(archiveFile).hash(Hashing.sha256()).toString();
+        if (state != null && contentHash.equals(state.contentHash())) {
+          LOG.info(
+              "Taxonomy archive content not changed since the last load, taxonomy not refreshed");
+          saveState(validators, contentHash);
+          return;
         }
       }
 
-      ps.executeBatch();
-      LOG.debug("Finish writing taxonomy to DB");
+      try (InputStream in = new BufferedInputStream(Files.newInputStream(archiveFile))) {
+        storeTaxonomy(in, conditional);
+      }
+
+      if (conditional) {
+        saveState(validators, contentHash);
+      }
     } catch (IOException | SQLException e) {
       LOG.error("Error while processing taxonomy", e);
       throw new RuntimeException(e);
     } finally {
-      LOG.debug("Cleaning up taxonomy temp directory {}", taxonomyConfig.tempDir);
-      File file = new File(taxonomyConfig.tempDir);
-      if (file.exists()) {
+      cleanTempDir();
+    }
+  }
+
+  /** Deletes the temp directory, except the part of a failed download resumed by the next run. */
+  private void cleanTempDir() {
+    LOG.debug("Cleaning up taxonomy temp directory {}", taxonomyConfig.tempDir);
+    File dir = new File(taxonomyConfig.tempDir);
+    File[] files = dir.listFiles();
+    if (files == null) {
+      return;
+    }
+    boolean partKept = false;
+    for (File file : files) {
+      if (HttpDownloader.isPartFile(file.toPath())) {
+        LOG.info("Keeping {} of the failed download", file);
+        partKept = true;
+      } else if (file.isDirectory()) {
         FileUtils.deleteDirectoryRecursively(file);
+      } else {
+        file.delete();
       }
     }
+    if (!partKept) {
+      dir.delete();
+    }
   }
 
-  private void downloadTaxonomyArchive() throws IOException {
-    LOG.debug("Start downloading taxonomy archive from {}", taxonomyConfig.archiveUrl);
+  /**
+   * Copies the taxonomy (the core of the zipped archive, read without extracting it) into a shadow
+   * table and swaps it in, readers of the taxonomy table see the old taxonomy until the new one is
+   * complete. Rows with a duplicate taxonID are removed (the first one is kept) when the primary
+   * key is created.
+   *
+   * @param merge apply only the changes (added, updated and removed taxa) to a non empty taxonomy
+   *     table instead of replacing it
+   */
+  private void storeTaxonomy(InputStream archive, boolean merge) throws IOException, SQLException {
+    LOG.debug("Start writing taxonomy to DB table {}", TAXONOMY_TABLE);
+    try (ShadowTable shadow =
+        ShadowTable.create(
+            dataSource, TAXONOMY_TABLE, true, taxonomyConfig.db.maximumPoolSize, null)) {
+      long started = System.currentTimeMillis();
+      long rows = 0;
+
+      try (DwcaCoreReader core = DwcaCoreReader.open(archive, Paths.get(taxonomyConfig.tempDir));
+          Connection connection = dataSource.getConnection()) {
+        connection.setAutoCommit(false);
+        CopyIn copyIn =
+            connection
+                .unwrap(PGConnection.class)
+                .getCopyAPI()
+                .copyIn(SQL_COPY_TAXONOMY.replace(TAXONOMY_TABLE, shadow.name()));
+        try {
+          String[] values = new String[TAXONOMY_INDEX_GENUS];
+          StringBuilder buffer = new StringBuilder(COPY_BUFFER_SIZE + 1024);
+          int lineNumber = 0;
+
+          String[] row;
+          while ((row = core.next()) != null) {
+            lineNumber++;
+            String taxonId = core.value(row, DwcTerm.taxonID);
+            if (StringUtils.isEmpty(taxonId)) {
+              LOG.warn("Missing taxonID line {}!", lineNumber);
+              continue;
+            }
+            values[TAXONOMY_INDEX_TAXON_ID - 1] = taxonId;
+            values[TAXONOMY_INDEX_KINGDOM - 1] = trimToEmpty(core.value(row, DwcTerm.kingdom));
+            values[TAXONOMY_INDEX_PHYLUM - 1] = trimToEmpty(core.value(row, DwcTerm.phylum));
+            values[TAXONOMY_INDEX_CLASS - 1] = trimToEmpty(core.value(row, DwcTerm.class_));
+            values[TAXONOMY_INDEX_ORDER - 1] = trimToEmpty(core.value(row, DwcTerm.order));
+            values[TAXONOMY_INDEX_FAMILY - 1] = trimToEmpty(core.value(row, DwcTerm.family));
+            values[TAXONOMY_INDEX_GENUS - 1] = trimToEmpty(core.value(row, DwcTerm.genus));
+            for (int i = 0; i < values.length; i++) {
+              if (i > 0) {
+                buffer.append('\t');
+              }
+              CopyRawDataWriter.appendEscaped(buffer, values[i]);
+            }
+            buffer.append('\n');
+
+            if (buffer.length() >= COPY_BUFFER_SIZE) {
+              writeToCopy(copyIn, buffer);
+            }
+            if (++rows % PROGRESS_LOG_ROWS == 0) {
+              logProgress(rows, started);
+            }
+          }
+
+          writeToCopy(copyIn, buffer);
+          copyIn.endCopy();
+        } finally {
+          if (copyIn.isActive()) {
+            copyIn.cancelCopy();
+          }
+        }
+        connection.commit();
+      }
+      logProgress(rows, started);
+      if (rows == 0) {
+        // an unreadable core (e.g. taxonID not mapped) must not empty the taxonomy
+        throw new IOException("No taxa in the taxonomy archive");
+      }
 
-    URLConnection urlConnection = new URL(taxonomyConfig.archiveUrl).openConnection();
-    try (InputStream inputStream = urlConnection.getInputStream()) {
-      Files.copy(
-          inputStream, new File(taxonomyConfig.tempDir, taxonomyConfig.archiveName).toPath());
+      if (merge && !isTaxonomyEmpty()) {
+        shadow.createIndexes();
+        mergeTaxonomy(shadow.name());
+        shadow.merged();
+      } else {
+        shadow.swap();
+      }
+    }
+    LOG.debug("Finish writing taxonomy to DB");
+  }
+
+  /**
+   * Applies the differences between the shadow table and the taxonomy table in one transaction.
+   */
+  private void mergeTaxonomy(String shadowName) throws SQLException {
+    try (Connection connection = dataSource.getConnection();
+        Statement st = connection.createStatement()) {
+      st.executeUpdate("ANALYZE " + shadowName);
+      connection.setAutoCommit(false);
+      int deleted = st.executeUpdate(SQL_DELETE_TAXONOMY_REMOVED);
+      long inserted;
+      long updated;
+      try (ResultSet rs = st.executeQuery(SQL_UPSERT_TAXONOMY_CHANGED)) {
+        rs.next();
+        inserted = rs.getLong(1);
+        updated = rs.getLong(2);
+      }
+      connection.commit();
+      LOG.info(
+          "Taxonomy merged: {} taxa added, {} updated, {} removed", inserted, updated, deleted);
+    }
+  }
+
+  private boolean isTaxonomyEmpty() throws SQLException {
+    try (Connection connection = dataSource.getConnection();
+        Statement st = connection.createStatement();
+        ResultSet rs = st.executeQuery(SQL_SELECT_TAXONOMY_EXISTS)) {
+      return !(rs.next() && rs.getBoolean(1));
+    }
+  }
+
+  private TaxonomyState readState() throws SQLException {
+    try (Connection connection = dataSource.getConnection();
+        PreparedStatement ps = connection.prepareStatement(SQL_SELECT_TAXONOMY_STATE)) {
+      ps.setString(1, taxonomyConfig.archiveUrl);
+      try (ResultSet rs = ps.executeQuery()) {
+        if (rs.next()) {
+          return new TaxonomyState(
+              new HttpDownloader.Validators(rs.getString(1), rs.getString(2)), rs.getString(3));
+        }
+      }
+    }
+    return null;
+  }
+
+  private void saveState(HttpDownloader.Validators validators, String contentHash)
+      throws SQLException {
+    try (Connection connection = dataSource.getConnection();
+        PreparedStatement ps = connection.prepareStatement(SQL_UPSERT_TAXONOMY_STATE)) {
+      ps.setString(1, taxonomyConfig.archiveUrl);
+      ps.setString(2, validators.etag());
+      ps.setString(3, validators.lastModified());
+      ps.setString(4, contentHash);
+      ps.executeUpdate();
     }
+    LOG.debug("Taxonomy state saved: {}, content hash {}", validators, contentHash);
+  }
 
-    LOG.debug(
-        "Taxonomy archive downloaded: {}",
-        new File(taxonomyConfig.tempDir, taxonomyConfig.archiveName).exists());
+  private static void writeToCopy(CopyIn copyIn, StringBuilder buffer) throws SQLException {
+    byte[] bytes = buffer.toString().getBytes(StandardCharsets.UTF_8);
+    copyIn.writeToCopy(bytes, 0, bytes.length);
+    buffer.setLength(0);
   }
+
+  private static void logProgress(long rows, long started) {
+    long seconds = Math.max((System.currentTimeMillis() - started) / 1000, 1);
+    LOG.info("Taxonomy rows copied: {} ({}/s)", rows, rows / seconds);
+  }
+
+  /**
+   * Downloads the archive unless it was not modified since the previous download.
+   *
+   * @return validators of the response, null if not modified
+   */
+  private HttpDownloader.Validators downloadTaxonomyArchive(
+      Path archiveFile, HttpDownloader.Validators previous) throws IOException {
+    LOG.debug("Start downloading taxonomy archive from {}", taxonomyConfig.archiveUrl);
+
+    HttpDownloader.Validators validators =
+        downloader.download(taxonomyConfig.archiveUrl, archiveFile, previous);
+
+    LOG.debug("Taxonomy archive downloaded: {}", archiveFile.toFile().exists());
+    return validators;
+  }
+
+  /** Validators and content hash of the last loaded archive. */
+  private record TaxonomyState(HttpDownloader.Validators validators, String contentHash) {}
 }
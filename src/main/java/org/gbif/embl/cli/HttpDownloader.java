@@ -0,0 +1,409 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.embl.cli;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Strings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.io.CountingInputStream;
+
+/**
+ * Downloads HTTP resources, shared by {@link DataGeneratorTask} and {@link EnaTaxonomyTask}.
+ * <p>
+ * Requests gzip compressed responses, applies connect/read timeouts and retries failures with an
+ * exponential backoff. A connection dropped in the middle of a response is resumed with an HTTP
+ * Range request from the last byte read, so already downloaded data is not requested again.
+ * Downloads into files are written to a part file first: a part left by a failed run is resumed
+ * the same way, if the resource didn't change since (If-Range). Counts transferred bytes,
+ * throughput is logged when a download is complete. Downloads can be conditional, with the
+ * validators (ETag, Last-Modified) of a previous response.
+ */
+public class HttpDownloader {
+
+  private static final Logger LOG = LoggerFactory.getLogger(HttpDownloader.class);
+
+  private static final long MAX_RETRY_DELAY = TimeUnit.MINUTES.toMillis(10);
+  private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+  private static final String PART_SUFFIX = ".part";
+  private static final String PART_VALIDATORS_SUFFIX = ".part.validators";
+
+  private final DownloadConfiguration config;
+
+  public HttpDownloader(DownloadConfiguration config) {
+    this.config = config;
+  }
+
+  /**
+   * Opens the URL as a stream, the stream is resumed or reopened if the connection fails.
+   */
+  public InputStream open(String url) throws IOException {
+    return new ResumableInputStream(url);
+  }
+
+  /**
+   * Downloads the URL into the target file, returns the size of the file.
+   */
+  public long download(String url, Path target) throws IOException {
+    download(url, target, null);
+    return Files.size(target);
+  }
+
+  /**
+   * Downloads the URL into the target file unless it was not modified since a previous download.
+   *
+   * @param previous validators of the previous response, null for an unconditional download
+   * @return validators of the response, null if not modified (the target is not written)
+   */
+  public Validators download(String url, Path target, Validators previous) throws IOException {
+    Path part = target.resolveSibling(target.getFileName() + PART_SUFFIX);
+    Path partValidators = target.resolveSibling(target.getFileName() + PART_VALIDATORS_SUFFIX);
+
+    // a part of the same resource left by a failed download is resumed
+    long partSize = 0;
+    Validators partOf = null;
+    if (Files.exists(part) && Files.exists(partValidators)) {
+      partOf = Validators.parse(Files.readString(partValidators, StandardCharsets.UTF_8));
+      partSize = Files.size(part);
+    }
+
+    ResumableInputStream in = new ResumableInputStream(url, previous, partSize, partOf);
+    if (in.notModified) {
+      in.close();
+      LOG.debug("{} not modified since {}", url, previous);
+      return null;
+    }
+
+    try (in) {
+      if (in.start > 0) {
+        LOG.info("Resuming download of {} into {} from byte {}", url, part, in.start);
+      } else {
+        Files.deleteIfExists(partValidators);
+        // only a part which can be verified (If-Range) can be resumed
+        if (in.rangesSupported && in.validators.ifRange() != null) {
+          Files.writeString(partValidators, in.validators.format(), StandardCharsets.UTF_8);
+        }
+      }
+      try (OutputStream out =
+          Files.newOutputStream(
+              part,
+              StandardOpenOption.CREATE,
+              StandardOpenOption.WRITE,
+              in.start > 0 ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING)) {
+        in.transferTo(out);
+      }
+    }
+
+    Files.move(part, target, StandardCopyOption.REPLACE_EXISTING);
+    Files.deleteIfExists(partValidators);
+    return in.validators;
+  }
+
+  /**
+   * Opens the URL as a stream unless it was not modified since a previous download.
+   *
+   * @param previous validators of the previous response, null for an unconditional request
+   * @return the response, null if not modified
+   */
+  public Response open(String url, Validators previous) throws IOException {
+    ResumableInputStream in = new ResumableInputStream(url, previous, 0, null);
+    if (in.notModified) {
+      in.close();
+      LOG.debug("{} not modified since {}", url, previous);
+      return null;
+    }
+    return new Response(in, in.validators);
+  }
+
+  /** Part (or its validators) written by a download which didn't complete. */
+  public static boolean isPartFile(Path file) {
+    String name = file.getFileName().toString();
+    return name.endsWith(PART_SUFFIX) || name.endsWith(PART_VALIDATORS_SUFFIX);
+  }
+
+  private long retryDelay(int attempt) {
+    return Math.min(config.retryDelay << Math.min(attempt - 1, 20), MAX_RETRY_DELAY);
+  }
+
+  /** ETag and Last-Modified of a response, either may be null. */
+  public record Validators(String etag, String lastModified) {
+
+    /** Validator for an If-Range request (a strong ETag or Last-Modified), null if none. */
+    String ifRange() {
+      if (etag != null && !etag.startsWith("W/")) {
+        return etag;
+      }
+      return lastModified;
+    }
+
+    private String format() {
+      return Objects.toString(etag, "") + "\n" + Objects.toString(lastModified, "") + "\n";
+    }
+
+    private static Validators parse(String value) {
+      String[] lines = value.split("\n", -1);
+      return new Validators(
+          lines.length > 0 ? StringUtils.trimToNull(lines[0]) : null,
+          lines.length > 1 ? StringUtils.trimToNull(lines[1]) : null);
+    }
+  }
+
+  /** Body (resumed or reopened if the connection fails) and validators of a response. */
+  public record Response(InputStream body, Validators validators) {}
+
+  private class ResumableInputStream extends InputStream {
+
+    private final String url;
+    private final Validators conditional;
+    // validators of the part resumed, null to read from the start
+    private Validators resumed;
+    private Validators validators;
+    // position of the first byte of the body
+    private long start = 0;
+    private boolean notModified = false;
+    private final long started = System.currentTimeMillis();
+    private CountingInputStream transferred;
+    private long contentLength;
+    private InputStream in;
+    private long position = 0;
+    private long transferredTotal = 0;
+    private boolean rangesSupported = false;
+    // failed attempts since data was last received
+    private int attempt = 0;
+    private int retries = 0;
+    private boolean closed = false;
+
+    ResumableInputStream(String url) throws IOException {
+      this(url, null, 0, null);
+    }
+
+    /**
+     * @param start position to start reading from, only used with the validators of the resource
+     * @param resumed validators of the resource the data before start was read from
+     */
+    ResumableInputStream(String url, Validators conditional, long start, Validators resumed)
+        throws IOException {
+      this.url = url;
+      this.conditional = conditional;
+      if (start > 0 && resumed != null && resumed.ifRange() != null) {
+        this.start = start;
+        this.position = start;
+        this.resumed = resumed;
+      }
+      while (true) {
+        try {
+          connect();
+          return;
+        } catch (IOException e) {
+          retryOrThrow(e);
+        }
+      }
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      int n = read(b, 0, 1);
+      return n == -1 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      while (true) {
+        try {
+          int n = in.read(b, off, len);
+          if (n == -1 && contentLength >= 0 && transferred.getCount() < contentLength) {
+            // the connection may be closed early without an error
+            throw new IOException(
+                "Premature end of response, " + transferred.getCount() + " of " + contentLength);
+          }
+          if (n > 0) {
+            position += n;
+            // transient failures are counted again after progress
+            attempt = 0;
+          }
+          return n;
+        } catch (IOException e) {
+          LOG.warn("Download of {} failed at byte {}: {}", url, position, e.getMessage());
+          retryOrThrow(e);
+          reconnect();
+        }
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      countTransferred();
+      in.close();
+
+      long seconds = Math.max(System.currentTimeMillis() - started, 1) / 1000;
+      LOG.debug(
+          "Download of {} finished: {} bytes, {} transferred in {} s ({} KB/s), {} retries",
+          url,
+          position,
+          transferredTotal,
+          seconds,
+          transferredTotal / 1024 / Math.max(seconds, 1),
+          retries);
+    }
+
+    private void reconnect() throws IOException {
+      try {
+        in.close();
+      } catch (IOException e) {
+        // ignore, the connection is broken anyway
+      }
+      while (true) {
+        try {
+          connect();
+          return;
+        } catch (IOException e) {
+          retryOrThrow(e);
+        }
+      }
+    }
+
+    private void countTransferred() {
+      if (transferred != null) {
+        transferredTotal += transferred.getCount();
+        transferred = null;
+      }
+    }
+
+    private void connect() throws IOException {
+      countTransferred();
+      HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+      connection.setConnectTimeout(config.connectTimeout);
+      connection.setReadTimeout(config.readTimeout);
+
+      // a part read by a previous download (or a dropped connection) is resumed
+      boolean resumePart = resumed != null && position == start;
+      boolean resume = position > 0 && (rangesSupported || resumePart);
+      if (resume) {
+        // range of the uncompressed representation
+        connection.setRequestProperty("Accept-Encoding", "identity");
+        connection.setRequestProperty("Range", "bytes=" + position + "-");
+        if (resumePart) {
+          // the whole resource is sent if it changed
+          connection.setRequestProperty("If-Range", resumed.ifRange());
+        }
+        LOG.info("Resuming download of {} from byte {}", url, position);
+      } else if (config.gzip) {
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+      }
+      if (conditional != null && position == 0) {
+        if (conditional.etag() != null) {
+          connection.setRequestProperty("If-None-Match", conditional.etag());
+        }
+        if (conditional.lastModified() != null) {
+          connection.setRequestProperty("If-Modified-Since", conditional.lastModified());
+        }
+      }
+
+      int status = connection.getResponseCode();
+      if (resumePart
+          && (status == HttpURLConnection.HTTP_OK || status == HTTP_RANGE_NOT_SATISFIABLE)) {
+        // changed, or the range is not satisfiable (416): the part is read again from the start
+        LOG.info("Download of {} can't be resumed (HTTP status {}), restarting", url, status);
+        connection.disconnect();
+        resumed = null;
+        start = 0;
+        position = 0;
+        connect();
+        return;
+      }
+      if (status == HttpURLConnection.HTTP_NOT_MODIFIED && conditional != null) {
+        connection.disconnect();
+        notModified = true;
+        contentLength = 0;
+        transferred = new CountingInputStream(InputStream.nullInputStream());
+        in = transferred;
+        return;
+      }
+      if (status >= 400) {
+        connection.disconnect();
+        String message = "Request " + url + " failed with HTTP status " + status;
+        if (status >= 500 || status == 429) {
+          throw new IOException(message);
+        }
+        throw new NonRetryableException(message);
+      }
+
+      rangesSupported =
+          (resume && status == HttpURLConnection.HTTP_PARTIAL)
+              || Strings.CI.equals(connection.getHeaderField("Accept-Ranges"), "bytes");
+      contentLength = connection.getContentLengthLong();
+      if (validators == null) {
+        validators =
+            new Validators(
+                connection.getHeaderField("ETag"), connection.getHeaderField("Last-Modified"));
+      }
+      transferred = new CountingInputStream(connection.getInputStream());
+      in =
+          Strings.CI.equals(connection.getContentEncoding(), "gzip")
+              ? new GZIPInputStream(transferred, 1 << 16)
+              : transferred;
+
+      // server ignored the range, skip what was already read
+      if (position > 0 && status != HttpURLConnection.HTTP_PARTIAL) {
+        LOG.info("Restarting download of {}, skipping {} bytes", url, position);
+        in.skipNBytes(position);
+      }
+    }
+
+    private void retryOrThrow(IOException e) throws IOException {
+      if (e instanceof NonRetryableException || attempt >= config.maxRetries) {
+        throw e;
+      }
+      attempt++;
+      retries++;
+      long delay = retryDelay(attempt);
+      LOG.warn("Retrying download of {} in {} ms, attempt {}", url, delay, attempt);
+      try {
+        Thread.sleep(delay);
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Download interrupted", ie);
+      }
+    }
+  }
+
+  /** Failure which is not going to be fixed by retrying, e.g. HTTP 404. */
+  private static class NonRetryableException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    NonRetryableException(String message) {
+      super(message);
+    }
+  }
+}
@@ -0,0 +1,165 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.embl.cli;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Raw data file (a response saved by the DOWNLOAD_DATA step) read through memory mappings.
+ * <p>
+ * The header line is read once, the rest of the file is split into ranges aligned to line
+ * boundaries, which can be parsed in parallel.
+ */
+final class MappedRawDataFile implements Closeable {
+
+  // one mapping is limited to 2 GB
+  private static final long MAX_RANGE_SIZE = Integer.MAX_VALUE;
+  private static final int SCAN_BUFFER_SIZE = 1 << 16;
+
+  private final Path file;
+  private final FileChannel channel;
+  private final long size;
+  private final String header;
+  private final long dataStart;
+
+  MappedRawDataFile(Path file) throws IOException {
+    this.file = file;
+    this.channel = FileChannel.open(file, StandardOpenOption.READ);
+    this.size = channel.size();
+
+    long headerEnd = nextLineStart(0);
+    this.dataStart = headerEnd;
+    this.header = decode(channel.map(FileChannel.MapMode.READ_ONLY, 0, headerEnd), headerEnd);
+  }
+
+  /** The header line. */
+  String header() {
+    return header;
+  }
+
+  /**
+   * Splits the data lines into ranges of about the same size, fewer if the file is small and more
+   * if a range would be bigger than a mapping can be.
+   */
+  List<Range> split(int count) throws IOException {
+    long dataSize = size - dataStart;
+    int ranges = (int) Math.max(count, (dataSize + MAX_RANGE_SIZE - 1) / MAX_RANGE_SIZE);
+
+    List<Range> result = new ArrayList<>();
+    long start = dataStart;
+    for (int i = 1; i <= ranges && start < size; i++) {
+      long end = i == ranges ? size : nextLineStart(dataStart + dataSize * i / ranges);
+      if (end > start) {
+        result.add(new Range(start, end));
+        start = end;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Parses the lines of the range, their values are set to the writer.
+   *
+   * @param parser parser with the header already read
+   * @return number of records written
+   */
+  long parse(Range range, RawDataParser parser, RawDataWriter writer)
+      throws IOException, SQLException {
+    MappedByteBuffer buffer =
+        channel.map(FileChannel.MapMode.READ_ONLY, range.start(), range.end() - range.start());
+    byte[] line = new byte[1024];
+    long records = 0;
+    int lineStart = 0;
+    int limit = buffer.limit();
+    for (int i = 0; i <= limit; i++) {
+      if (i < limit && buffer.get(i) != '\n') {
+        continue;
+      }
+      int length = i - lineStart;
+      // the last line may have no line break, an empty one is not a line
+      if (i < limit || length > 0) {
+        if (length > line.length) {
+          line = Arrays.copyOf(line, Math.max(length, line.length * 2));
+        }
+        buffer.get(lineStart, line, 0, length);
+        if (parser.parse(decode(line, length), writer)) {
+          writer.addRecord();
+          records++;
+        }
+      }
+      lineStart = i + 1;
+    }
+    return records;
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  @Override
+  public String toString() {
+    return file.toString();
+  }
+
+  /** Position after the next line break at or after the position, or the end of the file. */
+  private long nextLineStart(long position) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+    while (position < size) {
+      buffer.clear();
+      int read = channel.read(buffer, position);
+      if (read <= 0) {
+        break;
+      }
+      for (int i = 0; i < read; i++) {
+        if (buffer.get(i) == '\n') {
+          return position + i + 1;
+        }
+      }
+      position += read;
+    }
+    return size;
+  }
+
+  private static String decode(MappedByteBuffer buffer, long length) {
+    byte[] bytes = new byte[(int) length];
+    buffer.get(0, bytes);
+    return decode(bytes, bytes.length);
+  }
+
+  /** Decodes a line, without the line break, like BufferedReader.readLine(). */
+  private static String decode(byte[] bytes, int length) {
+    if (length > 0 && bytes[length - 1] == '\n') {
+      length--;
+    }
+    if (length > 0 && bytes[length - 1] == '\r') {
+      length--;
+    }
+    return new String(bytes, 0, length, StandardCharsets.UTF_8);
+  }
+
+  /** Range of bytes, from start (inclusive) to end (exclusive). */
+  record Range(long start, long end) {}
+}
@@ -0,0 +1,108 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.embl.cli;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded queue of record batches between two stages of the processing pipeline.
+ * <p>
+ * Counts the records passing through for throughput statistics. Batches can be recycled by the
+ * consumer to save allocations. The producer ends the stream
+ * with {@link #end()}, a failing stage aborts the queue, so the stage on the other side does
+ * not wait forever.
+ */
+final class PipelineQueue<T> {
+
+  private static final long POLL_TIMEOUT_MS = 100;
+
+  private final List<T> endOfStream = List.of();
+  private final String name;
+  private final BlockingQueue<List<T>> queue;
+  private final AtomicLong records = new AtomicLong();
+  private final Queue<List<T>> recycled = new ConcurrentLinkedQueue<>();
+  private volatile boolean aborted = false;
+
+  PipelineQueue(String name, int capacity) {
+    this.name = name;
+    this.queue = new ArrayBlockingQueue<>(capacity);
+  }
+
+  /** Adds a batch, waits while the queue is full. */
+  void put(List<T> batch) throws InterruptedException {
+    while (!queue.offer(batch, POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+      checkAborted();
+    }
+    records.addAndGet(batch.size());
+  }
+
+  /** Takes the next batch, waits while the queue is empty. Returns null at the end. */
+  List<T> take() throws InterruptedException {
+    List<T> batch;
+    while ((batch = queue.poll(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS)) == null) {
+      checkAborted();
+    }
+    return batch == endOfStream ? null : batch;
+  }
+
+  /** Ends the stream, no more batches are put. */
+  void end() throws InterruptedException {
+    while (!queue.offer(endOfStream, POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+      checkAborted();
+    }
+  }
+
+  /** Hands a batch taken from the queue back to the producer, which may reuse it. */
+  void recycle(List<T> batch) {
+    recycled.offer(batch);
+  }
+
+  /** A batch recycled by the consumer, null if there is none. */
+  List<T> reuse() {
+    return recycled.poll();
+  }
+
+  /** Stops both sides of the queue after a failure. */
+  void abort() {
+    aborted = true;
+    queue.clear();
+  }
+
+  /** Number of batches waiting in the queue. */
+  int depth() {
+    return queue.size();
+  }
+
+  int capacity() {
+    return queue.size() + queue.remainingCapacity();
+  }
+
+  /** Number of records put into the queue. */
+  long records() {
+    return records.get();
+  }
+
+  private void checkAborted() {
+    if (aborted) {
+      throw new CancellationException("Pipeline queue " + name + " aborted");
+    }
+  }
+}
@@ -0,0 +1,35 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.embl.cli;
+
+/**
+ * Where {@link DataGeneratorTask} writes processed records.
+ */
+public enum ProcessedDataSink {
+
+  /**
+   * The processed data table ({@code <tableName>_processed}).
+   */
+  TABLE,
+
+  /**
+   * A Darwin Core Archive, the processed data table is not written.
+   */
+  ARCHIVE,
+
+  /**
+   * Both the processed data table and a Darwin Core Archive.
+   */
+  TABLE_AND_ARCHIVE
+}
@@ -0,0 +1,58 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.embl.cli;
+
+import java.io.IOException;
+import java.sql.SQLException;
+
+/**
+ * Writes processed records into a processed data table or an archive.
+ */
+interface ProcessedDataWriter extends AutoCloseable {
+
+  /** Adds the record, records are written in batches. */
+  void addRecord(ProcessedRecord record) throws SQLException, IOException;
+
+  /** Writes all pending records. */
+  void flush() throws SQLException, IOException;
+
+  @Override
+  void close() throws SQLException, IOException;
+
+  /** Writer writing the records with both writers. */
+  static ProcessedDataWriter both(ProcessedDataWriter first, ProcessedDataWriter second) {
+    return new ProcessedDataWriter() {
+      @Override
+      public void addRecord(ProcessedRecord record) throws SQLException, IOException {
+        first.addRecord(record);
+        second.addRecord(record);
+      }
+
+      @Override
+      public void flush() throws SQLException, IOException {
+        first.flush();
+        second.flush();
+      }
+
+      @Override
+      public void close() throws SQLException, IOException {
+        try {
+          first.close();
+        } finally {
+          second.close();
+        }
+      }
+    };
+  }
+}
@@ -0,0 +1,43 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.embl.cli;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import static org.gbif.embl.util.EmblAdapterConstants.PROCESSED_INDEX_GENUS;
+
+/**
+ * Values of a processed record, indexed like the parameters of the processed data insert.
+ */
+final class ProcessedRecord {
+
+  private final String[] values = new String[PROCESSED_INDEX_GENUS];
+
+  void set(int index, String value) {
+    values[index - 1] = value;
+  }
+
+  String get(int index) {
+    return values[index - 1];
+  }
+
+  /** Sets the values as parameters of the statement and adds it to the batch. */
+  void addBatch(PreparedStatement ps) throws SQLException {
+    for (int i = 0; i < values.length; i++) {
+      ps.setString(i + 1, values[i]);
+    }
+    ps.addBatch();
+  }
+}
@@ -0,0 +1,32 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.embl.cli;
+
+/**
+ * Where {@link DataGeneratorTask} converts raw data into processed data.
+ */
+public enum ProcessingMode {
+
+  /**
+   * Raw records are read, converted and deduplicated by the adapter and written back, see
+   * {@link RecordConverter}.
+   */
+  JVM,
+
+  /**
+   * One INSERT ... SELECT converts and deduplicates the records in the database, no record data
+   * is transferred, see {@link SqlRecordConverter}. Writes the processed data table only.
+   */
+  DATABASE
+}
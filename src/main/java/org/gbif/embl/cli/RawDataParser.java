@@ -0,0 +1,216 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.embl.cli;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.Marker;
+
+import static org.gbif.embl.util.EmblAdapterConstants.*;
+
+/**
+ * Parses the lines of an ENA search response (TSV with a header line) into raw data records.
+ * <p>
+ * Columns are mapped by the header line, their order may change between ENA releases. The
+ * positions of the raw data columns are resolved once from the header, data lines are only
+ * scanned for tab offsets and just the mapped values are materialized.
+ * <p>
+ * With a route, records of the response not matching it are skipped (see {@link
+ * RouteConfiguration}), by the environmental_sample and host columns.
+ */
+final class RawDataParser {
+
+  private static final Logger LOG = LoggerFactory.getLogger(RawDataParser.class);
+
+  private static final int MIN_COLUMNS = 14;
+  private static final char DELIMITER = DEFAULT_DELIMITER.charAt(0);
+
+  // raw data columns in the order of the RAW_INDEX_* parameters
+  private static final String[] RAW_COLUMNS = {
+    ACCESSION_COLUMN,
+    SAMPLE_ACCESSION_COLUMN,
+    LOCATION_COLUMN,
+    COUNTRY_COLUMN,
+    IDENTIFIED_BY_COLUMN,
+    COLLECTED_BY_COLUMN,
+    COLLECTION_DATE_COLUMN,
+    SPECIMEN_VOUCHER_COLUMN,
+    SEQUENCE_MD5_COLUMN,
+    SCIENTIFIC_NAME_COLUMN,
+    TAX_ID_COLUMN,
+    ALTITUDE_COLUMN,
+    SEX_COLUMN,
+    DESCRIPTION_COLUMN,
+    HOST_COLUMN
+  };
+
+  private final boolean skipSequenceMd5;
+  private final RouteConfiguration route;
+  private final Marker marker;
+
+  // position in the line of each raw data column, -1 if not read; null until the header is read
+  private int[] columns;
+  private int maxColumn;
+  // position of the environmental_sample column, -1 if not routed by it
+  private int environmentalSampleColumn = -1;
+  // start offsets of the fields of the current line, plus the end of the line + 1
+  private int[] fieldStarts = new int[32];
+
+  RawDataParser(boolean skipSequenceMd5, Marker marker) {
+    this(skipSequenceMd5, null, marker);
+  }
+
+  /**
+   * @param route records stored, null for all
+   */
+  RawDataParser(boolean skipSequenceMd5, RouteConfiguration route, Marker marker) {
+    this.skipSequenceMd5 = skipSequenceMd5;
+    this.route = route;
+    this.marker = marker;
+  }
+
+  /** Parser of another part of the same response, shares the header read by the other parser. */
+  RawDataParser(RawDataParser headerParser) {
+    if (headerParser.columns == null) {
+      throw new IllegalStateException("Header not read");
+    }
+    this.skipSequenceMd5 = headerParser.skipSequenceMd5;
+    this.route = headerParser.route;
+    this.marker = headerParser.marker;
+    this.columns = headerParser.columns;
+    this.maxColumn = headerParser.maxColumn;
+    this.environmentalSampleColumn = headerParser.environmentalSampleColumn;
+  }
+
+  /**
+   * Parses a line, the first one is the header.
+   *
+   * @return true if the values of a record were set to the writer, false for the header and
+   *     invalid or not routed records
+   */
+  boolean parse(String line, RawDataWriter writer) throws SQLException {
+    int fields = tokenize(line);
+    if (fields < MIN_COLUMNS) {
+      LOG.error(marker, "Must be at least 14 columns! Found {}", fields);
+      return false;
+    }
+
+    if (columns == null) {
+      // Determine the mapping from the header line. It may change!
+      resolveHeader(line, fields);
+      return false;
+    }
+
+    if (maxColumn >= fields) {
+      LOG.error(marker, "Expected {} columns, found {}", maxColumn + 1, fields);
+      return false;
+    }
+
+    if (route != null && !isRouted(line)) {
+      return false;
+    }
+
+    for (int i = 0; i < columns.length; i++) {
+      int column = columns[i];
+      writer.setString(
+          i + 1,
+          column < 0 ? "" : line.substring(fieldStarts[column], fieldStarts[column + 1] - 1));
+    }
+    return true;
+  }
+
+  private boolean isRouted(String line) {
+    if (route.environmentalSample != null
+        && route.environmentalSample
+            != Boolean.parseBoolean(field(line, environmentalSampleColumn).trim())) {
+      return false;
+    }
+    String host = field(line, columns[RAW_INDEX_HOST - 1]).trim();
+    if (route.host != null && route.host == host.isEmpty()) {
+      return false;
+    }
+    for (String excludedHost : route.excludedHosts) {
+      if (excludedHost.equalsIgnoreCase(host)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private String field(String line, int column) {
+    return line.substring(fieldStarts[column], fieldStarts[column + 1] - 1);
+  }
+
+  /** Finds the start of every field, returns the number of fields. */
+  private int tokenize(String line) {
+    int fields = 0;
+    int start = 0;
+    while (true) {
+      if (fields + 1 >= fieldStarts.length) {
+        fieldStarts = Arrays.copyOf(fieldStarts, fieldStarts.length * 2);
+      }
+      fieldStarts[fields++] = start;
+      int tab = line.indexOf(DELIMITER, start);
+      if (tab < 0) {
+        break;
+      }
+      start = tab + 1;
+    }
+    fieldStarts[fields] = line.length() + 1;
+    return fields;
+  }
+
+  private void resolveHeader(String line, int fields) {
+    int[] resolved = new int[RAW_COLUMNS.length];
+    Arrays.fill(resolved, -1);
+    int environmentalSample = -1;
+    for (int field = 0; field < fields; field++) {
+      String name = field(line, field);
+      if (ENVIRONMENTAL_SAMPLE_COLUMN.equals(name)) {
+        environmentalSample = field;
+      }
+      for (int i = 0; i < RAW_COLUMNS.length; i++) {
+        // a repeated name maps to its last column
+        if (RAW_COLUMNS[i].equals(name)) {
+          resolved[i] = field;
+        }
+      }
+    }
+
+    int max = -1;
+    for (int i = 0; i < RAW_COLUMNS.length; i++) {
+      if (skipSequenceMd5 && i == RAW_INDEX_SEQUENCE_MD5 - 1) {
+        resolved[i] = -1;
+      } else if (resolved[i] < 0) {
+        throw new IllegalStateException("Column " + RAW_COLUMNS[i] + " missing in the header");
+      }
+      max = Math.max(max, resolved[i]);
+    }
+    if (route != null && route.environmentalSample != null) {
+      if (environmentalSample < 0) {
+        throw new IllegalStateException(
+            "Column "
+                + ENVIRONMENTAL_SAMPLE_COLUMN
+                + " missing in the header, needed by the route");
+      }
+      environmentalSampleColumn = environmentalSample;
+      max = Math.max(max, environmentalSample);
+    }
+    columns = resolved;
+    maxColumn = max;
+  }
+}
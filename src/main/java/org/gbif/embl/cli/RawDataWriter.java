@@ -0,0 +1,35 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.embl.cli;
+
+import java.sql.SQLException;
+
+/**
+ * Writes raw data records into a raw data table.
+ * Values are set by the raw data column index (see {@code RAW_INDEX_*} constants).
+ */
+public interface RawDataWriter extends AutoCloseable {
+
+  /** Sets a value of the current record. */
+  void setString(int index, String value) throws SQLException;
+
+  /** Completes the current record, values of the next record can be set after this. */
+  void addRecord() throws SQLException;
+
+  /** Writes all pending records into the table. */
+  void flush() throws SQLException;
+
+  @Override
+  void close() throws SQLException;
+}
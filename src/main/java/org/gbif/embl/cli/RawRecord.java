@@ -0,0 +1,123 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.embl.cli;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import static org.gbif.embl.util.EmblAdapterConstants.*;
+
+/**
+ * Row of the raw data query (raw data joined with taxonomy), detached from the result set so it
+ * can be handed over to another thread. Instances are reused, a row is read into an existing
+ * record.
+ */
+final class RawRecord {
+
+  String accession;
+  String sampleAccession;
+  String location;
+  String country;
+  String identifiedBy;
+  String collectedBy;
+  String collectionDate;
+  String specimenVoucher;
+  String sequenceMd5;
+  String scientificName;
+  String taxId;
+  String altitude;
+  String sex;
+  String description;
+  String host;
+  String kingdom;
+  String phylum;
+  String clazz;
+  String order;
+  String family;
+  String genus;
+
+  /** Columns read, in the order of {@link #read(ResultSet, int[])}, the taxonomy ones last. */
+  private static final String[] COLUMNS = {
+    ACCESSION_COLUMN,
+    SAMPLE_ACCESSION_COLUMN,
+    LOCATION_COLUMN,
+    COUNTRY_COLUMN,
+    IDENTIFIED_BY_COLUMN,
+    COLLECTED_BY_COLUMN,
+    COLLECTION_DATE_COLUMN,
+    SPECIMEN_VOUCHER_COLUMN,
+    SEQUENCE_MD5_COLUMN,
+    SCIENTIFIC_NAME_COLUMN,
+    TAX_ID_COLUMN,
+    ALTITUDE_COLUMN,
+    SEX_COLUMN,
+    DESCRIPTION_COLUMN,
+    HOST_COLUMN,
+    KINGDOM_COLUMN,
+    PHYLUM_COLUMN,
+    CLASS_COLUMN,
+    ORDER_COLUMN,
+    FAMILY_COLUMN,
+    GENUS_COLUMN
+  };
+
+  private static final int TAXONOMY_COLUMNS = 6;
+
+  /**
+   * Resolves the indexes of the columns in the result set, once per query.
+   *
+   * @param taxonomy read the taxonomy columns (kingdom to genus), otherwise they are not read and
+   *     don't need to be in the result set
+   */
+  static int[] columnIndexes(ResultSet rs, boolean taxonomy) throws SQLException {
+    int[] indexes = new int[taxonomy ? COLUMNS.length : COLUMNS.length - TAXONOMY_COLUMNS];
+    for (int i = 0; i < indexes.length; i++) {
+      indexes[i] = rs.findColumn(COLUMNS[i]);
+    }
+    return indexes;
+  }
+
+  /**
+   * Reads the current row of the result set, each column once.
+   *
+   * @param columns column indexes resolved by {@link #columnIndexes(ResultSet, boolean)}
+   */
+  void read(ResultSet rs, int[] columns) throws SQLException {
+    accession = rs.getString(columns[0]);
+    sampleAccession = rs.getString(columns[1]);
+    location = rs.getString(columns[2]);
+    country = rs.getString(columns[3]);
+    identifiedBy = rs.getString(columns[4]);
+    collectedBy = rs.getString(columns[5]);
+    collectionDate = rs.getString(columns[6]);
+    specimenVoucher = rs.getString(columns[7]);
+    sequenceMd5 = rs.getString(columns[8]);
+    scientificName = rs.getString(columns[9]);
+    taxId = rs.getString(columns[10]);
+    altitude = rs.getString(columns[11]);
+    sex = rs.getString(columns[12]);
+    description = rs.getString(columns[13]);
+    host = rs.getString(columns[14]);
+    if (columns.length < COLUMNS.length) {
+      // ranks resolved by TaxonomyLookup
+      return;
+    }
+    kingdom = rs.getString(columns[15]);
+    phylum = rs.getString(columns[16]);
+    clazz = rs.getString(columns[17]);
+    order = rs.getString(columns[18]);
+    family = rs.getString(columns[19]);
+    genus = rs.getString(columns[20]);
+  }
+}
@@ -0,0 +1,385 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.embl.cli;
+
+import org.gbif.embl.util.LocationParser;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.Marker;
+
+import static org.apache.commons.lang3.StringUtils.trimToEmpty;
+import static org.gbif.embl.util.EmblAdapterConstants.*;
+
+/**
+ * Converts raw records into processed records, see DATAMAPPING.md.
+ * <p>
+ * Not thread safe, every processing thread uses its own converter.
+ */
+final class RecordConverter {
+
+  private static final Logger LOG = LoggerFactory.getLogger(RecordConverter.class);
+
+  private final Marker marker;
+  private final TaxonomyLookup taxonomy;
+  private final LocationParser locationParser = new LocationParser();
+
+  RecordConverter(Marker marker) {
+    this(marker, null);
+  }
+
+  /**
+   * @param taxonomy resolves the ranks of the records by tax id, if null they are read from the
+   *     query
+   */
+  RecordConverter(Marker marker, TaxonomyLookup taxonomy) {
+    this.marker = marker;
+    this.taxonomy = taxonomy;
+  }
+
+  /** Converts the raw record into the processed record. */
+  void convert(RawRecord raw, ProcessedRecord processed) {
+    if (taxonomy != null) {
+      taxonomy.resolve(raw);
+    }
+    String accession = getAccession(raw);
+    String specimenVoucher = getSpecimenVoucher(raw);
+    String altitude = trimToEmpty(getAltitude(raw));
+
+    // occurrenceID term
+    setOccurrenceId(processed, trimToEmpty(accession));
+    // associatedSequences term
+    setAssociatedSequences(processed, toAssociatedSequences(accession));
+    // references term
+    setReferences(processed, toReferences(accession));
+    // decimalLatitude and decimalLongitude terms
+    setCoordinates(processed, getLocation(raw));
+    // country and locality terms
+    setCountryAndLocality(processed, getCountry(raw));
+    // identifiedBy term
+    setIdentifiedBy(processed, trimToEmpty(getIdentifiedBy(raw)));
+    // recordedBy term
+    setRecordedBy(processed, trimToEmpty(getCollectedBy(raw)));
+    // eventDate term
+    setEventDate(processed, trimToEmpty(getCollectionDate(raw)));
+    // catalogNumber term
+    setCatalogNumber(processed, trimToEmpty(specimenVoucher));
+    // basisOfRecord term
+    setBasisOfRecord(processed, toBasisOfRecord(specimenVoucher));
+    // taxonID term
+    setTaxonId(processed, toTaxonId(getSequenceMd5(raw)));
+    // scientificName term
+    setScientificName(processed, trimToEmpty(getScientificName(raw)));
+    // taxonConceptID term
+    setTaxonConceptId(processed, toTaxonConceptId(getTaxId(raw)));
+    // minimumElevationInMeters term
+    setMinimumElevation(processed, altitude);
+    // maximumElevationInMeters term
+    setMaximumElevation(processed, altitude);
+    // sex term
+    setSex(processed, trimToEmpty(getSex(raw)));
+    // occurrenceRemarks term
+    setOccurrenceRemarks(processed, trimToEmpty(getDescription(raw)));
+    // associatedTaxa term
+    setAssociatedTaxa(processed, trimToEmpty(getHost(raw)));
+    // kingdom term
+    setKingdom(processed, trimToEmpty(getKingdom(raw)));
+    // phylum term
+    setPhylum(processed, trimToEmpty(getPhylum(raw)));
+    // class term
+    setClass(processed, trimToEmpty(getClass(raw)));
+    // order term
+    setOrder(processed, trimToEmpty(getOrder(raw)));
+    // family term
+    setFamily(processed, trimToEmpty(getFamily(raw)));
+    // genus term
+    setGenus(processed, trimToEmpty(getGenus(raw)));
+  }
+
+  private String toTaxonConceptId(String data) {
+    return StringUtils.isNotBlank(data) ? TAXON_CONCEPT_ID_URL + data : StringUtils.EMPTY;
+  }
+
+  private String toReferences(String data) {
+    return StringUtils.isNotBlank(data) ? REFERENCES_URL + data : StringUtils.EMPTY;
+  }
+
+  private String toAssociatedSequences(String data) {
+    return StringUtils.isNotBlank(data) ? ASSOCIATED_SEQUENCES_URL + data : StringUtils.EMPTY;
+  }
+
+  private String toTaxonId(String data) {
+    return StringUtils.isNotBlank(data) ? TAXON_ID_PREFIX + data : StringUtils.EMPTY;
+  }
+
+  private String toBasisOfRecord(String data) {
+    return StringUtils.isNotBlank(data) ? PRESERVED_SPECIMEN : MATERIAL_SAMPLE;
+  }
+
+  /** Sets country (before the first delimiter) and locality (after it) from one split. */
+  void setCountryAndLocality(ProcessedRecord processed, String country) {
+    if (StringUtils.isBlank(country)) {
+      setCountry(processed, StringUtils.EMPTY);
+      setLocality(processed, StringUtils.EMPTY);
+      return;
+    }
+
+    int delimiter = country.indexOf(COUNTRY_DELIMITER);
+    if (delimiter < 0) {
+      setCountry(processed, country);
+      setLocality(processed, StringUtils.EMPTY);
+      return;
+    }
+
+    // locality ends at the next delimiter, if any
+    int localityStart = delimiter + COUNTRY_DELIMITER.length();
+    int localityEnd = country.indexOf(COUNTRY_DELIMITER, localityStart);
+    setCountry(processed, country.substring(0, delimiter));
+    setLocality(
+        processed,
+        country.substring(localityStart, localityEnd < 0 ? country.length() : localityEnd).trim());
+  }
+
+  /** Sets decimal latitude and longitude from one scan of the location. */
+  void setCoordinates(ProcessedRecord processed, String location) {
+    String latitude = StringUtils.EMPTY;
+    String longitude = StringUtils.EMPTY;
+
+    if (StringUtils.isNotBlank(location)) {
+      if (locationParser.find(location)) {
+        latitude =
+            toCoordinate(
+                locationParser.latitude(),
+                locationParser.latitudeValue(),
+                locationParser.latitudeLetter(),
+                NORTH,
+                SOUTH,
+                MAX_LATITUDE);
+        longitude =
+            toCoordinate(
+                locationParser.longitude(),
+                locationParser.longitudeValue(),
+                locationParser.longitudeLetter(),
+                EAST,
+                WEST,
+                MAX_LONGITUDE);
+      } else {
+        LOG.error(marker, "Coordinates {} do not match pattern", location);
+      }
+    }
+
+    setDecimalLatitude(processed, latitude);
+    setDecimalLongitude(processed, longitude);
+  }
+
+  /** Signed coordinate, negative for south/west, empty if not valid. */
+  private String toCoordinate(
+      String value, double number, char letter, String positive, String negative, double max) {
+    if (letter != positive.charAt(0) && letter != negative.charAt(0)) {
+      // wrong letter - log error, return empty value
+      LOG.error(marker, "Wrong coordinate letter: {}", letter);
+      return StringUtils.EMPTY;
+    }
+    if (!(number <= max)) {
+      LOG.error(marker, "Coordinate {} {} out of range", value, letter);
+      return StringUtils.EMPTY;
+    }
+    return letter == negative.charAt(0) ? "-" + value : value;
+  }
+
+  private String getAccession(RawRecord record) {
+    return record.accession;
+  }
+
+  private String getLocation(RawRecord record) {
+    return record.location;
+  }
+
+  private String getCountry(RawRecord record) {
+    return record.country;
+  }
+
+  private String getIdentifiedBy(RawRecord record) {
+    return record.identifiedBy;
+  }
+
+  private String getCollectedBy(RawRecord record) {
+    return record.collectedBy;
+  }
+
+  private String getCollectionDate(RawRecord record) {
+    return record.collectionDate;
+  }
+
+  private String getSpecimenVoucher(RawRecord record) {
+    return record.specimenVoucher;
+  }
+
+  private String getSequenceMd5(RawRecord record) {
+    return record.sequenceMd5;
+  }
+
+  private String getScientificName(RawRecord record) {
+    return record.scientificName;
+  }
+
+  private String getTaxId(RawRecord record) {
+    return record.taxId;
+  }
+
+  private String getAltitude(RawRecord record) {
+    return record.altitude;
+  }
+
+  private String getSex(RawRecord record) {
+    return record.sex;
+  }
+
+  private String getDescription(RawRecord record) {
+    return record.description;
+  }
+
+  private String getHost(RawRecord record) {
+    return record.host;
+  }
+
+  private String getKingdom(RawRecord record) {
+    return record.kingdom;
+  }
+
+  private String getPhylum(RawRecord record) {
+    return record.phylum;
+  }
+
+  private String getClass(RawRecord record) {
+    return record.clazz;
+  }
+
+  private String getOrder(RawRecord record) {
+    return record.order;
+  }
+
+  private String getFamily(RawRecord record) {
+    return record.family;
+  }
+
+  private String getGenus(RawRecord record) {
+    return record.genus;
+  }
+
+  private void setOccurrenceId(ProcessedRecord record, String data) {
+    record.set(PROCESSED_INDEX_OCCURRENCE_ID, data);
+  }
+
+  private void setAssociatedSequences(ProcessedRecord record, String data) {
+    record.set(PROCESSED_INDEX_ASSOCIATED_SEQUENCES, data);
+  }
+
+  private void setReferences(ProcessedRecord record, String data) {
+    record.set(PROCESSED_INDEX_REFERENCES, data);
+  }
+
+  private void setDecimalLatitude(ProcessedRecord record, String data) {
+    record.set(PROCESSED_INDEX_DECIMAL_LATITUDE, data);
+  }
+
+  private void setDecimalLongitude(ProcessedRecord record, String data) {
+    record.set(PROCESSED_INDEX_DECIMAL_LONGITUDE, data);
+  }
+
+  private void setCountry(ProcessedRecord record, String data) {
+    record.set(PROCESSED_INDEX_COUNTRY, data);
+  }
+
+  private void setLocality(ProcessedRecord record, String data) {
+    record.set(PROCESSED_INDEX_LOCALITY, data);
+  }
+
+  private void setIdentifiedBy(ProcessedRecord record, String data) {
+    record.set(PROCESSED_INDEX_IDENTIFIED_BY, data);
+  }
+
+  private void setRecordedBy(ProcessedRecord record, String data) {
+    record.set(PROCESSED_INDEX_RECORDED_BY, data);
+  }
+
+  private void setEventDate(ProcessedRecord record, String data) {
+    record.set(PROCESSED_INDEX_EVENT_DATE, data);
+  }
+
+  private void setCatalogNumber(ProcessedRecord record, String data) {
+    record.set(PROCESSED_INDEX_CATALOG_NUMBER, data);
+  }
+
+  private void setBasisOfRecord(ProcessedRecord record, String data) {
+    record.set(PROCESSED_INDEX_BASIS_OF_RECORD, data);
+  }
+
+  private void setTaxonId(ProcessedRecord record, String data) {
+    record.set(PROCESSED_INDEX_TAXON_ID, data);
+  }
+
+  private void setScientificName(ProcessedRecord record, String data) {
+    record.set(PROCESSED_INDEX_SCIENTIFIC_NAME, data);
+  }
+
+  private void setTaxonConceptId(ProcessedRecord record, String data) {
+    record.set(PROCESSED_INDEX_TAXON_CONCEPT_ID, data);
+  }
+
+  private void setMinimumElevation(ProcessedRecord record, String data) {
+    record.set(PROCESSED_INDEX_MINIMUM_ELEVATION_IN_METERS, data);
+  }
+
+  private void setMaximumElevation(ProcessedRecord record, String data) {
+    record.set(PROCESSED_INDEX_MAXIMUM_ELEVATION_IN_METERS, data);
+  }
+
+  private void setSex(ProcessedRecord record, String data) {
+    record.set(PROCESSED_INDEX_SEX, data);
+  }
+
+  private void setOccurrenceRemarks(ProcessedRecord record, String data) {
+    record.set(PROCESSED_INDEX_OCCURRENCE_REMARK, data);
+  }
+
+  private void setAssociatedTaxa(ProcessedRecord record, String data) {
+    record.set(PROCESSED_INDEX_ASSOCIATED_TAXA, data);
+  }
+
+  private void setKingdom(ProcessedRecord record, String data) {
+    record.set(PROCESSED_INDEX_KINGDOM, data);
+  }
+
+  private void setPhylum(ProcessedRecord record, String data) {
+    record.set(PROCESSED_INDEX_PHYLUM, data);
+  }
+
+  private void setClass(ProcessedRecord record, String data) {
+    record.set(PROCESSED_INDEX_CLASS, data);
+  }
+
+  private void setOrder(ProcessedRecord record, String data) {
+    record.set(PROCESSED_INDEX_ORDER, data);
+  }
+
+  private void setFamily(ProcessedRecord record, String data) {
+    record.set(PROCESSED_INDEX_FAMILY, data);
+  }
+
+  private void setGenus(ProcessedRecord record, String data) {
+    record.set(PROCESSED_INDEX_GENUS, data);
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.embl.cli;
+
+import org.gbif.embl.util.FingerprintSet;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.primitives.Longs;
+
+/**
+ * Remembers processed records by sample_accession + scientific_name to skip duplicates.
+ */
+public abstract class RecordDeduplicator implements Closeable {
+
+  /**
+   * Returns true if a record with the same sample_accession + scientific_name was seen before,
+   * otherwise remembers it.
+   */
+  public abstract boolean isDuplicate(String sampleAccession, String scientificName);
+
+  /** Number of distinct records seen. */
+  public abstract long size();
+
+  @Override
+  public void close() throws IOException {}
+
+  public static RecordDeduplicator create(DedupConfiguration config) {
+    if (config.mode == DedupMode.EXACT) {
+      return new Exact();
+    }
+
+    Path spillDirectory =
+        Paths.get(
+            config.spillDirectory != null
+                ? config.spillDirectory
+                : System.getProperty("java.io.tmpdir"));
+    return new Fingerprint(
+        new FingerprintSet(
+            config.fingerprint == DedupFingerprint.BITS_128,
+            config.offHeap,
+            config.maxEntriesInMemory,
+            spillDirectory));
+  }
+
+  /** Keeps the keys as strings. */
+  private static class Exact extends RecordDeduplicator {
+    private final Set<String> recordsSeenBefore = new HashSet<>();
+
+    @Override
+    public boolean isDuplicate(String sampleAccession, String scientificName) {
+      return !recordsSeenBefore.add(sampleAccession + scientificName);
+    }
+
+    @Override
+    public long size() {
+      return recordsSeenBefore.size();
+    }
+  }
+
+  /** Keeps 128 bit murmur3 hashes of the keys (or the first 64 bits of them). */
+  private static class Fingerprint extends RecordDeduplicator {
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    private final FingerprintSet fingerprints;
+
+    Fingerprint(FingerprintSet fingerprints) {
+      this.fingerprints = fingerprints;
+    }
+
+    @Override
+    public boolean isDuplicate(String sampleAccession, String scientificName) {
+      // same as hashing the concatenation, like the exact mode does
+      HashCode hash =
+          HASH_FUNCTION
+              .newHasher()
+              .putUnencodedChars(sampleAccession)
+              .putUnencodedChars(scientificName)
+              .hash();
+      byte[] bytes = hash.asBytes();
+      long h1 =
+          Longs.fromBytes(
+              bytes[7], bytes[6], bytes[5], bytes[4], bytes[3], bytes[2], bytes[1], bytes[0]);
+      long h2 =
+          Longs.fromBytes(
+              bytes[15], bytes[14], bytes[13], bytes[12], bytes[11], bytes[10], bytes[9], bytes[8]);
+      return !fingerprints.add(h1, h2);
+    }
+
+    @Override
+    public long size() {
+      return fingerprints.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+      fingerprints.close();
+    }
+  }
+}
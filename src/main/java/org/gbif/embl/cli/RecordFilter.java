@@ -0,0 +1,75 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.embl.cli;
+
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Skips records with missing specimen_voucher and collection_date, duplicates and, for an
+ * incremental harvest, records which were not updated. Counts processed and skipped records.
+ */
+final class RecordFilter {
+  private final RecordDeduplicator recordsSeenBefore;
+  private final Set<String> deltaNotWritten;
+  private int processed = 0;
+  private int skipped = 0;
+
+  /**
+   * @param recordsSeenBefore deduplicator remembering the records already accepted
+   * @param deltaNotWritten accessions of the updated records not written yet, null for a full
+   *     harvest
+   */
+  RecordFilter(RecordDeduplicator recordsSeenBefore, Set<String> deltaNotWritten) {
+    this.recordsSeenBefore = recordsSeenBefore;
+    this.deltaNotWritten = deltaNotWritten;
+  }
+
+  boolean accept(RawRecord raw) {
+    // skip records with missing specimen_voucher and collection_date
+    if (StringUtils.isEmpty(raw.specimenVoucher) && StringUtils.isEmpty(raw.collectionDate)) {
+      skipped++;
+      return false;
+    }
+
+    // check if the record was seen before
+    if (StringUtils.isNotEmpty(raw.sampleAccession) && StringUtils.isNotEmpty(raw.scientificName)) {
+      // skip duplicate records (seen before) based on sample_accession and scientific_name
+      // otherwise remember and write it
+      if (recordsSeenBefore.isDuplicate(raw.sampleAccession, raw.scientificName)) {
+        skipped++;
+        return false;
+      }
+    }
+
+    // incremental harvest writes only updated records
+    if (deltaNotWritten != null && !deltaNotWritten.remove(raw.accession)) {
+      return false;
+    }
+
+    processed++;
+    return true;
+  }
+
+  /** Number of records accepted. */
+  int processed() {
+    return processed;
+  }
+
+  /** Number of records skipped as incomplete or duplicate. */
+  int skipped() {
+    return skipped;
+  }
+}
@@ -34,6 +34,18 @@ public class RequestConfiguration {
 
   @NotNull public String query;
 
+  /** Number of page ranges the request is split into, pages are fetched concurrently. */
+  @NotNull public Integer pages = 1;
+
+  /** Count endpoint, used to split the request into pages. */
+  @NotNull public String countUrl = "https://www.ebi.ac.uk/ena/portal/api/count";
+
+  /**
+   * Field the pages of a paginated request are sorted by, the order of the results is not stable
+   * otherwise and pages could overlap or miss records. Must be unique, e.g. accession.
+   */
+  @NotNull public String sortField = "accession";
+
   @Override
   public String toString() {
     return new StringJoiner(", ", RequestConfiguration.class.getSimpleName() + "[", "]")
@@ -44,6 +56,9 @@ public class RequestConfiguration {
         .add("limit=" + limit)
         .add("result='" + result + "'")
         .add("query='" + query + "'")
+        .add("pages=" + pages)
+        .add("countUrl='" + countUrl + "'")
+        .add("sortField='" + sortField + "'")
         .toString();
   }
 }
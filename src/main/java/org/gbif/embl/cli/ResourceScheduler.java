@@ -0,0 +1,114 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.embl.cli;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.concurrent.Semaphore;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.Marker;
+
+/**
+ * Runs the steps of the dataset tasks by their resource profile: downloads (network bound) take a
+ * download slot, store and process steps (DB bound) take a budget of DB connections. Tasks started
+ * at the same time therefore overlap the download of a task with the DB work of another one,
+ * instead of all of them waiting for connections of the pool.
+ * <p>
+ * A step gets its download slot and all its connections before it starts and releases them when
+ * it ends. Resources are granted in order of request and always taken in the same order (download
+ * slot, then connections), so steps can't deadlock.
+ */
+class ResourceScheduler {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ResourceScheduler.class);
+
+  private final Semaphore downloads;
+  private final Semaphore connections;
+  private final int maxConnections;
+
+  /**
+   * @param maxDownloads number of download steps running at the same time
+   * @param maxConnections DB connections shared by the steps, the size of the pool
+   */
+  ResourceScheduler(int maxDownloads, int maxConnections) {
+    this.downloads = new Semaphore(Math.max(maxDownloads, 1), true);
+    this.maxConnections = Math.max(maxConnections, 1);
+    this.connections = new Semaphore(this.maxConnections, true);
+  }
+
+  /** DB connections shared by the steps. */
+  int maxConnections() {
+    return maxConnections;
+  }
+
+  /** Connections granted to a step requesting them, at most all of them. */
+  int connections(int requested) {
+    return Math.min(Math.max(requested, 0), maxConnections);
+  }
+
+  /**
+   * Runs the step once its resources are available.
+   *
+   * @param download the step downloads, it needs a download slot
+   * @param connections DB connections the step uses at the same time
+   */
+  void run(Marker marker, String name, boolean download, int connections, Step step)
+      throws IOException, SQLException {
+    int permits = connections(connections);
+    long started = System.currentTimeMillis();
+    acquire(name, download, permits);
+    LOG.info(
+        marker,
+        "Step {} started after waiting {} ms for {}{} DB connections",
+        name,
+        System.currentTimeMillis() - started,
+        download ? "a download slot and " : "",
+        permits);
+    try {
+      step.run();
+    } finally {
+      this.connections.release(permits);
+      if (download) {
+        downloads.release();
+      }
+    }
+  }
+
+  private void acquire(String name, boolean download, int permits) throws IOException {
+    try {
+      if (download) {
+        downloads.acquire();
+      }
+      try {
+        connections.acquire(permits);
+      } catch (InterruptedException e) {
+        if (download) {
+          downloads.release();
+        }
+        throw e;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for the resources of step " + name, e);
+    }
+  }
+
+  /** Step of a task. */
+  @FunctionalInterface
+  interface Step {
+    void run() throws IOException, SQLException;
+  }
+}
@@ -0,0 +1,46 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.embl.cli;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringJoiner;
+
+import jakarta.validation.constraints.NotNull;
+
+/**
+ * Records of the shared harvest stored by a task, see {@link SharedHarvestConfiguration}. Unset
+ * predicates match all records.
+ */
+@SuppressWarnings("PublicField")
+public class RouteConfiguration {
+
+  /** Records with this environmental_sample value. */
+  public Boolean environmentalSample;
+
+  /** Records with a host (true) or without a host (false). */
+  public Boolean host;
+
+  /** Records with one of these hosts (case-insensitive) are excluded. */
+  @NotNull public List<String> excludedHosts = new ArrayList<>();
+
+  @Override
+  public String toString() {
+    return new StringJoiner(", ", RouteConfiguration.class.getSimpleName() + "[", "]")
+        .add("environmentalSample=" + environmentalSample)
+        .add("host=" + host)
+        .add("excludedHosts=" + excludedHosts)
+        .toString();
+  }
+}
@@ -0,0 +1,259 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.embl.cli;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.Marker;
+
+import static org.gbif.embl.util.EmblAdapterConstants.SQL_ADD_SHADOW_LOAD_ORDER;
+import static org.gbif.embl.util.EmblAdapterConstants.SQL_CREATE_SHADOW_TABLE;
+import static org.gbif.embl.util.EmblAdapterConstants.SQL_DROP_SHADOW_LOAD_ORDER;
+import static org.gbif.embl.util.EmblAdapterConstants.SQL_DROP_SHADOW_TABLE;
+import static org.gbif.embl.util.EmblAdapterConstants.SQL_SET_SHADOW_LOAD_RANGE;
+import static org.gbif.embl.util.EmblAdapterConstants.SQL_SELECT_GRANTS;
+import static org.gbif.embl.util.EmblAdapterConstants.SQL_SELECT_PERSISTENCE;
+
+/**
+ * Unlogged copy of a table which is loaded instead of the table and swapped in when complete, so
+ * readers of the table see the old data until the new data is ready.
+ * <p>
+ * The shadow table has the columns of the table. Unique indexes and constraints are created
+ * before loading (inserts rely on them to skip duplicates) unless deferred, the other indexes
+ * after, see {@link TableIndexes}. A shadow table loaded by several transactions at the same time
+ * keeps their load order, see {@link #keepLoadOrder()}. The shadow table is made logged if the table is, gets the same
+ * grants and replaces the table in one transaction. A shadow table can also be merged into the
+ * table by the caller instead, after {@link #createIndexes()}. A shadow table which is not swapped
+ * in is dropped when closed.
+ */
+class ShadowTable implements AutoCloseable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ShadowTable.class);
+
+  private static final String SHADOW_SUFFIX = "_shadow";
+
+  private final DataSource dataSource;
+  private final String tableName;
+  private final String shadowName;
+  private final Marker marker;
+  private final TableIndexes indexes;
+  private final boolean deferUniqueIndexes;
+  private boolean loadOrder = false;
+  private boolean indexesCreated = false;
+  private boolean swapped = false;
+  private boolean merged = false;
+
+  private ShadowTable(
+      DataSource dataSource,
+      String tableName,
+      TableIndexes indexes,
+      boolean deferUniqueIndexes,
+      Marker marker) {
+    this.dataSource = dataSource;
+    this.tableName = tableName;
+    this.shadowName = tableName + SHADOW_SUFFIX;
+    this.indexes = indexes;
+    this.deferUniqueIndexes = deferUniqueIndexes;
+    this.marker = marker;
+  }
+
+  /**
+   * Creates an empty shadow table of the table, with its unique indexes.
+   *
+   * @param deferUniqueIndexes create the unique indexes after loading too, duplicates are removed
+   * @param parallelism maximum number of indexes created at the same time
+   */
+  static ShadowTable create(
+      DataSource dataSource,
+      String tableName,
+      boolean deferUniqueIndexes,
+      int parallelism,
+      Marker marker)
+      throws SQLException {
+    TableIndexes indexes = TableIndexes.read(dataSource, tableName, parallelism, marker);
+    ShadowTable shadow =
+        new ShadowTable(dataSource, tableName, indexes, deferUniqueIndexes, marker);
+    try (Connection connection = dataSource.getConnection();
+        Statement st = connection.createStatement()) {
+      // left over from a failed run
+      st.executeUpdate(SQL_DROP_SHADOW_TABLE.replace("embl_data", tableName));
+      st.executeUpdate(SQL_CREATE_SHADOW_TABLE.replace("embl_data", tableName));
+    }
+    if (!deferUniqueIndexes) {
+      indexes.create(shadow.shadowName, SHADOW_SUFFIX, TableIndexes.Index::unique);
+    }
+    LOG.debug(marker, "Shadow table {} created", shadow.shadowName);
+    return shadow;
+  }
+
+  /**
+   * Name of the shadow table, load into it.
+   */
+  String name() {
+    return shadowName;
+  }
+
+  /**
+   * Records the load order of the rows, so the first loaded row of a duplicate key is kept when the
+   * deferred unique indexes are created, whatever the order the loading transactions ran in. Every
+   * loading transaction sets its place in the order with {@link #setLoadRange(Connection, int)},
+   * the rows of a transaction keep their insert order.
+   */
+  void keepLoadOrder() throws SQLException {
+    if (!deferUniqueIndexes) {
+      throw new IllegalStateException(
+          "Load order of " + shadowName + " needs deferred unique indexes");
+    }
+    try (Connection connection = dataSource.getConnection();
+        Statement st = connection.createStatement()) {
+      st.executeUpdate(SQL_ADD_SHADOW_LOAD_ORDER.replace("embl_data", tableName));
+    }
+    indexes.keepFirstBy("load_range, load_row");
+    loadOrder = true;
+  }
+
+  /**
+   * Sets the place of the current transaction in the load order, rows of lower ranges are loaded
+   * first.
+   */
+  static void setLoadRange(Connection connection, int range) throws SQLException {
+    try (PreparedStatement ps = connection.prepareStatement(SQL_SET_SHADOW_LOAD_RANGE)) {
+      ps.setString(1, Integer.toString(range));
+      ps.execute();
+    }
+  }
+
+  /**
+   * Creates the indexes of the loaded shadow table, duplicates are removed from deferred unique
+   * ones. The load order is dropped afterwards.
+   */
+  void createIndexes() throws SQLException {
+    if (indexesCreated) {
+      return;
+    }
+    indexes.create(shadowName, SHADOW_SUFFIX, index -> deferUniqueIndexes || !index.unique());
+    if (loadOrder) {
+      try (Connection connection = dataSource.getConnection();
+          Statement st = connection.createStatement()) {
+        st.executeUpdate(SQL_DROP_SHADOW_LOAD_ORDER.replace("embl_data", tableName));
+      }
+    }
+    indexesCreated = true;
+    LOG.debug(marker, "Indexes of shadow table {} created", shadowName);
+  }
+
+  /**
+   * Marks the shadow table as merged into the table by the caller, it is dropped when closed.
+   */
+  void merged() {
+    merged = true;
+  }
+
+  /**
+   * Completes the shadow table and replaces the table with it.
+   */
+  void swap() throws SQLException {
+    createIndexes();
+
+    try (Connection connection = dataSource.getConnection();
+        Statement st = connection.createStatement()) {
+      st.executeUpdate("ANALYZE " + shadowName);
+      if (isLogged(connection)) {
+        st.executeUpdate("ALTER TABLE " + shadowName + " SET LOGGED");
+      }
+      for (String grant : readGrants(connection)) {
+        st.executeUpdate(grant);
+      }
+
+      connection.setAutoCommit(false);
+      st.executeUpdate("DROP TABLE " + tableName);
+      st.executeUpdate("ALTER TABLE " + shadowName + " RENAME TO " + tableName);
+      for (TableIndexes.Index index : indexes.indexes()) {
+        if (index.constraint()) {
+          st.executeUpdate(
+              "ALTER TABLE "
+                  + tableName
+                  + " RENAME CONSTRAINT "
+                  + TableIndexes.quote(index.name() + SHADOW_SUFFIX)
+                  + " TO "
+                  + TableIndexes.quote(index.name()));
+        } else {
+          st.executeUpdate(
+              "ALTER INDEX "
+                  + TableIndexes.quote(index.name() + SHADOW_SUFFIX)
+                  + " RENAME TO "
+                  + TableIndexes.quote(index.name()));
+        }
+      }
+      connection.commit();
+      swapped = true;
+    }
+    LOG.info(marker, "Table {} replaced by shadow table {}", tableName, shadowName);
+  }
+
+  @Override
+  public void close() throws SQLException {
+    if (swapped) {
+      return;
+    }
+    try (Connection connection = dataSource.getConnection();
+        Statement st = connection.createStatement()) {
+      st.executeUpdate(SQL_DROP_SHADOW_TABLE.replace("embl_data", tableName));
+    }
+    if (merged) {
+      LOG.debug(marker, "Shadow table {} merged into table {} and dropped", shadowName, tableName);
+      return;
+    }
+    LOG.warn(marker, "Shadow table {} dropped, table {} not replaced", shadowName, tableName);
+  }
+
+  private boolean isLogged(Connection connection) throws SQLException {
+    try (PreparedStatement ps = connection.prepareStatement(SQL_SELECT_PERSISTENCE)) {
+      ps.setString(1, tableName);
+      try (ResultSet rs = ps.executeQuery()) {
+        return rs.next() && "p".equals(rs.getString(1));
+      }
+    }
+  }
+
+  private List<String> readGrants(Connection connection) throws SQLException {
+    List<String> grants = new ArrayList<>();
+    try (PreparedStatement ps = connection.prepareStatement(SQL_SELECT_GRANTS)) {
+      ps.setString(1, tableName);
+      try (ResultSet rs = ps.executeQuery()) {
+        while (rs.next()) {
+          String grantee = rs.getString(1);
+          grants.add(
+              "GRANT "
+                  + rs.getString(2)
+                  + " ON "
+                  + shadowName
+                  + " TO "
+                  + ("PUBLIC".equals(grantee) ? grantee : TableIndexes.quote(grantee)));
+        }
+      }
+    }
+    return grants;
+  }
+}
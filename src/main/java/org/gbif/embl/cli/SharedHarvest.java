@@ -0,0 +1,115 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.embl.cli;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.Marker;
+import org.slf4j.MarkerFactory;
+
+/**
+ * Downloads the requests of the {@link SharedHarvestConfiguration} once per run, the tasks with a
+ * route store their records from these files.
+ */
+public class SharedHarvest {
+
+  private static final Logger LOG = LoggerFactory.getLogger(SharedHarvest.class);
+
+  static final String DOWNLOAD_STEP = "shared/download";
+  static final String COMPLETE_STEP = "shared/complete";
+
+  private final SharedHarvestConfiguration config;
+  private final ResourceScheduler scheduler;
+  private final Marker marker = MarkerFactory.getMarker("shared");
+  private final EnaRequestDownloader downloader;
+
+  public SharedHarvest(
+      SharedHarvestConfiguration config,
+      DownloadConfiguration downloadConfiguration,
+      ResourceScheduler scheduler) {
+    this.config = config;
+    this.scheduler = scheduler;
+    this.downloader = new EnaRequestDownloader(new HttpDownloader(downloadConfiguration), marker);
+  }
+
+  /** Adds the download step to the graph, before the steps of the routed tasks. */
+  void addDownloadStep(StepGraph graph) {
+    graph.add(DOWNLOAD_STEP, marker, this::download);
+  }
+
+  /** Adds the step deleting the data files to the graph, after the store steps of the routed tasks. */
+  void addCompleteStep(StepGraph graph, String... storeSteps) {
+    graph.add(COMPLETE_STEP, marker, this::deleteDataFiles).after(storeSteps);
+  }
+
+  private void download() throws IOException, SQLException {
+    scheduler.run(marker, "shared download", true, 0, this::downloadData);
+  }
+
+  private void downloadData() throws IOException {
+    LOG.info(marker, "Start downloading shared data");
+
+    // download non-CON sequences and wgs_set in parallel
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<?> download1 =
+          executor.submit(
+              () -> {
+                downloader.download(
+                    config.request1,
+                    null,
+                    Paths.get(config.rawDataFile1),
+                    config.rawDataCompression);
+                return null;
+              });
+      Future<?> download2 =
+          executor.submit(
+              () -> {
+                downloader.download(
+                    config.request2,
+                    null,
+                    Paths.get(config.rawDataFile2),
+                    config.rawDataCompression);
+                return null;
+              });
+
+      EnaRequestDownloader.await(download1);
+      EnaRequestDownloader.await(download2);
+    } finally {
+      executor.shutdownNow();
+    }
+
+    LOG.info(marker, "Shared data downloaded");
+  }
+
+  private void deleteDataFiles() throws IOException {
+    if (config.keepRawDataFiles) {
+      LOG.info(marker, "Shared raw data files are configured to be kept");
+      return;
+    }
+
+    Files.deleteIfExists(Paths.get(config.rawDataFile1));
+    Files.deleteIfExists(Paths.get(config.rawDataFile2));
+    LOG.info(marker, "Raw data file {} deleted", config.rawDataFile1);
+    LOG.info(marker, "Raw data file {} deleted", config.rawDataFile2);
+  }
+}
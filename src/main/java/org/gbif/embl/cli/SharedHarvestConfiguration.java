@@ -0,0 +1,53 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.embl.cli;
+
+import java.util.StringJoiner;
+
+import jakarta.validation.constraints.NotNull;
+
+/**
+ * Requests downloaded once per run for the tasks with a {@link TaskConfiguration#route}, instead of
+ * each task downloading its own requests. The requests select the union of the records of these
+ * tasks and include the fields their routes need (environmental_sample, host).
+ */
+@SuppressWarnings("PublicField")
+public class SharedHarvestConfiguration {
+
+  @NotNull public RequestConfiguration request1;
+
+  @NotNull public RequestConfiguration request2;
+
+  @NotNull public String rawDataFile1;
+
+  @NotNull public String rawDataFile2;
+
+  /** Compression of the raw data files written to disk. */
+  @NotNull public RawDataCompression rawDataCompression = RawDataCompression.NONE;
+
+  /** Keep the raw data files, never delete them. */
+  @NotNull public Boolean keepRawDataFiles = false;
+
+  @Override
+  public String toString() {
+    return new StringJoiner(", ", SharedHarvestConfiguration.class.getSimpleName() + "[", "]")
+        .add("request1=" + request1)
+        .add("request2=" + request2)
+        .add("rawDataFile1='" + rawDataFile1 + "'")
+        .add("rawDataFile2='" + rawDataFile2 + "'")
+        .add("rawDataCompression=" + rawDataCompression)
+        .add("keepRawDataFiles=" + keepRawDataFiles)
+        .toString();
+  }
+}
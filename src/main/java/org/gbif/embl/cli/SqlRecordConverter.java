@@ -0,0 +1,237 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.embl.cli;
+
+import java.util.StringJoiner;
+import java.util.function.IntPredicate;
+
+import static org.gbif.embl.util.EmblAdapterConstants.*;
+
+/**
+ * Generates the SELECT which converts, filters and deduplicates the rows of the raw data query in
+ * the database, with the same result as {@link RecordConverter} and the record filter of the JVM
+ * processing.
+ * <p>
+ * Records without specimen_voucher and collection_date are skipped, then only the first record of
+ * each sample_accession + scientific_name is kept, in the order the query returns the rows. Values
+ * are trimmed like {@link String#trim()} and checked like {@code StringUtils.isBlank}.
+ * <p>
+ * The rows are numbered by {@code row_number() OVER ()} over the query as a subquery. PostgreSQL
+ * numbers them in the order the subquery produces them, which is the order of its ORDER BY if it
+ * has one. Without an ORDER BY the order is not defined: the JVM cursor and the numbering may
+ * read the rows in different orders (e.g. another plan, a parallel or a synchronized scan), so
+ * another duplicate of a sample_accession + scientific_name may be kept. Only a query with an
+ * ORDER BY on unique columns gives the same records in both modes.
+ */
+final class SqlRecordConverter {
+
+  // characters removed by String.trim(), text can't contain \0
+  private static final String TRIM_CHARS = charsLiteral(c -> c <= ' ');
+  // characters StringUtils.isBlank() ignores
+  private static final String WHITESPACE_CHARS = charsLiteral(Character::isWhitespace);
+  // LOCATION_PATTERN, \s and \w of Java patterns are ASCII only
+  private static final String LOCATION_REGEX =
+      "'([0-9.]+)[ \\t\\n\\v\\f\\r]+([0-9A-Za-z_])[ \\t\\n\\v\\f\\r]+([0-9.]+)"
+          + "[ \\t\\n\\v\\f\\r]+([0-9A-Za-z_])'";
+
+  private SqlRecordConverter() {}
+
+  /**
+   * Values of the processed data insert, converted from the raw data query.
+   *
+   * @param deltaTable if not null, only the accessions of this table are selected (after the
+   *     deduplication)
+   * @param joinTaxonomy the query doesn't return the ranks (taxonomy lookup), join them to the
+   *     deduplicated records
+   */
+  static String select(String sqlSelectRawData, String deltaTable, boolean joinTaxonomy) {
+    // rows numbered in the order of the query, like the JVM reads them if the query is ordered
+    String numbered =
+        "SELECT q.*, row_number() OVER () AS query_row, CASE WHEN "
+            + isNotEmpty("q", SAMPLE_ACCESSION_COLUMN)
+            + " AND "
+            + isNotEmpty("q", SCIENTIFIC_NAME_COLUMN)
+            + " THEN "
+            + column("q", SAMPLE_ACCESSION_COLUMN)
+            + " || "
+            + column("q", SCIENTIFIC_NAME_COLUMN)
+            + " END AS dedup_key FROM ("
+            + sqlSelectRawData
+            + ") q";
+
+    // skip records with missing specimen_voucher and collection_date
+    String filtered =
+        "SELECT n.*, row_number() OVER (PARTITION BY n.dedup_key ORDER BY n.query_row) AS key_row "
+            + "FROM ("
+            + numbered
+            + ") n WHERE "
+            + isNotEmpty("n", SPECIMEN_VOUCHER_COLUMN)
+            + " OR "
+            + isNotEmpty("n", COLLECTION_DATE_COLUMN);
+
+    // skip duplicates, the first record of an occurrence_id is inserted
+    String deduplicated =
+        "SELECT d.*, row_number() OVER (PARTITION BY "
+            + trimToEmpty(column("d", ACCESSION_COLUMN))
+            + " ORDER BY d.query_row) AS id_row, regexp_match("
+            + column("d", LOCATION_COLUMN)
+            + ", "
+            + LOCATION_REGEX
+            + ") AS coordinates FROM ("
+            + filtered
+            + ") d WHERE (d.dedup_key IS NULL OR d.key_row = 1)";
+    if (deltaTable != null) {
+      deduplicated +=
+          " AND "
+              + column("d", ACCESSION_COLUMN)
+              + " IN (SELECT accession FROM "
+              + deltaTable
+              + ")";
+    }
+
+    String country = column("r", COUNTRY_COLUMN);
+    String ranks = joinTaxonomy ? "et" : "r";
+    StringJoiner values = new StringJoiner(", ", "SELECT ", "");
+    values
+        .add(trimToEmpty(column("r", ACCESSION_COLUMN)))
+        .add(prefixed(ASSOCIATED_SEQUENCES_URL, column("r", ACCESSION_COLUMN)))
+        .add(prefixed(REFERENCES_URL, column("r", ACCESSION_COLUMN)))
+        .add(coordinate("r.coordinates[1]", "r.coordinates[2]", NORTH, SOUTH, MAX_LATITUDE))
+        .add(coordinate("r.coordinates[3]", "r.coordinates[4]", EAST, WEST, MAX_LONGITUDE))
+        .add(ifNotBlank(country, splitPart(country, 1)))
+        .add(ifNotBlank(country, trim(splitPart(country, 2))))
+        .add(trimToEmpty(column("r", IDENTIFIED_BY_COLUMN)))
+        .add(trimToEmpty(column("r", COLLECTED_BY_COLUMN)))
+        .add(trimToEmpty(column("r", COLLECTION_DATE_COLUMN)))
+        .add(trimToEmpty(column("r", SPECIMEN_VOUCHER_COLUMN)))
+        .add(
+            "CASE WHEN "
+                + isNotBlank(column("r", SPECIMEN_VOUCHER_COLUMN))
+                + " THEN "
+                + literal(PRESERVED_SPECIMEN)
+                + " ELSE "
+                + literal(MATERIAL_SAMPLE)
+                + " END")
+        .add(prefixed(TAXON_ID_PREFIX, column("r", SEQUENCE_MD5_COLUMN)))
+        .add(trimToEmpty(column("r", SCIENTIFIC_NAME_COLUMN)))
+        .add(prefixed(TAXON_CONCEPT_ID_URL, column("r", TAX_ID_COLUMN)))
+        .add(trimToEmpty(column("r", ALTITUDE_COLUMN)))
+        .add(trimToEmpty(column("r", ALTITUDE_COLUMN)))
+        .add(trimToEmpty(column("r", SEX_COLUMN)))
+        .add(trimToEmpty(column("r", DESCRIPTION_COLUMN)))
+        .add(trimToEmpty(column("r", HOST_COLUMN)))
+        .add(trimToEmpty(column(ranks, KINGDOM_COLUMN)))
+        .add(trimToEmpty(column(ranks, PHYLUM_COLUMN)))
+        .add(trimToEmpty(column(ranks, CLASS_COLUMN)))
+        .add(trimToEmpty(column(ranks, ORDER_COLUMN)))
+        .add(trimToEmpty(column(ranks, FAMILY_COLUMN)))
+        .add(trimToEmpty(column(ranks, GENUS_COLUMN)));
+
+    String from = " FROM (" + deduplicated + ") r";
+    if (joinTaxonomy) {
+      from +=
+          " LEFT JOIN "
+              + TAXONOMY_TABLE
+              + " et ON "
+              + column("r", TAX_ID_COLUMN)
+              + " = et."
+              + TAXON_ID_COLUMN;
+    }
+    return values + from + " WHERE r.id_row = 1 ORDER BY r.query_row";
+  }
+
+  /** Expression trimming the value like {@link String#trim()}, null stays null. */
+  static String trim(String expression) {
+    return "btrim(" + expression + ", " + TRIM_CHARS + ")";
+  }
+
+  private static String trimToEmpty(String expression) {
+    return "coalesce(" + trim(expression) + ", '')";
+  }
+
+  private static String isNotEmpty(String alias, String column) {
+    return "coalesce(" + column(alias, column) + ", '') <> ''";
+  }
+
+  private static String isNotBlank(String expression) {
+    return "btrim(" + expression + ", " + WHITESPACE_CHARS + ") <> ''";
+  }
+
+  private static String ifNotBlank(String expression, String value) {
+    return "CASE WHEN " + isNotBlank(expression) + " THEN " + value + " ELSE '' END";
+  }
+
+  private static String prefixed(String prefix, String expression) {
+    return ifNotBlank(expression, literal(prefix) + " || " + expression);
+  }
+
+  private static String splitPart(String expression, int part) {
+    return "split_part(" + expression + ", " + literal(COUNTRY_DELIMITER) + ", " + part + ")";
+  }
+
+  /** Signed coordinate, negative for south/west, empty if not valid or not found. */
+  private static String coordinate(
+      String value, String letter, String positive, String negative, double max) {
+    return "CASE WHEN "
+        + letter
+        + " IN ("
+        + literal(positive)
+        + ", "
+        + literal(negative)
+        + ") AND "
+        // digits with at most one dot
+        + value
+        + " ~ '^[0-9]*[.]?[0-9]*$' AND "
+        + value
+        + " ~ '[0-9]' AND "
+        + value
+        + "::float8 <= "
+        + max
+        + " THEN CASE WHEN "
+        + letter
+        + " = "
+        + literal(negative)
+        + " THEN '-' || "
+        + value
+        + " ELSE "
+        + value
+        + " END ELSE '' END";
+  }
+
+  private static String column(String alias, String column) {
+    return alias + ".\"" + column + "\"";
+  }
+
+  private static String literal(String value) {
+    return "'" + value.replace("'", "''") + "'";
+  }
+
+  /**
+   * Escape string literal of the characters matching the predicate. Only ASCII characters are
+   * escaped, Unicode escapes need a UTF8 database.
+   */
+  private static String charsLiteral(IntPredicate predicate) {
+    StringBuilder literal = new StringBuilder("E'");
+    for (int c = 1; c <= Character.MAX_VALUE; c++) {
+      if (predicate.test(c)) {
+        if (c < 0x80) {
+          literal.append(String.format("\\x%02x", c));
+        } else {
+          literal.append((char) c);
+        }
+      }
+    }
+    return literal.append('\'').toString();
+  }
+}
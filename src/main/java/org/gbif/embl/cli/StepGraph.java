@@ -0,0 +1,181 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.embl.cli;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.Marker;
+
+/**
+ * Steps with dependencies (a DAG), each step runs in its own thread as soon as its dependencies
+ * are done. A step can require other steps, it is skipped if one of them fails or is skipped, or
+ * only run after them whatever their outcome. Dependencies are added before the steps depending on
+ * them, so the graph has no cycles.
+ * <p>
+ * Start and end of the steps are logged when they happen and summarized when the graph is done.
+ */
+class StepGraph {
+
+  private static final Logger LOG = LoggerFactory.getLogger(StepGraph.class);
+
+  private final String name;
+  private final Map<String, Node> nodes = new LinkedHashMap<>();
+
+  StepGraph(String name) {
+    this.name = name;
+  }
+
+  /** Adds a step, its dependencies are added by {@link Node#requires} and {@link Node#after}. */
+  Node add(String stepName, Marker marker, ResourceScheduler.Step step) {
+    if (nodes.containsKey(stepName)) {
+      throw new IllegalArgumentException("Duplicate step " + stepName);
+    }
+    Node node = new Node(stepName, marker, step);
+    nodes.put(stepName, node);
+    return node;
+  }
+
+  /** Runs the steps and waits until all of them are done. */
+  void run() {
+    LOG.info("Running {} steps of {}", nodes.size(), name);
+    ExecutorService executor = Executors.newCachedThreadPool();
+    try {
+      List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+      // in insertion order dependencies are scheduled before their dependents
+      for (Node node : nodes.values()) {
+        CompletableFuture<?>[] dependencies =
+            node.dependencies.stream().map(d -> d.node.future).toArray(CompletableFuture[]::new);
+        node.future =
+            CompletableFuture.allOf(dependencies).thenApplyAsync(v -> node.execute(), executor);
+        futures.add(node.future);
+      }
+      CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+    } finally {
+      executor.shutdownNow();
+    }
+
+    for (Node node : nodes.values()) {
+      if (node.started == null) {
+        LOG.info(node.marker, "Step {}: {}", node.name, node.state);
+      } else {
+        LOG.info(
+            node.marker,
+            "Step {}: {}, started {}, ended {} ({} s)",
+            node.name,
+            node.state,
+            node.started,
+            node.ended,
+            Duration.between(node.started, node.ended).toSeconds());
+      }
+    }
+  }
+
+  /** State of a step. */
+  enum State {
+    PENDING,
+    RUNNING,
+    SUCCEEDED,
+    FAILED,
+    SKIPPED
+  }
+
+  /** Step of the graph. */
+  final class Node {
+
+    private final String name;
+    private final Marker marker;
+    private final ResourceScheduler.Step step;
+    private final List<Dependency> dependencies = new ArrayList<>();
+    private CompletableFuture<Boolean> future;
+    private volatile State state = State.PENDING;
+    private volatile Instant started;
+    private volatile Instant ended;
+
+    private Node(String name, Marker marker, ResourceScheduler.Step step) {
+      this.name = name;
+      this.marker = marker;
+      this.step = step;
+    }
+
+    /** The step runs only if these steps succeed. */
+    Node requires(String... stepNames) {
+      return depend(true, stepNames);
+    }
+
+    /** The step runs after these steps, whether they succeed or not. */
+    Node after(String... stepNames) {
+      return depend(false, stepNames);
+    }
+
+    State state() {
+      return state;
+    }
+
+    private Node depend(boolean required, String... stepNames) {
+      for (String stepName : stepNames) {
+        Node node = nodes.get(stepName);
+        if (node == null || node == this) {
+          throw new IllegalArgumentException("Unknown dependency " + stepName + " of " + name);
+        }
+        dependencies.add(new Dependency(node, required));
+      }
+      return this;
+    }
+
+    /** Runs the step unless a required dependency didn't succeed, returns true if it succeeded. */
+    private boolean execute() {
+      for (Dependency dependency : dependencies) {
+        if (dependency.required && dependency.node.state != State.SUCCEEDED) {
+          state = State.SKIPPED;
+          LOG.warn(
+              marker, "Step {} skipped, {} {}", name, dependency.node.name, dependency.node.state);
+          return false;
+        }
+      }
+
+      // the thread of the pool is named after the step while it runs
+      Thread thread = Thread.currentThread();
+      String threadName = thread.getName();
+      thread.setName(name);
+      started = Instant.now();
+      state = State.RUNNING;
+      LOG.info(marker, "Step {} started", name);
+      try {
+        step.run();
+        state = State.SUCCEEDED;
+      } catch (Exception e) {
+        state = State.FAILED;
+        LOG.error(marker, "Step {} failed", name, e);
+      } finally {
+        ended = Instant.now();
+        thread.setName(threadName);
+      }
+      LOG.info(
+          marker, "Step {} {} in {} s", name, state, Duration.between(started, ended).toSeconds());
+      return state == State.SUCCEEDED;
+    }
+  }
+
+  private record Dependency(Node node, boolean required) {}
+}
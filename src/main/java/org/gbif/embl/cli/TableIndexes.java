@@ -0,0 +1,331 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.embl.cli;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringJoiner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.Marker;
+
+import static org.gbif.embl.util.EmblAdapterConstants.SQL_SELECT_INDEXES;
+import static org.gbif.embl.util.EmblAdapterConstants.SQL_SELECT_INDEX_EXISTS;
+
+/**
+ * Indexes (and constraints backed by them) of a table, which can be dropped before a bulk load and
+ * created again after it.
+ * <p>
+ * Without its unique indexes the table does not skip duplicate keys on insert anymore. Before the
+ * unique indexes are created, duplicate rows are reported and removed, keeping the first row loaded
+ * like ON CONFLICT DO NOTHING did. Indexes are created in parallel, each with its own connection.
+ * Dropped indexes which are not created again by {@link #rebuild()} (the load failed) are created
+ * when closed.
+ */
+class TableIndexes implements AutoCloseable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(TableIndexes.class);
+
+  // duplicate keys logged per index
+  private static final int MAX_DUPLICATES_LOGGED = 10;
+
+  private final DataSource dataSource;
+  private final String tableName;
+  private final int parallelism;
+  private final Marker marker;
+  private final List<Index> indexes = new ArrayList<>();
+  private boolean dropped = false;
+  private String keepFirstBy = "ctid";
+
+  private TableIndexes(DataSource dataSource, String tableName, int parallelism, Marker marker) {
+    this.dataSource = dataSource;
+    this.tableName = tableName;
+    this.parallelism = Math.max(parallelism, 1);
+    this.marker = marker;
+  }
+
+  /**
+   * Reads the index definitions of the table.
+   *
+   * @param parallelism maximum number of indexes created at the same time
+   */
+  static TableIndexes read(DataSource dataSource, String tableName, int parallelism, Marker marker)
+      throws SQLException {
+    TableIndexes tableIndexes = new TableIndexes(dataSource, tableName, parallelism, marker);
+    try (Connection connection = dataSource.getConnection();
+        PreparedStatement ps = connection.prepareStatement(SQL_SELECT_INDEXES)) {
+      ps.setString(1, tableName);
+      try (ResultSet rs = ps.executeQuery()) {
+        while (rs.next()) {
+          Array keyColumns = rs.getArray(6);
+          tableIndexes.indexes.add(
+              new Index(
+                  rs.getString(1),
+                  rs.getString(2),
+                  rs.getBoolean(3),
+                  rs.getBoolean(4),
+                  rs.getString(5),
+                  keyColumns != null ? (String[]) keyColumns.getArray() : null));
+        }
+      }
+    }
+    return tableIndexes;
+  }
+
+  /**
+   * Reads the index definitions of the table and drops the indexes.
+   */
+  static TableIndexes drop(DataSource dataSource, String tableName, int parallelism, Marker marker)
+      throws SQLException {
+    TableIndexes tableIndexes = read(dataSource, tableName, parallelism, marker);
+    try (Connection connection = dataSource.getConnection();
+        Statement st = connection.createStatement()) {
+      connection.setAutoCommit(false);
+      for (Index index : tableIndexes.indexes) {
+        if (index.constraint()) {
+          st.executeUpdate("ALTER TABLE " + tableName + " DROP CONSTRAINT " + quote(index.name()));
+        } else {
+          st.executeUpdate("DROP INDEX " + quote(index.name()));
+        }
+      }
+      connection.commit();
+    }
+    tableIndexes.dropped = true;
+    LOG.debug(marker, "{} indexes of table {} dropped", tableIndexes.indexes.size(), tableName);
+    return tableIndexes;
+  }
+
+  /**
+   * Index definitions of the table.
+   */
+  List<Index> indexes() {
+    return indexes;
+  }
+
+  /**
+   * Order of the rows with the same key of a unique index, the first one is kept when duplicates
+   * are removed. The physical order (ctid) by default, which is the load order only if the table
+   * was loaded by one transaction.
+   */
+  void keepFirstBy(String orderBy) {
+    this.keepFirstBy = orderBy;
+  }
+
+  /**
+   * Creates the dropped indexes again and analyzes the table.
+   */
+  void rebuild() throws SQLException {
+    create(tableName, "", index -> true);
+    dropped = false;
+    try (Connection connection = dataSource.getConnection();
+        Statement st = connection.createStatement()) {
+      st.executeUpdate("ANALYZE " + tableName);
+    }
+    LOG.debug(marker, "Indexes of table {} created", tableName);
+  }
+
+  /**
+   * Creates the indexes on a table with the same columns, e.g. a copy of the table.
+   *
+   * @param suffix appended to the index names
+   */
+  void create(String targetTable, String suffix, Predicate<Index> filter) throws SQLException {
+    List<Index> toCreate = indexes.stream().filter(filter).toList();
+    if (toCreate.isEmpty()) {
+      return;
+    }
+
+    // one after another, concurrent deletes of the same rows could deadlock
+    try (Connection connection = dataSource.getConnection();
+        Statement st = connection.createStatement()) {
+      for (Index index : toCreate) {
+        if (index.unique()) {
+          removeDuplicates(st, targetTable, index);
+        }
+      }
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, toCreate.size()));
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (Index index : toCreate) {
+        futures.add(
+            executor.submit(
+                () -> {
+                  try (Connection connection = dataSource.getConnection();
+                      Statement st = connection.createStatement()) {
+                    st.executeUpdate(index.createStatement(targetTable, suffix));
+                  }
+                  LOG.debug(marker, "Index {} created on {}", index.name() + suffix, targetTable);
+                  return null;
+                }));
+      }
+
+      for (Future<?> future : futures) {
+        await(future);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Override
+  public void close() throws SQLException {
+    if (!dropped) {
+      return;
+    }
+    LOG.warn(marker, "Creating the dropped indexes of table {} again", tableName);
+    try (Connection connection = dataSource.getConnection();
+        PreparedStatement ps = connection.prepareStatement(SQL_SELECT_INDEX_EXISTS)) {
+      List<Index> missing = new ArrayList<>();
+      for (Index index : indexes) {
+        ps.setString(1, quote(index.name()));
+        try (ResultSet rs = ps.executeQuery()) {
+          if (rs.next() && !rs.getBoolean(1)) {
+            missing.add(index);
+          }
+        }
+      }
+      create(tableName, "", missing::contains);
+    }
+    dropped = false;
+  }
+
+  /**
+   * Deletes the rows with the key of the unique index, but the first one, and reports them.
+   */
+  private void removeDuplicates(Statement st, String targetTable, Index index) throws SQLException {
+    if (index.keyColumns() == null) {
+      // expression or partial index, not deduplicated
+      return;
+    }
+
+    StringJoiner keys = new StringJoiner(", ");
+    StringJoiner notNull = new StringJoiner(" AND ");
+    StringJoiner join = new StringJoiner(" AND ");
+    StringJoiner returning = new StringJoiner(", ");
+    for (String column : index.keyColumns()) {
+      String quoted = quote(column);
+      keys.add(quoted);
+      notNull.add(quoted + " IS NOT NULL");
+      join.add("t." + quoted + " = d." + quoted);
+      returning.add("t." + quoted);
+    }
+
+    String sqlDeleteDuplicates =
+        "DELETE FROM "
+            + targetTable
+            + " t USING (SELECT DISTINCT ON ("
+            + keys
+            + ") "
+            + keys
+            + ", ctid AS kept FROM "
+            + targetTable
+            + " WHERE "
+            + notNull
+            + " ORDER BY "
+            + keys
+            + ", "
+            + keepFirstBy
+            + ") d WHERE "
+            + join
+            + " AND t.ctid <> d.kept RETURNING "
+            + returning;
+
+    long duplicates = 0;
+    List<String> examples = new ArrayList<>();
+    try (ResultSet rs = st.executeQuery(sqlDeleteDuplicates)) {
+      int columns = index.keyColumns().length;
+      while (rs.next()) {
+        duplicates++;
+        if (examples.size() < MAX_DUPLICATES_LOGGED) {
+          StringJoiner key = new StringJoiner(", ", "(", ")");
+          for (int i = 1; i <= columns; i++) {
+            key.add(rs.getString(i));
+          }
+          examples.add(key.toString());
+        }
+      }
+    }
+
+    if (duplicates > 0) {
+      LOG.warn(
+          marker,
+          "{} rows of {} with a duplicate key of {} removed, e.g. {}",
+          duplicates,
+          targetTable,
+          index.name(),
+          examples);
+    }
+  }
+
+  private static void await(Future<?> future) throws SQLException {
+    try {
+      future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("Index creation interrupted", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof SQLException) {
+        throw (SQLException) e.getCause();
+      }
+      throw new SQLException("Index creation failed", e.getCause());
+    }
+  }
+
+  static String quote(String identifier) {
+    return "\"" + identifier.replace("\"", "\"\"") + "\"";
+  }
+
+  /**
+   * Index of the table, with the constraint definition if the index backs a constraint.
+   *
+   * @param keyColumns columns of the key, null for expression and partial indexes
+   */
+  record Index(
+      String name,
+      String indexDefinition,
+      boolean unique,
+      boolean constraint,
+      String constraintDefinition,
+      String[] keyColumns) {
+
+    /**
+     * Statement creating the index (or constraint) on the table.
+     */
+    String createStatement(String table, String suffix) {
+      String indexName = quote(name + suffix);
+      if (constraint) {
+        return "ALTER TABLE " + table + " ADD CONSTRAINT " + indexName + " " + constraintDefinition;
+      }
+      // CREATE [UNIQUE] INDEX name ON table USING ...
+      String using = indexDefinition.substring(indexDefinition.indexOf(" USING "));
+      return "CREATE " + (unique ? "UNIQUE " : "") + "INDEX " + indexName + " ON " + table + using;
+    }
+  }
+}
@@ -17,6 +17,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.StringJoiner;
 
+import jakarta.validation.Valid;
 import jakarta.validation.constraints.NotNull;
 
 @SuppressWarnings("PublicField")
@@ -26,18 +27,113 @@ public class TaskConfiguration {
 
   @NotNull public List<TaskStep> steps = new ArrayList<>();
 
-  @NotNull public RequestConfiguration request1;
+  /** Required unless the task has a route. */
+  public RequestConfiguration request1;
 
-  @NotNull public RequestConfiguration request2;
+  /** Required unless the task has a route. */
+  public RequestConfiguration request2;
 
-  @NotNull public String rawDataFile1;
+  /** Required unless the task has a route. */
+  public String rawDataFile1;
 
-  @NotNull public String rawDataFile2;
+  /** Required unless the task has a route. */
+  public String rawDataFile2;
 
   @NotNull public String tableName;
 
   @NotNull public String query;
 
+  /**
+   * Parse the responses while they are downloaded and store them into the raw data table directly,
+   * without intermediate files.
+   */
+  @NotNull public Boolean streamData = false;
+
+  /**
+   * Keep the raw data files, never delete them. When streaming, a copy of the responses is written
+   * to rawDataFile1/rawDataFile2 (for debugging).
+   */
+  @NotNull public Boolean keepRawDataFiles = false;
+
+  /**
+   * Harvest only records updated since the last successful harvest of the task and update them in
+   * the raw and processed tables instead of reloading everything.
+   */
+  @NotNull public Boolean incremental = false;
+
+  /**
+   * Load the raw and processed tables into unlogged shadow tables which replace them when loaded,
+   * instead of cleaning and reloading them in place. Not used by incremental harvests.
+   */
+  @NotNull public Boolean shadowLoad = false;
+
+  /**
+   * Drop the indexes and constraints of the raw and processed tables before a full load and create
+   * them again (in parallel) after it. Duplicate keys are reported and removed when the unique
+   * indexes are created.
+   */
+  @NotNull public Boolean rebuildIndexes = false;
+
+  /**
+   * Compression of the raw data files written to disk. Files are decompressed by their content
+   * while they are stored, whatever the setting.
+   */
+  @NotNull public RawDataCompression rawDataCompression = RawDataCompression.NONE;
+
+  /** How raw data is loaded into the database. */
+  @NotNull public RawDataLoader rawDataLoader = RawDataLoader.BATCH;
+
+  /**
+   * Number of workers storing the raw data files in parallel, each parses a part of the memory
+   * mapped files and uses its own DB connection. The workers commit separately, so more than one
+   * requires shadowLoad. Not used when streaming.
+   */
+  @NotNull public Integer storeWorkers = 1;
+
+  /**
+   * Number of workers processing raw data in parallel, each uses two DB connections. Records are
+   * partitioned by sample_accession + scientific_name, so deduplication is not affected. A full
+   * reload is written into a shadow table and published when all workers succeed.
+   */
+  @NotNull public Integer processingWorkers = 1;
+
+  /**
+   * Capacity (in batches of 5000 records) of the queues between the read, transform and write
+   * stages of processing. 0 processes records serially in one thread.
+   */
+  @NotNull public Integer processingQueueSize = 0;
+
+  /**
+   * Where raw data is converted into processed data. {@link ProcessingMode#DATABASE} ignores
+   * processingWorkers, processingQueueSize and dedup.
+   */
+  @NotNull public ProcessingMode processingMode = ProcessingMode.JVM;
+
+  /**
+   * Load ena_taxonomy into memory once per processing and resolve the ranks (kingdom to genus) of
+   * the records by tax_id, so the query doesn't need to join the taxonomy (see
+   * sql-dataset-no-taxonomy.sql). Taxonomy columns returned by the query are ignored.
+   */
+  @NotNull public Boolean taxonomyLookup = false;
+
+  /** Where processed records are written. */
+  @NotNull public ProcessedDataSink processedDataSink = ProcessedDataSink.TABLE;
+
+  /** Darwin Core Archive (zip) written by processing, required by the archive sinks. */
+  public String archiveFile;
+
+  /** EML document of the dataset (from the eml directory) added to the archive. */
+  public String emlFile;
+
+  /**
+   * Store the records of the shared harvest (see {@link SharedHarvestConfiguration}) matching this
+   * route instead of downloading request1 and request2. Not incremental, not streamed.
+   */
+  @Valid public RouteConfiguration route;
+
+  /** Deduplication of processed records. */
+  @Valid @NotNull public DedupConfiguration dedup = new DedupConfiguration();
+
   @Override
   public String toString() {
     return new StringJoiner(", ", TaskConfiguration.class.getSimpleName() + "[", "]")
@@ -49,6 +145,23 @@ public class TaskConfiguration {
         .add("rawDataFile2='" + rawDataFile2 + "'")
         .add("tableName='" + tableName + "'")
         .add("query='" + query + "'")
+        .add("streamData=" + streamData)
+        .add("keepRawDataFiles=" + keepRawDataFiles)
+        .add("incremental=" + incremental)
+        .add("shadowLoad=" + shadowLoad)
+        .add("rebuildIndexes=" + rebuildIndexes)
+        .add("rawDataCompression=" + rawDataCompression)
+        .add("rawDataLoader=" + rawDataLoader)
+        .add("storeWorkers=" + storeWorkers)
+        .add("processingWorkers=" + processingWorkers)
+        .add("processingQueueSize=" + processingQueueSize)
+        .add("processingMode=" + processingMode)
+        .add("taxonomyLookup=" + taxonomyLookup)
+        .add("processedDataSink=" + processedDataSink)
+        .add("archiveFile='" + archiveFile + "'")
+        .add("emlFile='" + emlFile + "'")
+        .add("route=" + route)
+        .add("dedup=" + dedup)
         .toString();
   }
 }
@@ -25,6 +25,8 @@ public class TaxonomyConfiguration {
 
   @ParametersDelegate @Valid @NotNull public DbConfiguration db = new DbConfiguration();
 
+  @Valid @NotNull public DownloadConfiguration download = new DownloadConfiguration();
+
   @NotNull
   @Parameter(names = "--start-time")
   public String startTime;
@@ -39,18 +41,36 @@ public class TaxonomyConfiguration {
 
   @NotNull public String tempDir;
 
-  @NotNull public String extractedDir;
+  /** Not used anymore, the archive is read without extracting it. */
+  public String extractedDir;
+
+  /**
+   * Download the archive conditionally (ETag, Last-Modified) and skip the refresh if it is not
+   * modified or has the same content (SHA-256) as the last loaded one, see ena_taxonomy_state.
+   * Only the changed taxa are applied to a non empty taxonomy table.
+   */
+  @NotNull public Boolean conditionalRefresh = false;
+
+  /**
+   * Read the archive while it is downloaded instead of downloading it into tempDir first. An
+   * archive with the same content as the last loaded one is then loaded anyway (conditional
+   * refresh applies no change).
+   */
+  @NotNull public Boolean streamArchive = false;
 
   @Override
   public String toString() {
     return new StringJoiner(", ", TaxonomyConfiguration.class.getSimpleName() + "[", "]")
         .add("db='" + db + "'")
+        .add("download=" + download)
         .add("startTime='" + startTime + "'")
         .add("frequencyInDays='" + frequencyInDays + "'")
         .add("archiveUrl='" + archiveUrl + "'")
         .add("archiveName='" + archiveName + "'")
         .add("tempDir='" + tempDir + "'")
         .add("extractedDir='" + extractedDir + "'")
+        .add("conditionalRefresh=" + conditionalRefresh)
+        .add("streamArchive=" + streamArchive)
         .toString();
   }
 }
@@ -0,0 +1,187 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.embl.cli;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.Marker;
+
+import static org.gbif.embl.util.EmblAdapterConstants.READ_BATCH_SIZE;
+import static org.gbif.embl.util.EmblAdapterConstants.SQL_SELECT_TAXONOMY;
+
+/**
+ * Ranks (kingdom to genus) of the ENA taxonomy by tax id, loaded from ena_taxonomy once and used
+ * instead of joining the table in the raw data query.
+ * <p>
+ * Tax ids are kept in a sorted int array with the index of their classification, the distinct
+ * classifications and rank names are shared, so a taxon takes a few bytes. Tax ids which are not
+ * plain numbers are looked up by their text, a record matches exactly the taxa the join would
+ * match. Immutable once loaded, shared by all processing threads.
+ */
+final class TaxonomyLookup {
+
+  private static final Logger LOG = LoggerFactory.getLogger(TaxonomyLookup.class);
+
+  private final int[] ids;
+  private final int[] classificationIndexes;
+  private final Classification[] classifications;
+  private final Map<String, Classification> otherIds;
+
+  private TaxonomyLookup(
+      int[] ids,
+      int[] classificationIndexes,
+      Classification[] classifications,
+      Map<String, Classification> otherIds) {
+    this.ids = ids;
+    this.classificationIndexes = classificationIndexes;
+    this.classifications = classifications;
+    this.otherIds = otherIds;
+  }
+
+  /** Loads the taxonomy table. */
+  static TaxonomyLookup load(DataSource dataSource, Marker marker) throws SQLException {
+    long started = System.currentTimeMillis();
+    // tax id in the high bits, classification index in the low ones, sorted by tax id
+    long[] entries = new long[1 << 16];
+    int size = 0;
+    Map<String, String> names = new HashMap<>();
+    Map<Classification, Integer> indexes = new HashMap<>();
+    List<Classification> classifications = new ArrayList<>();
+    Map<String, Classification> otherIds = new HashMap<>();
+
+    try (Connection connection = dataSource.getConnection()) {
+      // fetch size works in a transaction only
+      connection.setAutoCommit(false);
+      try (Statement st = connection.createStatement()) {
+        st.setFetchSize(READ_BATCH_SIZE);
+        try (ResultSet rs = st.executeQuery(SQL_SELECT_TAXONOMY)) {
+          while (rs.next()) {
+            Classification classification =
+                new Classification(
+                    intern(names, rs.getString(2)),
+                    intern(names, rs.getString(3)),
+                    intern(names, rs.getString(4)),
+                    intern(names, rs.getString(5)),
+                    intern(names, rs.getString(6)),
+                    intern(names, rs.getString(7)));
+            int index =
+                indexes.computeIfAbsent(
+                    classification,
+                    c -> {
+                      classifications.add(c);
+                      return classifications.size() - 1;
+                    });
+
+            String taxonId = rs.getString(1);
+            int id = toId(taxonId);
+            if (id < 0) {
+              otherIds.put(taxonId, classifications.get(index));
+            } else {
+              if (size == entries.length) {
+                entries = Arrays.copyOf(entries, size * 2);
+              }
+              entries[size++] = ((long) id << 32) | index;
+            }
+          }
+        }
+      } finally {
+        connection.rollback();
+      }
+    }
+
+    Arrays.sort(entries, 0, size);
+    int[] ids = new int[size];
+    int[] classificationIndexes = new int[size];
+    for (int i = 0; i < size; i++) {
+      ids[i] = (int) (entries[i] >>> 32);
+      classificationIndexes[i] = (int) entries[i];
+    }
+
+    LOG.info(
+        marker,
+        "Taxonomy loaded in {} ms: {} taxa, {} distinct classifications, {} rank names",
+        System.currentTimeMillis() - started,
+        size + otherIds.size(),
+        classifications.size(),
+        names.size());
+    return new TaxonomyLookup(
+        ids, classificationIndexes, classifications.toArray(new Classification[0]), otherIds);
+  }
+
+  /** Classification of the tax id, null if not found. */
+  Classification get(String taxId) {
+    if (taxId == null) {
+      return null;
+    }
+    int id = toId(taxId);
+    if (id < 0) {
+      return otherIds.get(taxId);
+    }
+    int i = Arrays.binarySearch(ids, id);
+    return i >= 0 ? classifications[classificationIndexes[i]] : null;
+  }
+
+  /** Sets the ranks of the record by its tax id, null if not found (like the left join). */
+  void resolve(RawRecord record) {
+    Classification classification = get(record.taxId);
+    if (classification == null) {
+      classification = Classification.EMPTY;
+    }
+    record.kingdom = classification.kingdom();
+    record.phylum = classification.phylum();
+    record.clazz = classification.clazz();
+    record.order = classification.order();
+    record.family = classification.family();
+    record.genus = classification.genus();
+  }
+
+  /** Tax id as a number, -1 if it isn't written as a plain int (no sign, zeros or spaces). */
+  private static int toId(String taxId) {
+    int length = taxId.length();
+    if (length == 0 || length > 10 || (length > 1 && taxId.charAt(0) == '0')) {
+      return -1;
+    }
+    long id = 0;
+    for (int i = 0; i < length; i++) {
+      char c = taxId.charAt(i);
+      if (c < '0' || c > '9') {
+        return -1;
+      }
+      id = id * 10 + (c - '0');
+    }
+    return id <= Integer.MAX_VALUE ? (int) id : -1;
+  }
+
+  private static String intern(Map<String, String> names, String name) {
+    return name != null ? names.computeIfAbsent(name, n -> n) : null;
+  }
+
+  /** Ranks of a taxon. */
+  record Classification(
+      String kingdom, String phylum, String clazz, String order, String family, String genus) {
+    static final Classification EMPTY = new Classification(null, null, null, null, null, null);
+  }
+}
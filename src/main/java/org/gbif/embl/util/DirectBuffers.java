@@ -0,0 +1,64 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.embl.util;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+
+/**
+ * Releases direct and memory-mapped buffers when they are not needed anymore, instead of waiting
+ * for the garbage collector: until then the memory stays allocated and a mapped file stays mapped.
+ */
+public final class DirectBuffers {
+
+  // sun.misc.Unsafe.invokeCleaner(ByteBuffer), null if not available
+  private static final MethodHandle INVOKE_CLEANER = invokeCleaner();
+
+  private DirectBuffers() {}
+
+  /**
+   * Releases a direct or mapped buffer, it must not be used afterwards. Heap buffers are ignored,
+   * as well as direct ones if releasing is not supported by the JVM (they are released by the
+   * garbage collector then).
+   *
+   * @param buffer the allocated or mapped buffer, not a slice, duplicate or view of it
+   */
+  public static void release(ByteBuffer buffer) {
+    if (INVOKE_CLEANER == null || buffer == null || !buffer.isDirect()) {
+      return;
+    }
+    try {
+      INVOKE_CLEANER.invokeExact(buffer);
+    } catch (Throwable e) {
+      // left to the garbage collector
+    }
+  }
+
+  private static MethodHandle invokeCleaner() {
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      return MethodHandles.lookup()
+          .findVirtual(
+              unsafeClass, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class))
+          .bindTo(theUnsafe.get(null));
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return null;
+    }
+  }
+}
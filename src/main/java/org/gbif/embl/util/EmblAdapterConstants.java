@@ -27,6 +27,9 @@ public final class EmblAdapterConstants {
   public static final Pattern LOCATION_PATTERN =
       Pattern.compile("([0-9.]+)\\s+(\\w)\\s+([0-9.]+)\\s+(\\w)");
 
+  public static final double MAX_LATITUDE = 90;
+  public static final double MAX_LONGITUDE = 180;
+
   public static final String NORTH = "N";
   public static final String SOUTH = "S";
   public static final String WEST = "W";
@@ -45,7 +48,6 @@ public final class EmblAdapterConstants {
 
   public static final String TAXONOMY_TABLE = "ena_taxonomy";
   public static final String SQL_CLEAN = "TRUNCATE embl_data";
-  public static final String SQL_CLEAN_TAXONOMY = "TRUNCATE ena_taxonomy";
   public static final String SQL_COLUMNS_RAW_DATA =
       "accession, sample_accession, location, country, "
           + "identified_by, collected_by, collection_date, specimen_voucher, sequence_md5, scientific_name, "
@@ -67,10 +69,155 @@ public final class EmblAdapterConstants {
           + SQL_COLUMNS_PROCESSED_DATA
           + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?) "
           + "ON CONFLICT DO NOTHING";
-  public static final String SQL_INSERT_TAXONOMY =
-      "INSERT INTO ena_taxonomy(taxon_id, kingdom, phylum, "
-          + "class, \"order\", family, genus) "
-          + "VALUES (?, ?, ?, ?, ?, ?, ?) ON CONFLICT DO NOTHING";
+  // load_order keeps the order of the copied records, the first record of an accession wins
+  public static final String SQL_CREATE_COPY_TABLE =
+      "CREATE TEMP TABLE IF NOT EXISTS embl_data_copy (LIKE embl_data, load_order bigserial) "
+          + "ON COMMIT DROP";
+  public static final String SQL_COPY_RAW_DATA =
+      "COPY embl_data(" + SQL_COLUMNS_RAW_DATA + ") FROM STDIN";
+  public static final String SQL_MERGE_COPY_TABLE =
+      "INSERT INTO embl_data("
+          + SQL_COLUMNS_RAW_DATA
+          + ") SELECT "
+          + SQL_COLUMNS_RAW_DATA
+          + " FROM embl_data_copy ORDER BY load_order ON CONFLICT DO NOTHING";
+  // incremental harvest: records stored by the running harvest (current_harvest) are not updated
+  // again, the first record of an accession wins like in a full harvest; scientific_name is the
+  // one of the record before its first update (processed data), used to find the records to
+  // deduplicate again
+  public static final String SQL_CREATE_DELTA_TABLE =
+      "CREATE TABLE IF NOT EXISTS embl_data_delta (accession text PRIMARY KEY, "
+          + "scientific_name text, current_harvest boolean NOT NULL DEFAULT true)";
+  public static final String SQL_RESET_DELTA = "UPDATE embl_data_delta SET current_harvest = false";
+  public static final String SQL_UPSERT_RAW_DATA =
+      upsertRawData("VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+  public static final String SQL_UPSERT_COPY_TABLE =
+      upsertRawData(
+          "SELECT DISTINCT ON (accession) "
+              + SQL_COLUMNS_RAW_DATA
+              + " FROM embl_data_copy ORDER BY accession, load_order");
+  // records sharing a scientific name with an updated record (before or after the update) are
+  // deduplicated again: the deduplication and the windows of the dataset queries are partitioned
+  // by scientific_name
+  public static final String SQL_EXTEND_DELTA =
+      "INSERT INTO embl_data_delta(accession, scientific_name, current_harvest) "
+          + "SELECT r.accession, r.scientific_name, false FROM embl_data r "
+          + "WHERE coalesce(r.scientific_name, '') IN ("
+          + "SELECT coalesce(d.scientific_name, '') FROM embl_data_delta d UNION "
+          + "SELECT coalesce(u.scientific_name, '') FROM embl_data u "
+          + "JOIN embl_data_delta d ON d.accession = u.accession) "
+          + "ON CONFLICT (accession) DO NOTHING";
+  public static final String SQL_SELECT_DELTA = "SELECT accession FROM embl_data_delta";
+  public static final String SQL_UPSERT_PROCESSED_DATA =
+      "INSERT INTO embl_data("
+          + SQL_COLUMNS_PROCESSED_DATA
+          + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?) "
+          + "ON CONFLICT (occurrence_id) DO UPDATE SET "
+          + updateColumns(SQL_COLUMNS_PROCESSED_DATA);
+  public static final String SQL_DELETE_PROCESSED_DATA =
+      "DELETE FROM embl_data WHERE occurrence_id = ?";
+  // processing in the database, %1$s is the converted raw data query
+  public static final String SQL_INSERT_SELECT_PROCESSED_DATA =
+      "INSERT INTO embl_data(" + SQL_COLUMNS_PROCESSED_DATA + ") %1$s ON CONFLICT DO NOTHING";
+  // upserts the updated records and deletes the ones not valid anymore, returns both counts;
+  // %2$s is the trimmed delta accession
+  public static final String SQL_UPSERT_SELECT_PROCESSED_DATA =
+      "WITH written AS (INSERT INTO embl_data_processed("
+          + SQL_COLUMNS_PROCESSED_DATA
+          + ") %1$s ON CONFLICT (occurrence_id) DO UPDATE SET "
+          + updateColumns(SQL_COLUMNS_PROCESSED_DATA)
+          + " RETURNING occurrence_id), "
+          + "deleted AS (DELETE FROM embl_data_processed p USING embl_data_delta d "
+          + "WHERE p.occurrence_id = %2$s "
+          + "AND NOT EXISTS (SELECT 1 FROM written w WHERE w.occurrence_id = p.occurrence_id) "
+          + "RETURNING 1) "
+          + "SELECT (SELECT count(*) FROM written), (SELECT count(*) FROM deleted)";
+  // raw data query result partitioned by sample_accession + scientific_name for parallel processing
+  public static final String SQL_CREATE_STAGED_DATA =
+      "CREATE UNLOGGED TABLE embl_data_staged AS SELECT q.*, "
+          + "mod(abs(hashtext(coalesce(q.sample_accession, '') || coalesce(q.scientific_name, ''))"
+          + "::bigint), %2$d) AS worker_partition FROM (%1$s) q";
+  public static final String SQL_SELECT_STAGED_DATA =
+      "SELECT * FROM embl_data_staged WHERE worker_partition = ?";
+  public static final String SQL_DROP_STAGED_DATA = "DROP TABLE IF EXISTS embl_data_staged";
+  // shadow table loaded in the background and swapped in for the live table
+  public static final String SQL_CREATE_SHADOW_TABLE =
+      "CREATE UNLOGGED TABLE embl_data_shadow (LIKE embl_data INCLUDING ALL EXCLUDING INDEXES)";
+  public static final String SQL_DROP_SHADOW_TABLE = "DROP TABLE IF EXISTS embl_data_shadow";
+  // load order of a shadow table loaded by several transactions: the range of the raw data set by
+  // each transaction, then the order within the transaction; nullable, the copy tables of the
+  // writers are created LIKE the shadow table
+  public static final String SQL_ADD_SHADOW_LOAD_ORDER =
+      "CREATE SEQUENCE embl_data_shadow_load_row; "
+          + "ALTER TABLE embl_data_shadow "
+          + "ADD COLUMN load_range integer "
+          + "DEFAULT nullif(current_setting('embl.load_range', true), '')::integer, "
+          + "ADD COLUMN load_row bigint DEFAULT nextval('embl_data_shadow_load_row'); "
+          + "ALTER SEQUENCE embl_data_shadow_load_row OWNED BY embl_data_shadow.load_row";
+  public static final String SQL_SET_SHADOW_LOAD_RANGE =
+      "SELECT set_config('embl.load_range', ?, true)";
+  public static final String SQL_DROP_SHADOW_LOAD_ORDER =
+      "ALTER TABLE embl_data_shadow DROP COLUMN load_range, DROP COLUMN load_row";
+  public static final String SQL_INSERT_SHADOW_PROCESSED_DATA =
+      "INSERT INTO embl_data("
+          + SQL_COLUMNS_PROCESSED_DATA
+          + ") SELECT "
+          + SQL_COLUMNS_PROCESSED_DATA
+          + " FROM embl_data_shadow";
+  public static final String SQL_SELECT_INDEXES =
+      "SELECT c.relname, pg_get_indexdef(i.indexrelid), i.indisunique, "
+          + "con.conname IS NOT NULL, pg_get_constraintdef(con.oid), "
+          + "CASE WHEN i.indexprs IS NULL AND i.indpred IS NULL THEN "
+          + "(SELECT array_agg(a.attname ORDER BY k.n) "
+          + "FROM unnest(i.indkey::int2[]) WITH ORDINALITY k(attnum, n) "
+          + "JOIN pg_attribute a ON a.attrelid = i.indrelid AND a.attnum = k.attnum "
+          + "WHERE k.n <= i.indnkeyatts) END "
+          + "FROM pg_index i JOIN pg_class c ON c.oid = i.indexrelid "
+          + "LEFT JOIN pg_constraint con ON con.conindid = i.indexrelid AND con.conrelid = i.indrelid "
+          + "WHERE i.indrelid = ?::regclass";
+  public static final String SQL_SELECT_INDEX_EXISTS = "SELECT to_regclass(?) IS NOT NULL";
+  public static final String SQL_SELECT_PERSISTENCE =
+      "SELECT relpersistence FROM pg_class WHERE oid = ?::regclass";
+  public static final String SQL_SELECT_GRANTS =
+      "SELECT grantee, privilege_type FROM information_schema.role_table_grants "
+          + "WHERE table_schema = current_schema() AND table_name = ?";
+  public static final String SQL_SELECT_HARVEST_STATE =
+      "SELECT last_harvest FROM embl_harvest_state WHERE task_name = ?";
+  public static final String SQL_UPSERT_HARVEST_STATE =
+      "INSERT INTO embl_harvest_state(task_name, last_harvest) VALUES (?, ?) "
+          + "ON CONFLICT (task_name) DO UPDATE SET last_harvest = EXCLUDED.last_harvest";
+  public static final String SQL_COPY_TAXONOMY =
+      "COPY ena_taxonomy(taxon_id, kingdom, phylum, class, \"order\", family, genus) FROM STDIN";
+  public static final String SQL_SELECT_TAXONOMY =
+      "SELECT taxon_id, kingdom, phylum, class, \"order\", family, genus FROM ena_taxonomy";
+  public static final String SQL_SELECT_TAXONOMY_STATE =
+      "SELECT etag, last_modified, content_hash FROM ena_taxonomy_state WHERE archive_url = ?";
+  public static final String SQL_UPSERT_TAXONOMY_STATE =
+      "INSERT INTO ena_taxonomy_state(archive_url, etag, last_modified, content_hash, last_load) "
+          + "VALUES (?, ?, ?, ?, now()) ON CONFLICT (archive_url) DO UPDATE SET "
+          + "etag = EXCLUDED.etag, last_modified = EXCLUDED.last_modified, "
+          + "content_hash = EXCLUDED.content_hash, last_load = EXCLUDED.last_load";
+  public static final String SQL_SELECT_TAXONOMY_EXISTS =
+      "SELECT EXISTS (SELECT 1 FROM ena_taxonomy)";
+  public static final String SQL_DELETE_TAXONOMY_REMOVED =
+      "DELETE FROM ena_taxonomy t WHERE NOT EXISTS "
+          + "(SELECT 1 FROM ena_taxonomy_shadow s WHERE s.taxon_id = t.taxon_id)";
+  // inserted rows have no xmax, updated ones have the xmax of the updating transaction
+  public static final String SQL_UPSERT_TAXONOMY_CHANGED =
+      "WITH changed AS ("
+          + "INSERT INTO ena_taxonomy(taxon_id, kingdom, phylum, class, \"order\", family, genus) "
+          + "SELECT taxon_id, kingdom, phylum, class, \"order\", family, genus "
+          + "FROM ena_taxonomy_shadow "
+          + "ON CONFLICT (taxon_id) DO UPDATE SET kingdom = EXCLUDED.kingdom, "
+          + "phylum = EXCLUDED.phylum, class = EXCLUDED.class, \"order\" = EXCLUDED.\"order\", "
+          + "family = EXCLUDED.family, genus = EXCLUDED.genus "
+          + "WHERE (ena_taxonomy.kingdom, ena_taxonomy.phylum, ena_taxonomy.class, "
+          + "ena_taxonomy.\"order\", ena_taxonomy.family, ena_taxonomy.genus) IS DISTINCT FROM "
+          + "(EXCLUDED.kingdom, EXCLUDED.phylum, EXCLUDED.class, EXCLUDED.\"order\", "
+          + "EXCLUDED.family, EXCLUDED.genus) "
+          + "RETURNING xmax = 0 AS inserted) "
+          + "SELECT count(*) FILTER (WHERE inserted), count(*) FILTER (WHERE NOT inserted) "
+          + "FROM changed";
 
   // Index constants - column index in downloaded data file
   public static final String ACCESSION_COLUMN = "accession";
@@ -88,6 +235,7 @@ public final class EmblAdapterConstants {
   public static final String SEX_COLUMN = "sex";
   public static final String DESCRIPTION_COLUMN = "description";
   public static final String HOST_COLUMN = "host";
+  public static final String ENVIRONMENTAL_SAMPLE_COLUMN = "environmental_sample";
 
   // Index constants - column index in taxonomy database select
   public static final String TAXON_ID_COLUMN = "taxon_id";
@@ -155,4 +303,43 @@ public final class EmblAdapterConstants {
   public static final int PROCESSED_INDEX_GENUS = 26;
 
   private EmblAdapterConstants() {}
+
+  /**
+   * Upserts the records selected by the query (raw data columns) and remembers them in the delta
+   * table.
+   */
+  private static String upsertRawData(String records) {
+    return "WITH input("
+        + SQL_COLUMNS_RAW_DATA
+        + ") AS ("
+        + records
+        + "), previous AS (SELECT e.accession, e.scientific_name FROM embl_data e "
+        + "JOIN input i ON i.accession = e.accession), "
+        + "upserted AS (INSERT INTO embl_data("
+        + SQL_COLUMNS_RAW_DATA
+        + ") SELECT "
+        + SQL_COLUMNS_RAW_DATA
+        + " FROM input ON CONFLICT (accession) DO UPDATE SET "
+        + updateColumns(SQL_COLUMNS_RAW_DATA)
+        + " WHERE NOT EXISTS (SELECT 1 FROM embl_data_delta d "
+        + "WHERE d.accession = EXCLUDED.accession AND d.current_harvest) "
+        + "RETURNING accession, scientific_name) "
+        + "INSERT INTO embl_data_delta(accession, scientific_name) "
+        + "SELECT u.accession, CASE WHEN p.accession IS NULL THEN u.scientific_name "
+        + "ELSE p.scientific_name END "
+        + "FROM upserted u LEFT JOIN previous p ON p.accession = u.accession "
+        + "ON CONFLICT (accession) DO UPDATE SET current_harvest = true";
+  }
+
+  // "a, b" -> "a = EXCLUDED.a, b = EXCLUDED.b"
+  private static String updateColumns(String columns) {
+    StringBuilder sb = new StringBuilder();
+    for (String column : columns.split(",")) {
+      if (sb.length() > 0) {
+        sb.append(", ");
+      }
+      sb.append(column.trim()).append(" = EXCLUDED.").append(column.trim());
+    }
+    return sb.toString();
+  }
 }
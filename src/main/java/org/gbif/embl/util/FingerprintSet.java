@@ -0,0 +1,490 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.embl.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Set of 64 or 128 bit fingerprints (hashes) in a primitive open addressing hash table.
+ * <p>
+ * An entry is one (or two) longs, there are no per-entry objects. The table can be stored on the
+ * heap or off-heap (direct memory). If the number of entries in memory is bounded, a full table is
+ * sorted in place and spilled into a memory-mapped file, so memory stays flat regardless of the
+ * number of entries. Spilled runs of similar size are merged, there are at most log2(spills) + 1
+ * runs to search.
+ */
+public class FingerprintSet implements Closeable {
+
+  private static final double LOAD_FACTOR = 0.7;
+  private static final int INITIAL_CAPACITY = 1 << 16;
+  // longs written to a spilled run at once
+  private static final int WRITE_CHUNK = 1 << 16;
+  // longs per mapped segment of a spilled run (a mapping is limited to 2 GB)
+  private static final int SEGMENT_SIZE = 1 << 26;
+
+  private final int width;
+  private final boolean offHeap;
+  private final long maxEntriesInMemory;
+  private final Path spillDirectory;
+  // ordered by decreasing size
+  private final List<SpilledRun> runs = new ArrayList<>();
+
+  // the direct buffer of the table, null on the heap
+  private ByteBuffer tableMemory;
+  private LongBuffer table;
+  private int capacity;
+  private int threshold;
+  private int size;
+  private long spilledSize;
+  // zero marks empty slots, the zero fingerprint is not stored in the table
+  private boolean zeroInMemory;
+
+  /**
+   * @param wide 128 bit (two longs) fingerprints, 64 bit otherwise
+   * @param offHeap store the table in direct memory
+   * @param maxEntriesInMemory entries kept in memory before spilling to disk, 0 means unbounded
+   * @param spillDirectory directory for spilled runs, used only if maxEntriesInMemory is set
+   */
+  public FingerprintSet(
+      boolean wide, boolean offHeap, long maxEntriesInMemory, Path spillDirectory) {
+    this.width = wide ? 2 : 1;
+    this.offHeap = offHeap;
+    this.maxEntriesInMemory = maxEntriesInMemory;
+    this.spillDirectory = spillDirectory;
+
+    int maxCapacity = maxCapacity();
+    if (maxEntriesInMemory > 0) {
+      if (maxEntriesInMemory / LOAD_FACTOR > maxCapacity) {
+        throw new IllegalArgumentException(
+            "Too many entries in memory: " + maxEntriesInMemory + ", max " + maxCapacity);
+      }
+      // allocate the final size at once, the table never grows
+      allocate(tableSizeFor((long) Math.ceil(maxEntriesInMemory / LOAD_FACTOR)));
+    } else {
+      allocate(INITIAL_CAPACITY);
+    }
+  }
+
+  /**
+   * Adds a fingerprint, returns false if it was present already. The second long is ignored for 64
+   * bit fingerprints.
+   */
+  public boolean add(long h1, long h2) {
+    if (width == 1) {
+      h2 = 0;
+    }
+    if (h1 == 0 && h2 == 0) {
+      if (zeroInMemory || inRuns(0, 0)) {
+        return false;
+      }
+      zeroInMemory = true;
+      return added();
+    }
+
+    int mask = capacity - 1;
+    int slot = (int) (h1 ^ (h1 >>> 32)) & mask;
+    while (true) {
+      int i = slot * width;
+      long k1 = table.get(i);
+      long k2 = width == 2 ? table.get(i + 1) : 0;
+      if (k1 == 0 && k2 == 0) {
+        break;
+      }
+      if (k1 == h1 && k2 == h2) {
+        return false;
+      }
+      slot = (slot + 1) & mask;
+    }
+
+    if (inRuns(h1, h2)) {
+      return false;
+    }
+
+    int i = slot * width;
+    table.put(i, h1);
+    if (width == 2) {
+      table.put(i + 1, h2);
+    }
+    return added();
+  }
+
+  private boolean inRuns(long h1, long h2) {
+    for (SpilledRun run : runs) {
+      if (run.contains(h1, h2)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean added() {
+    size++;
+    if (maxEntriesInMemory > 0 && size >= maxEntriesInMemory) {
+      spill();
+    } else if (size > threshold) {
+      grow();
+    }
+    return true;
+  }
+
+  /** Number of fingerprints in the set. */
+  public long size() {
+    return size + spilledSize;
+  }
+
+  /** Number of runs spilled to disk. */
+  public int spilledRuns() {
+    return runs.size();
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      for (SpilledRun run : runs) {
+        run.close();
+      }
+    } finally {
+      runs.clear();
+      DirectBuffers.release(tableMemory);
+      tableMemory = null;
+      table = null;
+    }
+  }
+
+  private int maxCapacity() {
+    // a direct buffer is limited to 2 GB, an array to 2^31 elements
+    return Integer.highestOneBit((offHeap ? Integer.MAX_VALUE / Long.BYTES : 1 << 30) / width);
+  }
+
+  private static int tableSizeFor(long entries) {
+    long n = Long.highestOneBit(Math.max(entries - 1, 1)) << 1;
+    return (int) Math.max(n, 2);
+  }
+
+  private void allocate(int newCapacity) {
+    capacity = newCapacity;
+    threshold = (int) (newCapacity * LOAD_FACTOR);
+    if (offHeap) {
+      tableMemory =
+          ByteBuffer.allocateDirect(newCapacity * width * Long.BYTES)
+              .order(ByteOrder.nativeOrder());
+      table = tableMemory.asLongBuffer();
+    } else {
+      table = LongBuffer.wrap(new long[newCapacity * width]);
+    }
+  }
+
+  private void grow() {
+    if (capacity >= maxCapacity()) {
+      throw new IllegalStateException(
+          "Fingerprint set is full (" + size + " entries), configure spilling");
+    }
+
+    ByteBuffer oldMemory = tableMemory;
+    LongBuffer old = table;
+    int oldCapacity = capacity;
+    allocate(capacity << 1);
+    int mask = capacity - 1;
+    for (int s = 0; s < oldCapacity; s++) {
+      long h1 = old.get(s * width);
+      long h2 = width == 2 ? old.get(s * width + 1) : 0;
+      if (h1 == 0 && h2 == 0) {
+        continue;
+      }
+      int slot = (int) (h1 ^ (h1 >>> 32)) & mask;
+      while (table.get(slot * width) != 0 || (width == 2 && table.get(slot * width + 1) != 0)) {
+        slot = (slot + 1) & mask;
+      }
+      table.put(slot * width, h1);
+      if (width == 2) {
+        table.put(slot * width + 1, h2);
+      }
+    }
+    DirectBuffers.release(oldMemory);
+  }
+
+  /** Sorts the table in place, writes it to a new run and clears it. */
+  private void spill() {
+    int entries = compact();
+    if (width == 1 && table.hasArray()) {
+      Arrays.sort(table.array(), 0, entries);
+    } else {
+      sort(table, entries, width);
+    }
+
+    try (RunWriter writer = new RunWriter()) {
+      for (int e = 0; e < entries; e++) {
+        int i = e * width;
+        long h1 = table.get(i);
+        long h2 = width == 2 ? table.get(i + 1) : 0;
+        if (zeroInMemory && compare(h1, h2, 0, 0) > 0) {
+          writer.put(0, 0);
+          zeroInMemory = false;
+        }
+        writer.put(h1, h2);
+        table.put(i, 0);
+        if (width == 2) {
+          table.put(i + 1, 0);
+        }
+      }
+      if (zeroInMemory) {
+        writer.put(0, 0);
+        zeroInMemory = false;
+      }
+      runs.add(writer.complete());
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to spill fingerprints", e);
+    }
+
+    spilledSize += size;
+    size = 0;
+
+    // merge the last run into the previous one while it's not smaller, like a binary counter
+    while (runs.size() > 1 && runs.get(runs.size() - 1).size >= runs.get(runs.size() - 2).size) {
+      SpilledRun last = runs.remove(runs.size() - 1);
+      SpilledRun previous = runs.remove(runs.size() - 1);
+      runs.add(merge(previous, last));
+    }
+  }
+
+  /** Moves the entries to the front of the table, returns their number. */
+  private int compact() {
+    int entries = 0;
+    for (int s = 0; s < capacity; s++) {
+      int i = s * width;
+      long h1 = table.get(i);
+      long h2 = width == 2 ? table.get(i + 1) : 0;
+      if (h1 == 0 && h2 == 0) {
+        continue;
+      }
+      if (s != entries) {
+        int j = entries * width;
+        table.put(j, h1);
+        table.put(i, 0);
+        if (width == 2) {
+          table.put(j + 1, h2);
+          table.put(i + 1, 0);
+        }
+      }
+      entries++;
+    }
+    return entries;
+  }
+
+  private SpilledRun merge(SpilledRun a, SpilledRun b) {
+    try (RunWriter writer = new RunWriter()) {
+      long i = 0;
+      long j = 0;
+      while (i < a.size || j < b.size) {
+        int c;
+        if (i == a.size) {
+          c = 1;
+        } else if (j == b.size) {
+          c = -1;
+        } else {
+          c = compare(a.first(i), a.second(i), b.first(j), b.second(j));
+        }
+        SpilledRun from = c <= 0 ? a : b;
+        long index = c <= 0 ? i++ : j++;
+        if (c == 0) {
+          j++;
+        }
+        writer.put(from.first(index), from.second(index));
+      }
+      SpilledRun merged = writer.complete();
+      a.close();
+      b.close();
+      return merged;
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to merge spilled fingerprints", e);
+    }
+  }
+
+  private static int compare(long a1, long a2, long b1, long b2) {
+    int c = Long.compare(a1, b1);
+    return c != 0 ? c : Long.compare(a2, b2);
+  }
+
+  // in-place heap sort of the first n entries of one or two longs
+  private static void sort(LongBuffer a, int n, int width) {
+    for (int i = n / 2 - 1; i >= 0; i--) {
+      siftDown(a, i, n, width);
+    }
+    for (int end = n - 1; end > 0; end--) {
+      swap(a, 0, end, width);
+      siftDown(a, 0, end, width);
+    }
+  }
+
+  private static void siftDown(LongBuffer a, int i, int n, int width) {
+    while (true) {
+      int largest = i;
+      int left = 2 * i + 1;
+      int right = left + 1;
+      if (left < n && compare(a, left, largest, width) > 0) {
+        largest = left;
+      }
+      if (right < n && compare(a, right, largest, width) > 0) {
+        largest = right;
+      }
+      if (largest == i) {
+        return;
+      }
+      swap(a, i, largest, width);
+      i = largest;
+    }
+  }
+
+  private static int compare(LongBuffer a, int i, int j, int width) {
+    return width == 1
+        ? Long.compare(a.get(i), a.get(j))
+        : compare(a.get(2 * i), a.get(2 * i + 1), a.get(2 * j), a.get(2 * j + 1));
+  }
+
+  private static void swap(LongBuffer a, int i, int j, int width) {
+    for (int k = 0; k < width; k++) {
+      long t = a.get(i * width + k);
+      a.put(i * width + k, a.get(j * width + k));
+      a.put(j * width + k, t);
+    }
+  }
+
+  /** Writes sorted fingerprints into a new run file in chunks. */
+  private class RunWriter implements Closeable {
+    private final Path file;
+    private final FileChannel channel;
+    private final ByteBuffer chunk =
+        ByteBuffer.allocate(WRITE_CHUNK * Long.BYTES).order(ByteOrder.nativeOrder());
+    private final LongBuffer longs = chunk.asLongBuffer();
+    private long written;
+    private boolean complete;
+
+    RunWriter() throws IOException {
+      file = Files.createTempFile(spillDirectory, "fingerprints-", ".run");
+      channel = FileChannel.open(file, StandardOpenOption.WRITE);
+    }
+
+    void put(long h1, long h2) throws IOException {
+      if (longs.remaining() < width) {
+        flush();
+      }
+      longs.put(h1);
+      if (width == 2) {
+        longs.put(h2);
+      }
+      written++;
+    }
+
+    SpilledRun complete() throws IOException {
+      flush();
+      channel.close();
+      complete = true;
+      return new SpilledRun(file, written);
+    }
+
+    private void flush() throws IOException {
+      chunk.position(0).limit(longs.position() * Long.BYTES);
+      while (chunk.hasRemaining()) {
+        channel.write(chunk);
+      }
+      chunk.clear();
+      longs.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+      channel.close();
+      if (!complete) {
+        Files.deleteIfExists(file);
+      }
+    }
+  }
+
+  /** Sorted fingerprints spilled into a file, mapped in segments. */
+  private class SpilledRun implements Closeable {
+    private final Path file;
+    private final long size;
+    private final MappedByteBuffer[] mapped;
+    private final LongBuffer[] segments;
+
+    SpilledRun(Path file, long size) throws IOException {
+      this.file = file;
+      this.size = size;
+      long longs = size * width;
+      int count = (int) ((longs + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+      mapped = new MappedByteBuffer[count];
+      segments = new LongBuffer[count];
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+        for (int s = 0; s < count; s++) {
+          long start = (long) s * SEGMENT_SIZE;
+          long length = Math.min(SEGMENT_SIZE, longs - start);
+          mapped[s] =
+              channel.map(FileChannel.MapMode.READ_ONLY, start * Long.BYTES, length * Long.BYTES);
+          segments[s] = mapped[s].order(ByteOrder.nativeOrder()).asLongBuffer();
+        }
+      }
+    }
+
+    long first(long index) {
+      return get(index * width);
+    }
+
+    long second(long index) {
+      return width == 2 ? get(index * width + 1) : 0;
+    }
+
+    // SEGMENT_SIZE is a multiple of the width, an entry is never split
+    private long get(long position) {
+      return segments[(int) (position / SEGMENT_SIZE)].get((int) (position % SEGMENT_SIZE));
+    }
+
+    boolean contains(long h1, long h2) {
+      long low = 0;
+      long high = size - 1;
+      while (low <= high) {
+        long mid = (low + high) >>> 1;
+        int c = compare(first(mid), second(mid), h1, h2);
+        if (c < 0) {
+          low = mid + 1;
+        } else if (c > 0) {
+          high = mid - 1;
+        } else {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+      for (MappedByteBuffer buffer : mapped) {
+        DirectBuffers.release(buffer);
+      }
+      Files.deleteIfExists(file);
+    }
+  }
+}
@@ -0,0 +1,169 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.embl.util;
+
+/**
+ * Finds the coordinates in ENA location values like {@code "12.34 N 56.78 W"} without regular
+ * expressions and without allocating.
+ * <p>
+ * Matches exactly like {@code LOCATION_PATTERN.matcher(location).find()}: the first occurrence of
+ * number, whitespace, letter, whitespace, number, whitespace, letter, where a number is a run of
+ * digits and dots and a letter is a word character. The positions of the last match are kept,
+ * so an instance is reused for many values but not shared between threads.
+ */
+public final class LocationParser {
+
+  private String location;
+  private int latitudeStart;
+  private int latitudeEnd;
+  private int longitudeStart;
+  private int longitudeEnd;
+
+  /**
+   * Finds the coordinates in the location.
+   *
+   * @return true if the location contains coordinates
+   */
+  public boolean find(String location) {
+    this.location = location;
+    int length = location.length();
+    int i = 0;
+    while (i < length) {
+      if (!isNumberChar(location.charAt(i))) {
+        i++;
+        continue;
+      }
+
+      // a number run, the match can only start at its beginning
+      int start = i;
+      int end = skipNumber(location, i);
+      if (matchRest(location, start, end)) {
+        return true;
+      }
+      i = end;
+    }
+    return false;
+  }
+
+  /** Latitude as in the location, without the hemisphere. */
+  public String latitude() {
+    return location.substring(latitudeStart, latitudeEnd);
+  }
+
+  /** Hemisphere letter of the latitude, N or S for valid values. */
+  public char latitudeLetter() {
+    return location.charAt(skipSpaces(location, latitudeEnd));
+  }
+
+  /** Latitude as a number, NaN if it is not a valid number. */
+  public double latitudeValue() {
+    return toDouble(location, latitudeStart, latitudeEnd);
+  }
+
+  /** Longitude as in the location, without the hemisphere. */
+  public String longitude() {
+    return location.substring(longitudeStart, longitudeEnd);
+  }
+
+  /** Hemisphere letter of the longitude, E or W for valid values. */
+  public char longitudeLetter() {
+    return location.charAt(skipSpaces(location, longitudeEnd));
+  }
+
+  /** Longitude as a number, NaN if it is not a valid number. */
+  public double longitudeValue() {
+    return toDouble(location, longitudeStart, longitudeEnd);
+  }
+
+  /** Matches "\s+\w\s+[0-9.]+\s+\w" after the first number. */
+  private boolean matchRest(String s, int start, int end) {
+    int i = skipSpaces(s, end);
+    if (i == end || i >= s.length() || !isWordChar(s.charAt(i))) {
+      return false;
+    }
+    int afterLetter = i + 1;
+    i = skipSpaces(s, afterLetter);
+    if (i == afterLetter || i >= s.length() || !isNumberChar(s.charAt(i))) {
+      return false;
+    }
+    int secondStart = i;
+    int secondEnd = skipNumber(s, i);
+    i = skipSpaces(s, secondEnd);
+    if (i == secondEnd || i >= s.length() || !isWordChar(s.charAt(i))) {
+      return false;
+    }
+
+    latitudeStart = start;
+    latitudeEnd = end;
+    longitudeStart = secondStart;
+    longitudeEnd = secondEnd;
+    return true;
+  }
+
+  private static int skipNumber(String s, int i) {
+    while (i < s.length() && isNumberChar(s.charAt(i))) {
+      i++;
+    }
+    return i;
+  }
+
+  private static int skipSpaces(String s, int i) {
+    while (i < s.length() && isSpace(s.charAt(i))) {
+      i++;
+    }
+    return i;
+  }
+
+  /** Parses digits with at most one dot, NaN otherwise. */
+  private static double toDouble(String s, int start, int end) {
+    double value = 0;
+    double fraction = 0;
+    boolean dot = false;
+    boolean anyDigit = false;
+    for (int i = start; i < end; i++) {
+      char c = s.charAt(i);
+      if (c == '.') {
+        if (dot) {
+          return Double.NaN;
+        }
+        dot = true;
+        fraction = 1;
+      } else {
+        anyDigit = true;
+        if (dot) {
+          fraction /= 10;
+          value += (c - '0') * fraction;
+        } else {
+          value = value * 10 + (c - '0');
+        }
+      }
+    }
+    return anyDigit ? value : Double.NaN;
+  }
+
+  // same as [0-9.] of the pattern
+  private static boolean isNumberChar(char c) {
+    return (c >= '0' && c <= '9') || c == '.';
+  }
+
+  // same as \s of the pattern
+  private static boolean isSpace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+  }
+
+  // same as \w of the pattern
+  private static boolean isWordChar(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+  }
+}
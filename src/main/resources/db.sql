@@ -47,3 +47,18 @@ CREATE TABLE embl_data_processed
     family                      text,
     genus                       text
 );
+
+
+-- used by incremental harvest only (tasks[].incremental), created by the task for the other tables
+CREATE TABLE embl_data_delta
+(
+    accession       text PRIMARY KEY,
+    scientific_name text,
+    current_harvest boolean NOT NULL DEFAULT true
+);
+
+CREATE TABLE embl_harvest_state
+(
+    task_name    text PRIMARY KEY,
+    last_harvest date
+);
@@ -8,3 +8,13 @@ CREATE TABLE ena_taxonomy
     family   text,
     genus    text
 );
+
+-- used by conditional refresh only (conditionalRefresh)
+CREATE TABLE ena_taxonomy_state
+(
+    archive_url   text PRIMARY KEY,
+    etag          text,
+    last_modified text,
+    content_hash  text,
+    last_load     timestamp
+);
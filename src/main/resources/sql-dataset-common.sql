@@ -41,7 +41,7 @@ FROM (
                 description,
                 host
          FROM embl_data
-         WHERE scientific_name NOT ILIKE 'Homo%sapiens%') as ed
-           AND host NOT ILIKE '%Homo%sap%'
+         WHERE scientific_name NOT ILIKE 'Homo%sapiens%'
+           AND host NOT ILIKE '%Homo%sap%') as ed
          LEFT JOIN ena_taxonomy et ON ed.tax_id = et.taxon_id
 WHERE ed.row_num_1 < 50 AND (ed.row_num_2 = 1 OR ed.specimen_voucher = '')
@@ -0,0 +1,167 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.embl.cli;
+
+import org.gbif.dwc.terms.DwcTerm;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class DwcaCoreReaderTest {
+
+  private static final String META =
+      "<archive xmlns=\"http://rs.tdwg.org/dwc/text/\">"
+          + "<core encoding=\"UTF-8\" fieldsTerminatedBy=\"\\t\" fieldsEnclosedBy=\"\""
+          + " ignoreHeaderLines=\"1\" rowType=\"http://rs.tdwg.org/dwc/terms/Taxon\">"
+          + "<files><location>taxon.txt</location></files>"
+          + "<id index=\"0\"/>"
+          + "<field index=\"0\" term=\"http://rs.tdwg.org/dwc/terms/taxonID\"/>"
+          + "<field index=\"1\" term=\"http://rs.tdwg.org/dwc/terms/scientificName\"/>"
+          + "<field index=\"2\" term=\"http://rs.tdwg.org/dwc/terms/kingdom\""
+          + " default=\"Animalia\"/>"
+          + "<field term=\"http://rs.tdwg.org/dwc/terms/phylum\" default=\"Chordata\"/>"
+          + "</core>"
+          + "<extension><files><location>vernacular.txt</location></files></extension>"
+          + "</archive>";
+
+  private static final String TAXA =
+      "taxonID\tscientificName\tkingdom\n" + "1\tHomo sapiens\t\n" + "\n" + "2\tPinus\tPlantae\n";
+
+  @TempDir Path spillDir;
+
+  @Test
+  void metaBeforeCore() throws IOException {
+    byte[] archive =
+        zip("eml.xml", "<eml/>", "meta.xml", META, "taxon.txt", TAXA, "vernacular.txt", "x");
+
+    try (DwcaCoreReader reader = open(archive)) {
+      assertTaxa(reader);
+    }
+    assertEquals(0, spilled());
+  }
+
+  @Test
+  void coreBeforeMeta() throws IOException {
+    byte[] archive = zip("taxon.txt", TAXA, "vernacular.txt", "x", "meta.xml", META);
+
+    try (DwcaCoreReader reader = open(archive)) {
+      // the entries before meta.xml are copied, the core file is read from its copy
+      assertEquals(2, spilled());
+      assertTaxa(reader);
+    }
+    assertEquals(0, spilled());
+  }
+
+  @Test
+  void subdirectory() throws IOException {
+    byte[] archive = zip("dwca/meta.xml", META, "taxon.txt", "x", "dwca/taxon.txt", TAXA);
+
+    try (DwcaCoreReader reader = open(archive)) {
+      assertTaxa(reader);
+    }
+    assertEquals(0, spilled());
+  }
+
+  @Test
+  void quotes() throws IOException {
+    String meta =
+        "<archive><core ignoreHeaderLines=\"0\">"
+            + "<files><location>taxon.csv</location></files>"
+            + "<field index=\"0\" term=\"http://rs.tdwg.org/dwc/terms/taxonID\"/>"
+            + "</core></archive>";
+    String taxa =
+        "1,\"Homo, sapiens\",x\n"
+            + "\"2\",\"a \"\"quoted\"\" name\",\n"
+            + "3,\"\",\"unclosed\n"
+            + "4,\"kept\" after,a\"b\n";
+    byte[] archive = zip("meta.xml", meta, "taxon.csv", taxa);
+
+    try (DwcaCoreReader reader = open(archive)) {
+      assertArrayEquals(new String[] {"1", "Homo, sapiens", "x"}, reader.next());
+      assertArrayEquals(new String[] {"2", "a \"quoted\" name", ""}, reader.next());
+      assertArrayEquals(new String[] {"3", "", "unclosed"}, reader.next());
+      assertArrayEquals(new String[] {"4", "kept after", "a\"b"}, reader.next());
+      assertNull(reader.next());
+    }
+  }
+
+  @Test
+  void invalidArchives() throws IOException {
+    assertThrows(IOException.class, () -> open(zip("taxon.txt", TAXA)));
+    assertThrows(IOException.class, () -> open(zip("meta.xml", META, "other.txt", TAXA)));
+    assertThrows(IOException.class, () -> open(zip("meta.xml", "<archive/>")));
+    assertThrows(
+        IOException.class,
+        () -> open(zip("meta.xml", META.replace("\"\\t\"", "\"::\""), "taxon.txt", TAXA)));
+    assertThrows(
+        IOException.class,
+        () -> open(zip("meta.xml", "<!DOCTYPE archive []><archive/>", "taxon.txt", TAXA)));
+    // the copies are deleted when the archive can't be read
+    assertEquals(0, spilled());
+  }
+
+  private static void assertTaxa(DwcaCoreReader reader) throws IOException {
+    String[] row = reader.next();
+    assertEquals("1", reader.value(row, DwcTerm.taxonID));
+    assertEquals("Homo sapiens", reader.value(row, DwcTerm.scientificName));
+    // empty and not mapped values have the default value
+    assertEquals("Animalia", reader.value(row, DwcTerm.kingdom));
+    assertEquals("Chordata", reader.value(row, DwcTerm.phylum));
+    assertNull(reader.value(row, DwcTerm.genus));
+
+    // blank lines are skipped
+    row = reader.next();
+    assertEquals("2", reader.value(row, DwcTerm.taxonID));
+    assertEquals("Plantae", reader.value(row, DwcTerm.kingdom));
+    assertNull(reader.next());
+  }
+
+  private DwcaCoreReader open(byte[] archive) throws IOException {
+    return DwcaCoreReader.open(new ByteArrayInputStream(archive), spillDir);
+  }
+
+  private long spilled() throws IOException {
+    try (Stream<Path> files = Files.list(spillDir)) {
+      return files.count();
+    }
+  }
+
+  /** Zip archive of the entries, given as name and content pairs. */
+  private static byte[] zip(String... entries) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+      for (int i = 0; i < entries.length; i += 2) {
+        zip.putNextEntry(new ZipEntry(entries[i]));
+        zip.write(entries[i + 1].getBytes(StandardCharsets.UTF_8));
+        zip.closeEntry();
+      }
+    }
+    return bytes.toByteArray();
+  }
+}
@@ -0,0 +1,213 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.embl.cli;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class HttpDownloaderTest {
+
+  private static final String ETAG = "\"v1\"";
+
+  @TempDir Path dir;
+
+  private ServerSocket server;
+  private byte[] content;
+  // bytes sent per response at most, the connection is dropped after them
+  private int chunk = Integer.MAX_VALUE;
+  private final List<String> ranges = new CopyOnWriteArrayList<>();
+
+  @BeforeEach
+  void startServer() throws IOException {
+    content = new byte[10_000];
+    for (int i = 0; i < content.length; i++) {
+      content[i] = (byte) ('a' + i % 26);
+    }
+    server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    Thread thread = new Thread(this::serve);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  @AfterEach
+  void stopServer() throws IOException {
+    server.close();
+  }
+
+  @Test
+  void download() throws IOException {
+    Path target = dir.resolve("data.tsv");
+
+    HttpDownloader.Validators validators = downloader(0).download(url(), target, null);
+
+    assertArrayEquals(content, Files.readAllBytes(target));
+    assertEquals(ETAG, validators.etag());
+    assertFalse(Files.exists(dir.resolve("data.tsv.part")));
+    assertFalse(Files.exists(dir.resolve("data.tsv.part.validators")));
+  }
+
+  @Test
+  void resumePartOfFailedDownload() throws IOException {
+    Path target = dir.resolve("data.tsv");
+    Files.write(dir.resolve("data.tsv.part"), Arrays.copyOf(content, 4000));
+    Files.writeString(dir.resolve("data.tsv.part.validators"), ETAG + "\n\n");
+
+    downloader(0).download(url(), target);
+
+    assertEquals(List.of("bytes=4000-"), ranges);
+    assertArrayEquals(content, Files.readAllBytes(target));
+    assertFalse(Files.exists(dir.resolve("data.tsv.part")));
+  }
+
+  @Test
+  void restartPartOfChangedResource() throws IOException {
+    Path target = dir.resolve("data.tsv");
+    Files.writeString(dir.resolve("data.tsv.part"), "old content");
+    Files.writeString(dir.resolve("data.tsv.part.validators"), "\"v0\"\n\n");
+
+    downloader(0).download(url(), target);
+
+    assertArrayEquals(content, Files.readAllBytes(target));
+  }
+
+  @Test
+  void keepPartOfFailedDownload() throws IOException {
+    Path target = dir.resolve("data.tsv");
+    chunk = 3000;
+
+    try {
+      downloader(0).download(url(), target);
+    } catch (IOException e) {
+      // expected, no retries
+    }
+
+    assertFalse(Files.exists(target));
+    assertEquals(3000, Files.size(dir.resolve("data.tsv.part")));
+    assertEquals(ETAG, Files.readString(dir.resolve("data.tsv.part.validators")).trim());
+
+    chunk = Integer.MAX_VALUE;
+    downloader(0).download(url(), target);
+
+    assertEquals(List.of("bytes=3000-"), ranges);
+    assertArrayEquals(content, Files.readAllBytes(target));
+  }
+
+  @Test
+  void retriesAreResetAfterProgress() throws IOException {
+    Path target = dir.resolve("data.tsv");
+    // 10 dropped connections, 1 retry in a row allowed
+    chunk = 1000;
+
+    downloader(1).download(url(), target);
+
+    assertEquals(9, ranges.size());
+    assertArrayEquals(content, Files.readAllBytes(target));
+  }
+
+  @Test
+  void notModified() throws IOException {
+    Path target = dir.resolve("data.tsv");
+
+    assertNull(downloader(0).download(url(), target, new HttpDownloader.Validators(ETAG, null)));
+    assertFalse(Files.exists(target));
+  }
+
+  private HttpDownloader downloader(int maxRetries) {
+    DownloadConfiguration config = new DownloadConfiguration();
+    config.maxRetries = maxRetries;
+    config.retryDelay = 1L;
+    config.gzip = false;
+    config.readTimeout = 5000;
+    return new HttpDownloader(config);
+  }
+
+  private String url() {
+    return "http://127.0.0.1:" + server.getLocalPort() + "/data";
+  }
+
+  /**
+   * Serves the content with ETag and byte ranges (If-Range), the connection is closed after chunk
+   * bytes of the body.
+   */
+  private void serve() {
+    while (!server.isClosed()) {
+      try (Socket socket = server.accept()) {
+        BufferedReader reader =
+            new BufferedReader(
+                new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1));
+        Map<String, String> headers = new HashMap<>();
+        reader.readLine();
+        String line;
+        while ((line = reader.readLine()) != null && !line.isEmpty()) {
+          int colon = line.indexOf(':');
+          headers.put(line.substring(0, colon).toLowerCase(), line.substring(colon + 1).trim());
+        }
+
+        boolean notModified = ETAG.equals(headers.get("if-none-match"));
+        int start = 0;
+        String range = headers.get("range");
+        if (range != null) {
+          ranges.add(range);
+          String ifRange = headers.get("if-range");
+          if (ifRange == null || ifRange.equals(ETAG)) {
+            start = Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+          }
+        }
+
+        StringBuilder response = new StringBuilder();
+        if (notModified) {
+          response.append("HTTP/1.1 304 Not Modified\r\n");
+        } else {
+          response.append(start > 0 ? "HTTP/1.1 206 Partial Content\r\n" : "HTTP/1.1 200 OK\r\n");
+          response.append("Content-Length: ").append(content.length - start).append("\r\n");
+          response.append("Accept-Ranges: bytes\r\n");
+        }
+        response.append("ETag: ").append(ETAG).append("\r\n");
+        response.append("Connection: close\r\n\r\n");
+
+        OutputStream out = socket.getOutputStream();
+        out.write(response.toString().getBytes(StandardCharsets.ISO_8859_1));
+        if (!notModified) {
+          out.write(content, start, Math.min(content.length - start, chunk));
+        }
+        out.flush();
+      } catch (IOException e) {
+        // closed by the client or stopped
+      }
+    }
+  }
+}
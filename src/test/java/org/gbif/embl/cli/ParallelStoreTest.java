@@ -0,0 +1,212 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.embl.cli;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringJoiner;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Stores the same raw data files by one and by several workers and compares the raw data tables:
+ * the first record of an accession wins (rawDataFile1 before rawDataFile2, earlier lines first),
+ * whatever the order the workers ran in. Needs Docker, skipped otherwise.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class ParallelStoreTest {
+
+  private static final int WORKERS = 4;
+  // the ranges are split by size: the first ranges of file1 have few long lines, the last one
+  // many short lines, so file2 is stored before the end of file1
+  private static final int LONG_LINES = 300;
+  private static final int LONG_LINE_PADDING = 20000;
+  private static final int SHORT_LINES = 20000;
+  private static final int FILE1_RECORDS = LONG_LINES + SHORT_LINES;
+  private static final int FILE2_RECORDS = 1000;
+  private static final int REPEATED = FILE2_RECORDS / 2;
+
+  private static final String HEADER =
+      "sample_accession\taccession\tlocation\tcountry\tidentified_by\tcollected_by"
+          + "\tcollection_date\tspecimen_voucher\tsequence_md5\tscientific_name\ttax_id\taltitude"
+          + "\tsex\tdescription\thost";
+
+  @Container
+  private static final PostgreSQLContainer<?> POSTGRES =
+      new PostgreSQLContainer<>("postgres:16-alpine");
+
+  @TempDir static Path dir;
+
+  private static HikariDataSource dataSource;
+  private static Path rawDataFile1;
+  private static Path rawDataFile2;
+
+  @BeforeAll
+  static void createRawData() throws IOException, SQLException {
+    HikariConfig config = new HikariConfig();
+    config.setJdbcUrl(POSTGRES.getJdbcUrl());
+    config.setUsername(POSTGRES.getUsername());
+    config.setPassword(POSTGRES.getPassword());
+    config.setMaximumPoolSize(WORKERS + 2);
+    dataSource = new HikariDataSource(config);
+
+    try (Connection connection = dataSource.getConnection();
+        Statement st = connection.createStatement()) {
+      st.execute(resource("/db.sql"));
+    }
+
+    // the last line of file1 repeats the first one, the first half of file2 repeats the end of
+    // file1: the duplicates are in other ranges than the records which win
+    rawDataFile1 = dir.resolve("request1.tsv");
+    try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(rawDataFile1))) {
+      writer.println(HEADER);
+      for (int i = 0; i < FILE1_RECORDS; i++) {
+        writer.println(line(i, "file1 line " + i, i < LONG_LINES ? LONG_LINE_PADDING : 0));
+      }
+      writer.println(line(0, "file1 line " + FILE1_RECORDS, 0));
+    }
+    rawDataFile2 = dir.resolve("request2.tsv");
+    try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(rawDataFile2))) {
+      writer.println(HEADER);
+      for (int i = 0; i < FILE2_RECORDS; i++) {
+        writer.println(line(FILE1_RECORDS - REPEATED + i, "file2 line " + i, 0));
+      }
+    }
+  }
+
+  @AfterAll
+  static void close() {
+    if (dataSource != null) {
+      dataSource.close();
+    }
+  }
+
+  @ParameterizedTest
+  @CsvSource({"false, BATCH", "false, COPY", "true, BATCH", "true, COPY"})
+  void firstRecordWins(boolean rebuildIndexes, RawDataLoader rawDataLoader) throws Exception {
+    List<String> serial = store(1, rebuildIndexes, rawDataLoader);
+    List<String> parallel = store(WORKERS, rebuildIndexes, rawDataLoader);
+
+    assertEquals(FILE1_RECORDS + FILE2_RECORDS - REPEATED, serial.size());
+    assertEquals(serial.size(), parallel.size());
+    for (int i = 0; i < serial.size(); i++) {
+      assertEquals(serial.get(i), parallel.get(i));
+    }
+    // repeated in file1, in file1 and file2, only in file2
+    assertEquals("file1 line 0", description(accession(0)));
+    assertEquals("file1 line " + (FILE1_RECORDS - 1), description(accession(FILE1_RECORDS - 1)));
+    assertEquals("file2 line " + REPEATED, description(accession(FILE1_RECORDS)));
+  }
+
+  /** Stores the raw data files into the raw data table, returns its rows. */
+  private static List<String> store(
+      int storeWorkers, boolean rebuildIndexes, RawDataLoader rawDataLoader) throws SQLException {
+    TaskConfiguration task = new TaskConfiguration();
+    task.name = "parallel-store";
+    task.tableName = "embl_data";
+    task.query = "unused.sql";
+    task.rawDataFile1 = rawDataFile1.toString();
+    task.rawDataFile2 = rawDataFile2.toString();
+    task.steps = new ArrayList<>(List.of(TaskStep.STORE_DATA));
+    task.shadowLoad = true;
+    task.rebuildIndexes = rebuildIndexes;
+    task.rawDataLoader = rawDataLoader;
+    task.storeWorkers = storeWorkers;
+    new DataGeneratorTask(
+            task,
+            dataSource,
+            new DownloadConfiguration(),
+            new ResourceScheduler(1, dataSource.getMaximumPoolSize()),
+            null)
+        .run();
+
+    List<String> rows = new ArrayList<>();
+    try (Connection connection = dataSource.getConnection();
+        Statement st = connection.createStatement();
+        ResultSet rs = st.executeQuery("SELECT * FROM embl_data ORDER BY accession")) {
+      int columns = rs.getMetaData().getColumnCount();
+      while (rs.next()) {
+        StringJoiner row = new StringJoiner("|");
+        for (int i = 1; i <= columns; i++) {
+          row.add(rs.getMetaData().getColumnName(i) + "=" + rs.getString(i));
+        }
+        rows.add(row.toString());
+      }
+    }
+    return rows;
+  }
+
+  private static String description(String accession) throws SQLException {
+    try (Connection connection = dataSource.getConnection();
+        PreparedStatement ps =
+            connection.prepareStatement("SELECT description FROM embl_data WHERE accession = ?")) {
+      ps.setString(1, accession);
+      try (ResultSet rs = ps.executeQuery()) {
+        return rs.next() ? rs.getString(1) : null;
+      }
+    }
+  }
+
+  private static String line(int record, String description, int padding) {
+    return "SAMN"
+        + record % 50
+        + "\t"
+        + accession(record)
+        + "\t52.5 N 13.4 E\tGermany\tSmith,J.\tKim,S.\t2020\tBIOUG"
+        + "0".repeat(padding)
+        + "\t"
+        + Integer.toHexString(record)
+        + "\tPinus sylvestris\t3349\t\t\t"
+        + description
+        + "\t";
+  }
+
+  private static String accession(int record) {
+    return String.format("AB%06d.1", record);
+  }
+
+  private static String resource(String name) throws IOException {
+    try (InputStream in = ParallelStoreTest.class.getResourceAsStream(name);
+        BufferedReader reader =
+            new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+      return reader.lines().collect(Collectors.joining("\n"));
+    }
+  }
+}
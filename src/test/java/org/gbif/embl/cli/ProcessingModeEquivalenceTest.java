@@ -0,0 +1,217 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.embl.cli;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.StringJoiner;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
+import static org.gbif.embl.util.EmblAdapterConstants.SQL_INSERT_RAW_DATA;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Processes the same raw data in the JVM and in the database ({@link ProcessingMode}) and compares
+ * the processed tables. The raw data is generated: duplicates, blank values of all kinds, control
+ * characters, malformed coordinates and countries. Needs Docker, skipped otherwise.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class ProcessingModeEquivalenceTest {
+
+  private static final int RECORDS = 5000;
+
+  // values StringUtils.isBlank and String.trim() handle differently
+  private static final String[] BLANKS = {
+    null, "", " ", "\t", "\n", "\u001f", "\u00a0", "\u2003", " \u3000 "
+  };
+
+  @Container
+  private static final PostgreSQLContainer<?> POSTGRES =
+      new PostgreSQLContainer<>("postgres:16-alpine");
+
+  private static HikariDataSource dataSource;
+
+  @BeforeAll
+  static void createRawData() throws IOException, SQLException {
+    HikariConfig config = new HikariConfig();
+    config.setJdbcUrl(POSTGRES.getJdbcUrl());
+    config.setUsername(POSTGRES.getUsername());
+    config.setPassword(POSTGRES.getPassword());
+    config.setMaximumPoolSize(4);
+    dataSource = new HikariDataSource(config);
+
+    try (Connection connection = dataSource.getConnection();
+        Statement st = connection.createStatement()) {
+      st.execute(resource("/db.sql"));
+      st.execute(resource("/ena-taxonomy-db.sql"));
+      st.execute(
+          "INSERT INTO ena_taxonomy VALUES"
+              + " ('3349', 'Plantae', 'Tracheophyta', 'Pinopsida', 'Pinales', 'Pinaceae', 'Pinus'),"
+              + " ('30195', 'Animalia', 'Arthropoda', 'Insecta', 'Hymenoptera', ' Apidae ', ''),"
+              + " ('562', 'Bacteria', NULL, 'Gammaproteobacteria', NULL, NULL, 'Escherichia')");
+    }
+
+    List<String> locations =
+        resource("/locations.txt")
+            .lines()
+            .filter(line -> !line.startsWith("#"))
+            .collect(Collectors.toList());
+    Random random = new Random(42);
+    try (Connection connection = dataSource.getConnection();
+        PreparedStatement insert = connection.prepareStatement(SQL_INSERT_RAW_DATA)) {
+      for (int i = 0; i < RECORDS; i++) {
+        // accessions differing by spaces only are the same occurrence
+        String accession = String.format("AB%06d.1", random.nextInt(RECORDS * 4 / 5));
+        insert.setString(1, random.nextInt(20) == 0 ? " " + accession : accession);
+        insert.setString(2, value(random, "SAMN" + random.nextInt(200)));
+        insert.setString(3, value(random, locations.get(random.nextInt(locations.size()))));
+        insert.setString(
+            4,
+            value(
+                random,
+                pick(random, "Germany", "Germany: Berlin", " Peru : Cusco : x ", ":", "Kenya:")));
+        insert.setString(5, value(random, pick(random, "Smith,J.", "Kim,S.")));
+        insert.setString(6, value(random, pick(random, "deWaard,J.R.", "M\u00fcller,K.")));
+        insert.setString(7, value(random, pick(random, "2020", "12-May-2019", "2019-05")));
+        insert.setString(8, value(random, pick(random, "BIOUG00939-A10", "USNM:Fish:21743")));
+        insert.setString(9, value(random, Long.toHexString(random.nextLong())));
+        insert.setString(
+            10, value(random, pick(random, "Pinus sylvestris", "Bombus terrestris", "E. coli")));
+        insert.setString(11, value(random, pick(random, "3349", "30195", "562", "1")));
+        insert.setString(12, value(random, pick(random, "1200", "350 m", "-5")));
+        insert.setString(13, value(random, pick(random, "male", "female")));
+        insert.setString(14, value(random, "COI gene\u0007, partial cds"));
+        insert.setString(15, value(random, pick(random, "Quercus robur", "Bos taurus")));
+        insert.addBatch();
+      }
+      insert.executeBatch();
+    }
+  }
+
+  @AfterAll
+  static void close() {
+    if (dataSource != null) {
+      dataSource.close();
+    }
+  }
+
+  @ParameterizedTest
+  @ValueSource(booleans = {false, true})
+  void sameProcessedData(boolean taxonomyLookup) throws Exception {
+    List<String> jvm = process(ProcessingMode.JVM, taxonomyLookup);
+    List<String> database = process(ProcessingMode.DATABASE, taxonomyLookup);
+
+    // incomplete records and duplicates are skipped
+    assertTrue(jvm.size() > RECORDS / 10, "Processed records: " + jvm.size());
+    assertTrue(jvm.size() < RECORDS * 4 / 5, "Processed records: " + jvm.size());
+    assertEquals(jvm.size(), database.size());
+    for (int i = 0; i < jvm.size(); i++) {
+      assertEquals(jvm.get(i), database.get(i));
+    }
+  }
+
+  /** Processes the raw data into the empty processed table, returns its rows. */
+  private static List<String> process(ProcessingMode mode, boolean taxonomyLookup)
+      throws SQLException, URISyntaxException {
+    try (Connection connection = dataSource.getConnection();
+        Statement st = connection.createStatement()) {
+      st.execute("TRUNCATE embl_data_processed");
+    }
+
+    TaskConfiguration task = new TaskConfiguration();
+    task.name = "equivalence";
+    task.tableName = "embl_data";
+    task.query =
+        Paths.get(
+                ProcessingModeEquivalenceTest.class
+                    .getResource(
+                        taxonomyLookup
+                            ? "/processing-query-no-taxonomy.sql"
+                            : "/processing-query.sql")
+                    .toURI())
+            .toString();
+    task.steps = new ArrayList<>(List.of(TaskStep.PROCESS_DATA));
+    task.processingMode = mode;
+    task.taxonomyLookup = taxonomyLookup;
+    new DataGeneratorTask(
+            task,
+            dataSource,
+            new DownloadConfiguration(),
+            new ResourceScheduler(1, dataSource.getMaximumPoolSize()),
+            null)
+        .run();
+
+    List<String> rows = new ArrayList<>();
+    try (Connection connection = dataSource.getConnection();
+        Statement st = connection.createStatement();
+        ResultSet rs =
+            st.executeQuery("SELECT * FROM embl_data_processed ORDER BY occurrence_id")) {
+      int columns = rs.getMetaData().getColumnCount();
+      while (rs.next()) {
+        StringJoiner row = new StringJoiner("|");
+        for (int i = 1; i <= columns; i++) {
+          row.add(rs.getMetaData().getColumnName(i) + "=" + rs.getString(i));
+        }
+        rows.add(row.toString());
+      }
+    }
+    return rows;
+  }
+
+  /** The value, padded with blanks, or a blank value. */
+  private static String value(Random random, String value) {
+    return switch (random.nextInt(6)) {
+      case 0 -> pick(random, BLANKS);
+      case 1 -> pick(random, " ", "\u2003") + value + pick(random, "\t", "\u00a0");
+      default -> value;
+    };
+  }
+
+  private static String pick(Random random, String... values) {
+    return values[random.nextInt(values.length)];
+  }
+
+  private static String resource(String name) throws IOException {
+    try (InputStream in = ProcessingModeEquivalenceTest.class.getResourceAsStream(name);
+        BufferedReader reader =
+            new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+      return reader.lines().collect(Collectors.joining("\n"));
+    }
+  }
+}
@@ -0,0 +1,276 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.embl.cli;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.common.collect.Lists;
+
+import static org.gbif.embl.util.EmblAdapterConstants.*;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RawDataParserTest {
+
+  // raw data columns in the order of the RAW_INDEX_* parameters
+  private static final List<String> COLUMNS =
+      List.of(
+          ACCESSION_COLUMN,
+          SAMPLE_ACCESSION_COLUMN,
+          LOCATION_COLUMN,
+          COUNTRY_COLUMN,
+          IDENTIFIED_BY_COLUMN,
+          COLLECTED_BY_COLUMN,
+          COLLECTION_DATE_COLUMN,
+          SPECIMEN_VOUCHER_COLUMN,
+          SEQUENCE_MD5_COLUMN,
+          SCIENTIFIC_NAME_COLUMN,
+          TAX_ID_COLUMN,
+          ALTITUDE_COLUMN,
+          SEX_COLUMN,
+          DESCRIPTION_COLUMN,
+          HOST_COLUMN);
+
+  // ENA search response header, columns in a different order than the raw data table
+  private static final String HEADER =
+      "sample_accession\taccession\tlocation\tcountry\tidentified_by\tcollected_by"
+          + "\tcollection_date\tspecimen_voucher\tsequence_md5\tscientific_name\ttax_id"
+          + "\taltitude\tsex\tdescription\thost";
+
+  private static final String LINE =
+      "SAMN1\tMW1.1\t1 N 2 E\tGermany: Berlin\tSmith,J.\tKim,S.\t2020\tV1\tmd5\tSalmo trutta"
+          + "\t8032\t350 m\tmale\tSalmo trutta COI\t";
+
+  @Test
+  void columnsByHeader() throws SQLException {
+    RawDataParser parser = new RawDataParser(false, null);
+    Values values = new Values();
+
+    assertFalse(parser.parse(HEADER, values));
+    assertNull(values.get(RAW_INDEX_ACCESSION));
+
+    assertTrue(parser.parse(LINE, values));
+    assertEquals("MW1.1", values.get(RAW_INDEX_ACCESSION));
+    assertEquals("SAMN1", values.get(RAW_INDEX_SAMPLE_ACCESSION));
+    assertEquals("1 N 2 E", values.get(RAW_INDEX_LOCATION));
+    assertEquals("Germany: Berlin", values.get(RAW_INDEX_COUNTRY));
+    assertEquals("Smith,J.", values.get(RAW_INDEX_IDENTIFIED_BY));
+    assertEquals("Kim,S.", values.get(RAW_INDEX_COLLECTED_BY));
+    assertEquals("2020", values.get(RAW_INDEX_COLLECTION_DATE));
+    assertEquals("V1", values.get(RAW_INDEX_SPECIMEN_VOUCHER));
+    assertEquals("md5", values.get(RAW_INDEX_SEQUENCE_MD5));
+    assertEquals("Salmo trutta", values.get(RAW_INDEX_SCIENTIFIC_NAME));
+    assertEquals("8032", values.get(RAW_INDEX_TAX_ID));
+    assertEquals("350 m", values.get(RAW_INDEX_ALTITUDE));
+    assertEquals("male", values.get(RAW_INDEX_SEX));
+    assertEquals("Salmo trutta COI", values.get(RAW_INDEX_DESCRIPTION));
+    // trailing empty field
+    assertEquals("", values.get(RAW_INDEX_HOST));
+  }
+
+  @Test
+  void sameAsSplit() throws SQLException {
+    // reordered, with extra and repeated columns (a repeated name maps to its last column)
+    String header =
+        "extra\t" + String.join("\t", Lists.reverse(COLUMNS)) + "\tlast\t" + HOST_COLUMN;
+    List<String> lines =
+        List.of(
+            LINE + "\t\t\t",
+            "\t".repeat(17),
+            "a\tb\tc\td\te\tf\tg\th\ti\tj\tk\tl\tm\tn\to\tp\tq\tr",
+            "x\t\t\tlocation\t\t\t\t\t\t\t\t\t\t\t\t\tlast\thost",
+            " 1 \t 2 \t\t\t\t\t\t\t\t\t\t\t\t\t\t\t 17 \t 18 ");
+
+    RawDataParser parser = new RawDataParser(false, null);
+    parser.parse(header, new Values());
+    Map<String, Integer> mapping = splitMapping(header);
+    for (String line : lines) {
+      Values values = new Values();
+      assertTrue(parser.parse(line, values), line);
+
+      String[] split = line.split(DEFAULT_DELIMITER, -1);
+      String[] expected = new String[COLUMNS.size() + 1];
+      for (int i = 0; i < COLUMNS.size(); i++) {
+        expected[i + 1] = split[mapping.get(COLUMNS.get(i))];
+      }
+      assertArrayEquals(expected, values.values, line);
+    }
+  }
+
+  @Test
+  void skipSequenceMd5() throws SQLException {
+    // e.g. the wgs_set result has no sequence_md5 column
+    String header = HEADER.replace("\tsequence_md5", "");
+    String line = LINE.replace("\tmd5", "");
+
+    RawDataParser parser = new RawDataParser(true, null);
+    Values values = new Values();
+    assertFalse(parser.parse(header, values));
+    assertTrue(parser.parse(line, values));
+    assertEquals("", values.get(RAW_INDEX_SEQUENCE_MD5));
+    assertEquals("Salmo trutta", values.get(RAW_INDEX_SCIENTIFIC_NAME));
+
+    // a column ignored is not required
+    assertThrows(
+        IllegalStateException.class, () -> new RawDataParser(false, null).parse(header, values));
+  }
+
+  @Test
+  void shortLines() throws SQLException {
+    RawDataParser parser = new RawDataParser(false, null);
+    Values values = new Values();
+
+    // less than 14 columns, not even a header
+    assertFalse(parser.parse("a\tb", values));
+    assertFalse(parser.parse(HEADER, values));
+
+    // less than 14 columns
+    assertFalse(parser.parse("a\tb\tc", values));
+    // less columns than the header
+    assertFalse(parser.parse(LINE.substring(0, LINE.lastIndexOf('\t')), values));
+    assertArrayEquals(new String[COLUMNS.size() + 1], values.values);
+
+    assertTrue(parser.parse(LINE, values));
+  }
+
+  @Test
+  void sharedHeader() throws SQLException {
+    RawDataParser header = new RawDataParser(false, null);
+    assertThrows(IllegalStateException.class, () -> new RawDataParser(header));
+
+    header.parse(HEADER, new Values());
+    RawDataParser parser = new RawDataParser(header);
+    Values values = new Values();
+    // the first line of another part of the response is a record
+    assertTrue(parser.parse(LINE, values));
+    assertEquals("MW1.1", values.get(RAW_INDEX_ACCESSION));
+  }
+
+  @Test
+  void routeByEnvironmentalSample() throws SQLException {
+    String header = HEADER + "\tenvironmental_sample";
+    RouteConfiguration route = new RouteConfiguration();
+    route.environmentalSample = true;
+
+    RawDataParser parser = new RawDataParser(false, route, null);
+    parser.parse(header, new Values());
+    assertTrue(parser.parse(LINE + "\ttrue", new Values()));
+    assertTrue(parser.parse(LINE + "\t true ", new Values()));
+    assertFalse(parser.parse(LINE + "\tfalse", new Values()));
+    assertFalse(parser.parse(LINE + "\t", new Values()));
+
+    route.environmentalSample = false;
+    parser = new RawDataParser(false, route, null);
+    parser.parse(header, new Values());
+    assertFalse(parser.parse(LINE + "\ttrue", new Values()));
+    assertTrue(parser.parse(LINE + "\tfalse", new Values()));
+    // not true
+    assertTrue(parser.parse(LINE + "\t", new Values()));
+
+    // the column is needed by the route only
+    assertThrows(
+        IllegalStateException.class,
+        () -> new RawDataParser(false, route, null).parse(HEADER, new Values()));
+    route.environmentalSample = null;
+    assertFalse(new RawDataParser(false, route, null).parse(HEADER, new Values()));
+  }
+
+  @Test
+  void routeByHost() throws SQLException {
+    RouteConfiguration route = new RouteConfiguration();
+    route.host = false;
+
+    RawDataParser parser = new RawDataParser(false, route, null);
+    parser.parse(HEADER, new Values());
+    assertTrue(parser.parse(LINE, new Values()));
+    assertTrue(parser.parse(LINE + " ", new Values()));
+    assertFalse(parser.parse(LINE + "Bos taurus", new Values()));
+
+    route.host = true;
+    route.excludedHosts = List.of("Homo sapiens");
+    parser = new RawDataParser(false, route, null);
+    parser.parse(HEADER, new Values());
+    assertFalse(parser.parse(LINE, new Values()));
+    Values values = new Values();
+    assertTrue(parser.parse(LINE + "Bos taurus", values));
+    assertEquals("Bos taurus", values.get(RAW_INDEX_HOST));
+    // excluded hosts are case-insensitive and trimmed
+    assertFalse(parser.parse(LINE + "Homo sapiens", new Values()));
+    assertFalse(parser.parse(LINE + " homo SAPIENS ", new Values()));
+    assertTrue(parser.parse(LINE + "Homo sapiens neanderthalensis", new Values()));
+
+    // all records without predicates
+    parser = new RawDataParser(false, new RouteConfiguration(), null);
+    parser.parse(HEADER, new Values());
+    assertTrue(parser.parse(LINE, new Values()));
+    assertTrue(parser.parse(LINE + "Homo sapiens", new Values()));
+  }
+
+  @Test
+  void routeSharedHeader() throws SQLException {
+    RouteConfiguration route = new RouteConfiguration();
+    route.environmentalSample = true;
+    RawDataParser header = new RawDataParser(false, route, null);
+    header.parse("environmental_sample\t" + HEADER, new Values());
+
+    RawDataParser parser = new RawDataParser(header);
+    assertTrue(parser.parse("true\t" + LINE, new Values()));
+    assertFalse(parser.parse("false\t" + LINE, new Values()));
+  }
+
+  /** Mapping of the header like the parser used to do, with a HashMap of the split line. */
+  private static Map<String, Integer> splitMapping(String header) {
+    Map<String, Integer> mapping = new HashMap<>();
+    String[] split = header.split(DEFAULT_DELIMITER, -1);
+    for (int i = 0; i < split.length; i++) {
+      mapping.put(split[i], i);
+    }
+    return mapping;
+  }
+
+  /** Values set by the parser, by the raw data column index. */
+  static final class Values implements RawDataWriter {
+    final String[] values = new String[COLUMNS.size() + 1];
+
+    String get(int index) {
+      return values[index];
+    }
+
+    @Override
+    public void setString(int index, String value) {
+      values[index] = value;
+    }
+
+    @Override
+    public void addRecord() {
+      Arrays.fill(values, null);
+    }
+
+    @Override
+    public void flush() {}
+
+    @Override
+    public void close() {}
+  }
+}
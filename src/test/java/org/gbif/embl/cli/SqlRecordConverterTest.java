@@ -0,0 +1,142 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.embl.cli;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import static org.gbif.embl.util.EmblAdapterConstants.SQL_COLUMNS_PROCESSED_DATA;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SqlRecordConverterTest {
+
+  private static final String QUERY = "SELECT * FROM embl_data ORDER BY accession";
+
+  @Test
+  void select() {
+    String sql = SqlRecordConverter.select(QUERY, null, false);
+
+    assertTrue(sql.startsWith("SELECT "));
+    assertTrue(sql.contains("FROM (" + QUERY + ") q"));
+    assertTrue(sql.contains("row_number() OVER () AS query_row"));
+    assertTrue(sql.endsWith(" WHERE r.id_row = 1 ORDER BY r.query_row"));
+    // ranks returned by the query
+    assertTrue(sql.contains("coalesce(btrim(r.\"kingdom\", "));
+    assertFalse(sql.contains("LEFT JOIN"));
+    assertFalse(sql.contains(" IN (SELECT accession FROM "));
+    assertBalanced(sql);
+  }
+
+  @Test
+  void selectDeltaWithTaxonomy() {
+    String sql = SqlRecordConverter.select(QUERY, "embl_data_delta", true);
+
+    // the delta applies after the deduplication
+    assertTrue(
+        sql.contains(
+            "WHERE (d.dedup_key IS NULL OR d.key_row = 1) AND d.\"accession\" IN"
+                + " (SELECT accession FROM embl_data_delta)"));
+    assertTrue(
+        sql.endsWith(
+            ") r LEFT JOIN ena_taxonomy et ON r.\"tax_id\" = et.taxon_id"
+                + " WHERE r.id_row = 1 ORDER BY r.query_row"));
+    assertTrue(sql.contains("coalesce(btrim(et.\"genus\", "));
+    assertFalse(sql.contains("r.\"genus\""));
+    assertBalanced(sql);
+  }
+
+  @Test
+  void columns() {
+    for (boolean joinTaxonomy : new boolean[] {false, true}) {
+      String sql = SqlRecordConverter.select(QUERY, null, joinTaxonomy);
+      List<String> values = splitValues(sql);
+
+      assertEquals(SQL_COLUMNS_PROCESSED_DATA.split(",").length, values.size());
+      assertTrue(values.get(0).startsWith("coalesce(btrim(r.\"accession\", "));
+      // decimal_latitude and decimal_longitude from the location pattern
+      assertTrue(values.get(3).contains("r.coordinates[1]"));
+      assertTrue(values.get(4).contains("r.coordinates[3]"));
+      // minimum and maximum elevation
+      assertEquals(values.get(15), values.get(16));
+    }
+  }
+
+  @Test
+  void trim() {
+    StringBuilder chars = new StringBuilder();
+    for (int c = 1; c <= ' '; c++) {
+      chars.append(String.format("\\x%02x", c));
+    }
+    assertEquals("btrim(x, E'" + chars + "')", SqlRecordConverter.trim("x"));
+  }
+
+  @Test
+  void blank() {
+    String sql = SqlRecordConverter.select(QUERY, null, false);
+
+    // StringUtils.isBlank: Character.isWhitespace, ASCII escaped, others as they are
+    assertTrue(sql.contains("E'\\x09\\x0a\\x0b\\x0c\\x0d\\x1c\\x1d\\x1e\\x1f\\x20"));
+    assertTrue(sql.contains("\u2003"));
+    // no-break space is not whitespace for Java
+    assertFalse(sql.contains("\u00a0"));
+  }
+
+  /** Parentheses outside literals are balanced and literals are closed. */
+  private static void assertBalanced(String sql) {
+    int depth = 0;
+    boolean literal = false;
+    for (int i = 0; i < sql.length(); i++) {
+      char c = sql.charAt(i);
+      if (c == '\'') {
+        literal = !literal;
+      } else if (!literal && c == '(') {
+        depth++;
+      } else if (!literal && c == ')') {
+        depth--;
+        assertTrue(depth >= 0, sql);
+      }
+    }
+    assertEquals(0, depth, sql);
+    assertFalse(literal, sql);
+  }
+
+  /** Values of the outer SELECT, split on the commas outside parentheses and literals. */
+  private static List<String> splitValues(String sql) {
+    List<String> values = new ArrayList<>();
+    int depth = 0;
+    boolean literal = false;
+    int start = "SELECT ".length();
+    for (int i = start; i < sql.length(); i++) {
+      char c = sql.charAt(i);
+      if (c == '\'') {
+        literal = !literal;
+      } else if (!literal && c == '(') {
+        depth++;
+      } else if (!literal && c == ')') {
+        depth--;
+      } else if (!literal && depth == 0 && c == ',') {
+        values.add(sql.substring(start, i).trim());
+        start = i + 1;
+      } else if (!literal && depth == 0 && sql.startsWith(" FROM (", i)) {
+        values.add(sql.substring(start, i).trim());
+        break;
+      }
+    }
+    return values;
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.embl.cli;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StepGraphTest {
+
+  private final StepGraph graph = new StepGraph("test");
+  private final List<String> runs = new CopyOnWriteArrayList<>();
+
+  @Test
+  void dependenciesFirst() {
+    StepGraph.Node a = graph.add("a", null, () -> runs.add("a"));
+    StepGraph.Node b = graph.add("b", null, () -> runs.add("b")).requires("a");
+    StepGraph.Node c = graph.add("c", null, () -> runs.add("c")).requires("b").after("a");
+    assertEquals(StepGraph.State.PENDING, a.state());
+
+    graph.run();
+
+    assertEquals(List.of("a", "b", "c"), runs);
+    assertEquals(StepGraph.State.SUCCEEDED, a.state());
+    assertEquals(StepGraph.State.SUCCEEDED, b.state());
+    assertEquals(StepGraph.State.SUCCEEDED, c.state());
+  }
+
+  @Test
+  void failedDependency() {
+    StepGraph.Node failed =
+        graph.add(
+            "failed",
+            null,
+            () -> {
+              throw new IOException("Failed on purpose");
+            });
+    StepGraph.Node required = graph.add("required", null, () -> runs.add("required"));
+    required.requires("failed");
+    StepGraph.Node transitive = graph.add("transitive", null, () -> runs.add("transitive"));
+    transitive.requires("required");
+    StepGraph.Node after = graph.add("after", null, () -> runs.add("after")).after("failed");
+    StepGraph.Node unchecked =
+        graph.add(
+            "unchecked",
+            null,
+            () -> {
+              throw new IllegalStateException("Failed on purpose");
+            });
+
+    graph.run();
+
+    assertEquals(List.of("after"), runs);
+    assertEquals(StepGraph.State.FAILED, failed.state());
+    assertEquals(StepGraph.State.SKIPPED, required.state());
+    assertEquals(StepGraph.State.SKIPPED, transitive.state());
+    assertEquals(StepGraph.State.SUCCEEDED, after.state());
+    assertEquals(StepGraph.State.FAILED, unchecked.state());
+  }
+
+  @Test
+  void independentStepsInParallel() {
+    CountDownLatch started = new CountDownLatch(2);
+    ResourceScheduler.Step step =
+        () -> {
+          started.countDown();
+          try {
+            // each step waits for the other one
+            if (started.await(10, TimeUnit.SECONDS)) {
+              runs.add(Thread.currentThread().getName());
+            }
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        };
+    graph.add("a", null, step);
+    graph.add("b", null, step);
+
+    graph.run();
+
+    // the threads are named after the steps
+    assertEquals(2, runs.size());
+    assertTrue(runs.containsAll(List.of("a", "b")));
+  }
+
+  @Test
+  void threadNameRestored() {
+    AtomicReference<Thread> thread = new AtomicReference<>();
+    AtomicReference<String> nameAfter = new AtomicReference<>();
+    graph.add("a", null, () -> thread.set(Thread.currentThread()));
+    graph.add("b", null, () -> nameAfter.set(thread.get().getName())).requires("a");
+
+    graph.run();
+
+    // the thread of a is back in the pool or runs b
+    assertNotEquals("a", nameAfter.get());
+  }
+
+  @Test
+  void invalidDependencies() {
+    graph.add("a", null, () -> {});
+    assertThrows(IllegalArgumentException.class, () -> graph.add("a", null, () -> {}));
+
+    StepGraph.Node b = graph.add("b", null, () -> {});
+    // dependencies are added before their dependents, so there are no cycles
+    assertThrows(IllegalArgumentException.class, () -> b.requires("c"));
+    assertThrows(IllegalArgumentException.class, () -> b.after("b"));
+  }
+}
@@ -0,0 +1,167 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.embl.util;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FingerprintSetTest {
+
+  @TempDir Path dir;
+
+  @Test
+  void grow() throws IOException {
+    for (boolean offHeap : new boolean[] {false, true}) {
+      try (FingerprintSet set = new FingerprintSet(true, offHeap, 0, dir)) {
+        // more than the initial capacity
+        for (long i = 1; i <= 200_000; i++) {
+          assertTrue(set.add(i, -i));
+        }
+        for (long i = 1; i <= 200_000; i++) {
+          assertFalse(set.add(i, -i));
+        }
+        assertEquals(200_000, set.size());
+        assertEquals(0, set.spilledRuns());
+      }
+    }
+  }
+
+  @Test
+  void spill() throws IOException {
+    for (boolean offHeap : new boolean[] {false, true}) {
+      try (FingerprintSet set = new FingerprintSet(true, offHeap, 1000, dir)) {
+        for (long i = 0; i < 999; i++) {
+          set.add(i, i);
+        }
+        assertEquals(0, set.spilledRuns());
+
+        set.add(999, 999);
+        assertEquals(1, set.spilledRuns());
+        assertEquals(1, runFiles());
+        assertEquals(1000, set.size());
+
+        // spilled, added again
+        for (long i = 0; i < 1000; i++) {
+          assertFalse(set.add(i, i));
+        }
+        assertEquals(1000, set.size());
+      }
+      assertEquals(0, runFiles());
+    }
+  }
+
+  @Test
+  void lookupAcrossRuns() throws IOException {
+    Random random = new Random(42);
+    long[] h1 = new long[10_000];
+    long[] h2 = new long[h1.length];
+    for (int i = 0; i < h1.length; i++) {
+      h1[i] = random.nextLong();
+      h2[i] = random.nextLong();
+    }
+
+    for (boolean wide : new boolean[] {false, true}) {
+      for (boolean offHeap : new boolean[] {false, true}) {
+        try (FingerprintSet set = new FingerprintSet(wide, offHeap, 700, dir)) {
+          for (int i = 0; i < h1.length; i++) {
+            assertTrue(set.add(h1[i], h2[i]));
+            // anything added before, in memory or in any run
+            int j = random.nextInt(i + 1);
+            assertFalse(set.add(h1[j], h2[j]));
+          }
+          assertEquals(h1.length, set.size());
+
+          // 14 spills of 700 entries merged like a binary counter: 8 + 4 + 2 runs
+          assertEquals(3, set.spilledRuns());
+          assertEquals(3, runFiles());
+          for (int i = 0; i < h1.length; i++) {
+            assertFalse(set.add(h1[i], h2[i]));
+          }
+        }
+        assertEquals(0, runFiles());
+      }
+    }
+  }
+
+  @Test
+  void collisions() throws IOException {
+    for (long maxEntries : new long[] {0, 3}) {
+      // the same first long is a duplicate only in 64 bit fingerprints
+      try (FingerprintSet wide = new FingerprintSet(true, false, maxEntries, dir);
+          FingerprintSet narrow = new FingerprintSet(false, false, maxEntries, dir)) {
+        for (long h2 = 0; h2 < 10; h2++) {
+          assertTrue(wide.add(7, h2));
+          assertEquals(h2 == 0, narrow.add(7, h2));
+        }
+        assertEquals(10, wide.size());
+        assertEquals(1, narrow.size());
+      }
+    }
+
+    // the same slot of the hash table, all distinct
+    try (FingerprintSet set = new FingerprintSet(false, false, 0, dir)) {
+      for (long i = 1; i <= 100; i++) {
+        assertTrue(set.add(i << 32 ^ i << 16, 0));
+      }
+      assertEquals(100, set.size());
+    }
+  }
+
+  @Test
+  void zeroFingerprint() throws IOException {
+    for (long maxEntries : new long[] {0, 2}) {
+      try (FingerprintSet set = new FingerprintSet(true, false, maxEntries, dir)) {
+        assertTrue(set.add(0, 0));
+        // zero marks empty slots, no collision with another fingerprint
+        assertTrue(set.add(1, 0));
+        assertTrue(set.add(-1, 0));
+        assertFalse(set.add(0, 0));
+        assertFalse(set.add(1, 0));
+        assertEquals(3, set.size());
+      }
+    }
+  }
+
+  @Test
+  void matchesHashSet() throws IOException {
+    Random random = new Random(7);
+    Set<Long> expected = new HashSet<>();
+    try (FingerprintSet set = new FingerprintSet(false, true, 500, dir)) {
+      for (int i = 0; i < 20_000; i++) {
+        // small values, many repeated
+        long value = random.nextInt(5000) - 2500;
+        assertEquals(expected.add(value), set.add(value, 0));
+      }
+      assertEquals(expected.size(), set.size());
+    }
+  }
+
+  private long runFiles() throws IOException {
+    try (Stream<Path> files = Files.list(dir)) {
+      return files.count();
+    }
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.embl.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+import static org.gbif.embl.util.EmblAdapterConstants.LOCATION_PATTERN;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LocationParserTest {
+
+  private final LocationParser parser = new LocationParser();
+
+  @Test
+  void sameAsPattern() throws IOException {
+    List<String> locations = readLocations();
+    assertTrue(locations.size() > 50);
+
+    for (String location : locations) {
+      Matcher matcher = LOCATION_PATTERN.matcher(location);
+      boolean found = matcher.find();
+      assertEquals(found, parser.find(location), location);
+      if (found) {
+        assertEquals(matcher.group(1), parser.latitude(), location);
+        assertEquals(matcher.group(2).charAt(0), parser.latitudeLetter(), location);
+        assertEquals(matcher.group(3), parser.longitude(), location);
+        assertEquals(matcher.group(4).charAt(0), parser.longitudeLetter(), location);
+        assertEquals(toDouble(matcher.group(1)), parser.latitudeValue(), 1e-9, location);
+        assertEquals(toDouble(matcher.group(3)), parser.longitudeValue(), 1e-9, location);
+      }
+    }
+  }
+
+  @Test
+  void coordinates() {
+    assertTrue(parser.find("12.3456 S 123.4567 W"));
+    assertEquals("12.3456", parser.latitude());
+    assertEquals('S', parser.latitudeLetter());
+    assertEquals(12.3456, parser.latitudeValue(), 1e-9);
+    assertEquals("123.4567", parser.longitude());
+    assertEquals('W', parser.longitudeLetter());
+    assertEquals(123.4567, parser.longitudeValue(), 1e-9);
+
+    // the parser is reused, the last match counts
+    assertTrue(parser.find("at 1 N 2 E"));
+    assertEquals("1", parser.latitude());
+    assertEquals("2", parser.longitude());
+  }
+
+  @Test
+  void dots() {
+    assertFalse(parser.find("."));
+    assertFalse(parser.find("1.2.3"));
+
+    // matched, but not a number
+    assertTrue(parser.find("1.2.3 N 4 E"));
+    assertEquals("1.2.3", parser.latitude());
+    assertTrue(Double.isNaN(parser.latitudeValue()));
+    assertEquals(4, parser.longitudeValue());
+
+    assertTrue(parser.find(". N . E"));
+    assertTrue(Double.isNaN(parser.latitudeValue()));
+    assertTrue(Double.isNaN(parser.longitudeValue()));
+  }
+
+  private static double toDouble(String number) {
+    try {
+      return Double.parseDouble(number);
+    } catch (NumberFormatException e) {
+      return Double.NaN;
+    }
+  }
+
+  private static List<String> readLocations() throws IOException {
+    try (BufferedReader reader =
+        new BufferedReader(
+            new InputStreamReader(
+                LocationParserTest.class.getResourceAsStream("/locations.txt"),
+                StandardCharsets.UTF_8))) {
+      return reader.lines().filter(line -> !line.startsWith("#")).collect(Collectors.toList());
+    }
+  }
+}
@@ -0,0 +1,18 @@
+-- same as processing-query.sql without the taxonomy join, for taxonomyLookup
+SELECT accession,
+       sample_accession,
+       location,
+       country,
+       identified_by,
+       collected_by,
+       collection_date,
+       specimen_voucher,
+       sequence_md5,
+       scientific_name,
+       tax_id,
+       altitude,
+       sex,
+       description,
+       host
+FROM embl_data
+ORDER BY accession;
@@ -0,0 +1,25 @@
+-- raw data with the taxonomy, in a defined order so both processing modes keep the same duplicates
+SELECT ed.accession,
+       ed.sample_accession,
+       ed.location,
+       ed.country,
+       ed.identified_by,
+       ed.collected_by,
+       ed.collection_date,
+       ed.specimen_voucher,
+       ed.sequence_md5,
+       ed.scientific_name,
+       ed.tax_id,
+       ed.altitude,
+       ed.sex,
+       ed.description,
+       ed.host,
+       et.kingdom,
+       et.phylum,
+       et.class,
+       et."order",
+       et.family,
+       et.genus
+FROM embl_data ed
+         LEFT JOIN ena_taxonomy et ON ed.tax_id = et.taxon_id
+ORDER BY ed.accession